@@ -0,0 +1,298 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Memory outside the Java heap, handed out in blocks and addressed by longs.
+ *
+ * The arena is a list of direct ByteBuffers ("chunks"). An address holds the chunk number in its
+ * high 32 bits and the offset within the chunk in its low 32 bits. Blocks never cross chunks and
+ * are rounded up to a multiple of 8 bytes. Freed blocks go on a free list for their size and are
+ * reused by the next allocation of the same size. Address 0 (NIL) is never handed out.
+ *
+ * An arena is not thread-safe.
+ */
+public class Arena {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The address that means "no block".
+   */
+  public static final long NIL = 0;
+
+  /**
+   * The default size of a chunk.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+
+  /**
+   * The largest block whose free list head lives in an array; larger sizes, which are rare, use
+   * a map.
+   */
+  static final int MAX_SMALL_BLOCK = 4096;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The size of a new chunk (a larger block gets a chunk of its own).
+   */
+  final int chunkSize;
+
+  /**
+   * The chunks, and how many of them we use.
+   */
+  ByteBuffer[] chunks = new ByteBuffer[4];
+  int chunkCount;
+
+  /**
+   * Where the next block goes in the last chunk.
+   */
+  int position;
+
+  /**
+   * The first free block of each size up to MAX_SMALL_BLOCK, indexed by size / 8. Each free
+   * block holds the address of the next one.
+   */
+  long[] free = new long[MAX_SMALL_BLOCK / 8 + 1];
+
+  /**
+   * The first free block of each larger size.
+   */
+  HashMap<Integer, Long> freeLarge = new HashMap<Integer, Long>();
+
+  /**
+   * Bytes in blocks that are allocated and not freed.
+   */
+  long used;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an arena whose chunks hold chunkSize bytes.
+   */
+  public Arena(int chunkSize) {
+    if (chunkSize < 64) {
+      throw new IllegalArgumentException("chunk size too small: " + chunkSize);
+    } // if
+    this.chunkSize = chunkSize & ~7;
+    addChunk(this.chunkSize);
+    // keep address 0 for NIL
+    this.position = 8;
+  } // Arena(int)
+
+  /**
+   * Create an arena over chunks that already hold blocks, with the next block going at position
+   * in the last chunk.
+   */
+  Arena(int chunkSize, ByteBuffer[] chunks, int chunkCount, int position) {
+    this.chunkSize = chunkSize;
+    this.chunks = chunks;
+    this.chunkCount = chunkCount;
+    this.position = position;
+  } // Arena(int, ByteBuffer[], int, int)
+
+  /**
+   * Create an arena with the default chunk size.
+   */
+  public Arena() {
+    this(DEFAULT_CHUNK_SIZE);
+  } // Arena()
+
+  // +------------+--------------------------------------------------
+  // | Allocation |
+  // +------------+
+
+  /**
+   * Get a block of at least bytes bytes. Its contents are undefined.
+   */
+  public long allocate(int bytes) {
+    int size = roundUp(bytes);
+    long reused = freeHead(size);
+    if (reused != NIL) {
+      setFreeHead(size, getLong(reused));
+      this.used += size;
+      return reused;
+    } // if
+    if (size > capacity(this.chunkCount - 1) - this.position) {
+      addChunk(Math.max(this.chunkSize, size));
+      this.position = 0;
+    } // if
+    long address = ((long) (this.chunkCount - 1) << 32) | this.position;
+    this.position += size;
+    this.used += size;
+    return address;
+  } // allocate(int)
+
+  /**
+   * Give back a block from allocate, which must be given the same size.
+   */
+  public void free(long address, int bytes) {
+    int size = roundUp(bytes);
+    putLong(address, freeHead(size));
+    setFreeHead(size, address);
+    this.used -= size;
+  } // free(long, int)
+
+  /**
+   * Forget every block and drop all chunks but the first. The direct memory goes back to the
+   * system when the garbage collector frees the buffers.
+   */
+  public void clear() {
+    Arrays.fill(this.chunks, 1, this.chunkCount, null);
+    this.chunkCount = 1;
+    this.position = 8;
+    Arrays.fill(this.free, NIL);
+    this.freeLarge.clear();
+    this.used = 0;
+  } // clear()
+
+  /**
+   * Bytes in blocks that are in use.
+   */
+  public long used() {
+    return this.used;
+  } // used()
+
+  /**
+   * Bytes of memory the arena holds.
+   */
+  public long reserved() {
+    long total = 0;
+    for (int c = 0; c < this.chunkCount; c++) {
+      total += capacity(c);
+    } // for
+    return total;
+  } // reserved()
+
+  // +--------+------------------------------------------------------
+  // | Access |
+  // +--------+
+
+  public int getInt(long address) {
+    return chunk(address).getInt(offset(address));
+  } // getInt(long)
+
+  public void putInt(long address, int value) {
+    chunk(address).putInt(offset(address), value);
+  } // putInt(long, int)
+
+  public long getLong(long address) {
+    return chunk(address).getLong(offset(address));
+  } // getLong(long)
+
+  public void putLong(long address, long value) {
+    chunk(address).putLong(offset(address), value);
+  } // putLong(long, long)
+
+  /**
+   * Copy length bytes starting at address into a new array.
+   */
+  public byte[] getBytes(long address, int length) {
+    byte[] bytes = new byte[length];
+    chunk(address).get(offset(address), bytes, 0, length);
+    return bytes;
+  } // getBytes(long, int)
+
+  /**
+   * Copy bytes into the arena, starting at address.
+   */
+  public void putBytes(long address, byte[] bytes) {
+    chunk(address).put(offset(address), bytes, 0, bytes.length);
+  } // putBytes(long, byte[])
+
+  /**
+   * Compare length bytes at address with the bytes of key, as unsigned bytes from left to right,
+   * with a prefix first. Returns a negative number, zero or a positive number as the bytes at
+   * address come before, equal or come after key. key must be a big-endian buffer whose bytes
+   * start at index 0.
+   */
+  public int compare(long address, int length, ByteBuffer key) {
+    ByteBuffer chunk = chunk(address);
+    int offset = offset(address);
+    int common = Math.min(length, key.limit());
+    int i = 0;
+    // eight bytes at a time: big-endian longs compare like their bytes
+    for (; i + 8 <= common; i += 8) {
+      long a = chunk.getLong(offset + i);
+      long b = key.getLong(i);
+      if (a != b) {
+        return Long.compareUnsigned(a, b);
+      } // if
+    } // for
+    for (; i < common; i++) {
+      int a = chunk.get(offset + i) & 0xFF;
+      int b = key.get(i) & 0xFF;
+      if (a != b) {
+        return a - b;
+      } // if
+    } // for
+    return length - key.limit();
+  } // compare(long, int, ByteBuffer)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * The first free block of the given size, or NIL.
+   */
+  long freeHead(int size) {
+    if (size <= MAX_SMALL_BLOCK) {
+      return this.free[size >>> 3];
+    } // if
+    Long head = this.freeLarge.get(size);
+    return (head == null) ? NIL : head;
+  } // freeHead(int)
+
+  void setFreeHead(int size, long address) {
+    if (size <= MAX_SMALL_BLOCK) {
+      this.free[size >>> 3] = address;
+    } else if (address == NIL) {
+      this.freeLarge.remove(size);
+    } else {
+      this.freeLarge.put(size, address);
+    } // if/else
+  } // setFreeHead(int, long)
+
+  ByteBuffer chunk(long address) {
+    return this.chunks[(int) (address >>> 32)];
+  } // chunk(long)
+
+  static int offset(long address) {
+    return (int) address;
+  } // offset(long)
+
+  static int roundUp(int bytes) {
+    return (Math.max(bytes, 8) + 7) & ~7;
+  } // roundUp(int)
+
+  int capacity(int chunk) {
+    return this.chunks[chunk].capacity();
+  } // capacity(int)
+
+  /**
+   * Make another chunk of the given size.
+   */
+  void addChunk(int size) {
+    if (this.chunkCount == this.chunks.length) {
+      this.chunks = Arrays.copyOf(this.chunks, 2 * this.chunks.length);
+    } // if
+    ByteBuffer chunk = newChunk(this.chunkCount, size);
+    this.chunks[this.chunkCount++] = chunk;
+  } // addChunk(int)
+
+  /**
+   * Get the memory for chunk number index.
+   */
+  ByteBuffer newChunk(int index, int size) {
+    return ByteBuffer.allocateDirect(size);
+  } // newChunk(int, int)
+
+} // class Arena
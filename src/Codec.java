@@ -0,0 +1,86 @@
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Turns keys or values into bytes and back, for maps that keep their data outside the Java heap.
+ *
+ * Key codecs must preserve order: if a precedes b, the bytes of a must come before the bytes of
+ * b when compared as unsigned bytes, left to right (a prefix comes first). The codecs here all
+ * do, except that STRINGS orders by code point, which differs from String.compareTo only for
+ * characters outside the Basic Multilingual Plane.
+ */
+public interface Codec<T> {
+
+  /**
+   * Turn a (non-null) object into bytes.
+   */
+  public byte[] encode(T object);
+
+  /**
+   * Turn bytes made by encode back into an object.
+   */
+  public T decode(byte[] bytes);
+
+  /**
+   * Make a codec from a pair of functions.
+   */
+  public static <T> Codec<T> of(Function<T, byte[]> encoder, Function<byte[], T> decoder) {
+    return new Codec<T>() {
+      @Override
+      public byte[] encode(T object) {
+        return encoder.apply(object);
+      } // encode(T)
+
+      @Override
+      public T decode(byte[] bytes) {
+        return decoder.apply(bytes);
+      } // decode(byte[])
+    };
+  } // of(Function<T, byte[]>, Function<byte[], T>)
+
+  /**
+   * Ints, big-endian with the sign bit flipped, so negative numbers come first.
+   */
+  public static final Codec<Integer> INTS = of((i) -> {
+    int bits = i ^ Integer.MIN_VALUE;
+    return new byte[] {(byte) (bits >>> 24), (byte) (bits >>> 16), (byte) (bits >>> 8),
+        (byte) bits};
+  }, (bytes) -> {
+    int bits = 0;
+    for (byte b : bytes) {
+      bits = (bits << 8) | (b & 0xFF);
+    } // for
+    return bits ^ Integer.MIN_VALUE;
+  });
+
+  /**
+   * Longs, big-endian with the sign bit flipped.
+   */
+  public static final Codec<Long> LONGS = of((l) -> {
+    long bits = l ^ Long.MIN_VALUE;
+    byte[] bytes = new byte[8];
+    for (int i = 7; i >= 0; i--) {
+      bytes[i] = (byte) bits;
+      bits >>>= 8;
+    } // for
+    return bytes;
+  }, (bytes) -> {
+    long bits = 0;
+    for (byte b : bytes) {
+      bits = (bits << 8) | (b & 0xFF);
+    } // for
+    return bits ^ Long.MIN_VALUE;
+  });
+
+  /**
+   * Strings, as UTF-8.
+   */
+  public static final Codec<String> STRINGS = of((s) -> s.getBytes(StandardCharsets.UTF_8),
+      (bytes) -> new String(bytes, StandardCharsets.UTF_8));
+
+  /**
+   * Byte arrays, as themselves (not copied).
+   */
+  public static final Codec<byte[]> BYTES = of((bytes) -> bytes, (bytes) -> bytes);
+
+} // interface Codec
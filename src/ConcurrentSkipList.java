@@ -0,0 +1,620 @@
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * A lock-free skip list that may be shared between threads.
+ *
+ * Forward links are updated with compare-and-set. A node is removed in two steps (after Harris
+ * and Fraser): its value is first swapped to null, which is the point at which the key leaves the
+ * map, and then every forward link of the node is marked so that no new node can be linked after
+ * it. Marked nodes are physically unlinked by whichever thread next walks past them.
+ *
+ * The iterators and forEach are weakly consistent: they never block writers, never throw
+ * ConcurrentModificationException, and see each key at most once.
+ */
+public class ConcurrentSkipList<K, V> implements SimpleMap<K, V> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The maximum height of a node.
+   */
+  static final int MAX_HEIGHT = 32;
+
+  /**
+   * What we store in place of a null value, since null marks a removed node.
+   */
+  static final Object NULL_VALUE = new Object();
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The comparator used to determine the ordering in the list.
+   */
+  final Comparator<K> comparator;
+
+  /**
+   * The number of values in the list.
+   */
+  final LongAdder size = new LongAdder();
+
+  /**
+   * The highest level that has ever been used. Searches start here.
+   */
+  final AtomicInteger height = new AtomicInteger(1);
+
+  /**
+   * The probability used to determine the height of nodes.
+   */
+  double prob = 0.5;
+
+  /**
+   * Turns random words into node heights. We only use its stateless level method, with words
+   * from ThreadLocalRandom, so threads never share generator state.
+   */
+  final LevelGenerator levels = new LevelGenerator(prob);
+
+  /**
+   * front is the head pointer of the list (pointing to other elements)
+   */
+  final CSLNode<K> front;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new skip list that orders values using the specified comparator.
+   */
+  public ConcurrentSkipList(Comparator<K> comparator) {
+    this.front = new CSLNode<K>(null, null, MAX_HEIGHT);
+    this.comparator = comparator;
+  } // ConcurrentSkipList(Comparator<K>)
+
+  /**
+   * Create a new skip list that orders values using the same default comparator as SkipList.
+   */
+  public ConcurrentSkipList() {
+    this((k1, k2) -> k1.toString().compareTo(k2.toString()));
+  } // ConcurrentSkipList()
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  @Override
+  public V set(K key, V value) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    Object newValue = mask(value);
+    CSLNode<K>[] preds = newTower();
+    CSLNode<K>[] succs = newTower();
+    int newHeight = randomHeight();
+    raiseHeight(newHeight);
+
+    while (true) {
+      CSLNode<K> found = find(key, preds, succs);
+      if (found != null) {
+        Object old = found.value.get();
+        if (old == null) {
+          // Someone is removing it; finish the job so that find can unlink it.
+          markTower(found);
+        } else if (found.value.compareAndSet(old, newValue)) {
+          return unmask(old);
+        } // if/else
+        continue;
+      } // if the key is already there
+
+      CSLNode<K> newNode = new CSLNode<K>(key, newValue, newHeight);
+      for (int level = 0; level < newHeight; level++) {
+        newNode.next[level].set(succs[level], false);
+      } // for
+      // Linking level 0 is the point at which the key joins the map.
+      if (!preds[0].next[0].compareAndSet(succs[0], newNode, false, false)) {
+        continue;
+      } // if
+      this.size.increment();
+      linkUpperLevels(newNode, preds, succs);
+      return null;
+    } // while
+  } // set(K,V)
+
+  @Override
+  public V get(K key) {
+    CSLNode<K> node = findNode(key);
+    Object value = (node == null) ? null : node.value.get();
+    if (value == null) {
+      throw new IndexOutOfBoundsException("The key was not found.");
+    } // if
+    return unmask(value);
+  } // get(K)
+
+  @Override
+  public V getOrDefault(K key, V defaultValue) {
+    CSLNode<K> node = findNode(key);
+    Object value = (node == null) ? null : node.value.get();
+    return (value == null) ? defaultValue : unmask(value);
+  } // getOrDefault(K, V)
+
+  @Override
+  public int size() {
+    return this.size.intValue();
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    CSLNode<K> node = findNode(key);
+    return node != null && node.value.get() != null;
+  } // containsKey(K)
+
+  @Override
+  public V remove(K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    CSLNode<K>[] preds = newTower();
+    CSLNode<K>[] succs = newTower();
+    while (true) {
+      CSLNode<K> found = find(key, preds, succs);
+      if (found == null) {
+        return null;
+      } // if
+      Object old = found.value.get();
+      if (old == null) {
+        // Another remove got there first.
+        return null;
+      } // if
+      if (found.value.compareAndSet(old, null)) {
+        markTower(found);
+        // Walking past it unlinks it at every level.
+        find(key, preds, succs);
+        this.size.decrement();
+        return unmask(old);
+      } // if
+    } // while
+  } // remove(K)
+
+  @Override
+  public Iterator<K> keys() {
+    return new Iterator<K>() {
+      NodeIterator nodes = new NodeIterator();
+
+      @Override
+      public boolean hasNext() {
+        return nodes.hasNext();
+      } // hasNext()
+
+      @Override
+      public K next() {
+        return nodes.next().key;
+      } // next()
+
+      @Override
+      public void remove() {
+        nodes.remove();
+      } // remove()
+    };
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    return new Iterator<V>() {
+      NodeIterator nodes = new NodeIterator();
+
+      @Override
+      public boolean hasNext() {
+        return nodes.hasNext();
+      } // hasNext()
+
+      @Override
+      public V next() {
+        nodes.next();
+        return unmask(nodes.lastValue);
+      } // next()
+
+      @Override
+      public void remove() {
+        nodes.remove();
+      } // remove()
+    };
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (CSLNode<K> node = front.next[0].getReference(); node != null; node =
+        node.next[0].getReference()) {
+      Object value = node.value.get();
+      if (value != null) {
+        action.accept(node.key, unmask(value));
+      } // if
+    } // for
+  } // forEach
+
+  // +------------------+--------------------------------------------
+  // | Queue operations |
+  // +------------------+
+
+  /**
+   * Get the entry with the smallest key, or null if the map is empty. This walks past removed
+   * nodes at the front, so it takes O(1) steps unless removals are still being cleaned up.
+   */
+  public Map.Entry<K, V> peekFirst() {
+    for (CSLNode<K> node = this.front.next[0].getReference(); node != null; node =
+        node.next[0].getReference()) {
+      Object value = node.value.get();
+      if (value != null) {
+        return new SimpleImmutableEntry<K, V>(node.key, unmask(value));
+      } // if
+    } // for
+    return null;
+  } // peekFirst()
+
+  /**
+   * Get the entry with the largest key, or null if the map is empty, in O(log n) steps.
+   */
+  public Map.Entry<K, V> peekLast() {
+    K bound = null;
+    while (true) {
+      CSLNode<K> node = lastBefore(bound);
+      if (node == null) {
+        return null;
+      } // if
+      Object value = node.value.get();
+      if (value != null) {
+        return new SimpleImmutableEntry<K, V>(node.key, unmask(value));
+      } // if
+      bound = node.key;
+    } // while
+  } // peekLast()
+
+  /**
+   * Remove and return the entry with the smallest key, or null if the map is empty. Threads that
+   * poll at once each get a different entry, so this map can serve as a work queue: the winner
+   * is whoever swaps the node's value to null, as in remove.
+   */
+  public Map.Entry<K, V> pollFirst() {
+    while (true) {
+      CSLNode<K> node = this.front.next[0].getReference();
+      while (node != null && node.value.get() == null) {
+        node = node.next[0].getReference();
+      } // while
+      if (node == null) {
+        return null;
+      } // if
+      Object old = claim(node, true);
+      if (old != null) {
+        return new SimpleImmutableEntry<K, V>(node.key, unmask(old));
+      } // if
+    } // while
+  } // pollFirst()
+
+  /**
+   * Remove and return the entry with the largest key, or null if the map is empty.
+   */
+  public Map.Entry<K, V> pollLast() {
+    K bound = null;
+    while (true) {
+      CSLNode<K> node = lastBefore(bound);
+      if (node == null) {
+        return null;
+      } // if
+      Object old = claim(node, false);
+      if (old != null) {
+        return new SimpleImmutableEntry<K, V>(node.key, unmask(old));
+      } // if
+      // it was removed under us; anything after it was removed too or is newer, so look again
+      bound = (node.value.get() == null) ? node.key : null;
+    } // while
+  } // pollLast()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Remove a node if nobody else has, and return its old value, or null if somebody else did.
+   * If first, the node is probably right after front at every level, so we try to unlink it
+   * there before falling back to a search.
+   */
+  Object claim(CSLNode<K> node, boolean first) {
+    Object old = node.value.get();
+    if (old == null || !node.value.compareAndSet(old, null)) {
+      return null;
+    } // if
+    markTower(node);
+    if (!first || !unlinkFromFront(node)) {
+      // Walking past it unlinks it at every level.
+      find(node.key, newTower(), newTower());
+    } // if
+    this.size.decrement();
+    return old;
+  } // claim(CSLNode<K>, boolean)
+
+  /**
+   * Try to unlink a marked node from front at each of its levels. Returns false if it did not
+   * follow front at some level, where it is left for a search to unlink.
+   */
+  boolean unlinkFromFront(CSLNode<K> node) {
+    boolean unlinked = true;
+    for (int level = node.next.length - 1; level >= 0; level--) {
+      CSLNode<K> succ = node.next[level].getReference();
+      if (!this.front.next[level].compareAndSet(node, succ, false, false)) {
+        unlinked = false;
+      } // if
+    } // for
+    return unlinked;
+  } // unlinkFromFront(CSLNode<K>)
+
+  /**
+   * Find the last node whose key is less than bound (or the last node, if bound is null), live
+   * or not, without modifying the list. Returns null if there is no such node.
+   */
+  CSLNode<K> lastBefore(K bound) {
+    CSLNode<K> finger = this.front;
+    for (int level = this.height.get() - 1; level >= 0; level--) {
+      CSLNode<K> curr = finger.next[level].getReference();
+      while (curr != null && (bound == null || precede(curr.key, bound))) {
+        finger = curr;
+        curr = curr.next[level].getReference();
+      } // while
+    } // for
+    return (finger == this.front) ? null : finger;
+  } // lastBefore(K)
+
+  /**
+   * Find the predecessor and successor of key at each level in use, unlinking any marked nodes
+   * we pass. Returns the node with the given key, or null if there is no such node.
+   */
+  CSLNode<K> find(K key, CSLNode<K>[] preds, CSLNode<K>[] succs) {
+    boolean[] marked = new boolean[1];
+    retry: while (true) {
+      CSLNode<K> pred = this.front;
+      for (int level = this.height.get() - 1; level >= 0; level--) {
+        CSLNode<K> curr = pred.next[level].getReference();
+        while (curr != null) {
+          CSLNode<K> succ = curr.next[level].get(marked);
+          if (marked[0]) {
+            // curr is being removed; snip it out and look at what followed it.
+            if (!pred.next[level].compareAndSet(curr, succ, false, false)) {
+              continue retry;
+            } // if
+            curr = succ;
+          } else if (precede(curr.key, key)) {
+            pred = curr;
+            curr = succ;
+          } else {
+            break;
+          } // if/else
+        } // while
+        preds[level] = pred;
+        succs[level] = curr;
+      } // for
+      CSLNode<K> candidate = succs[0];
+      return (candidate != null && this.comparator.compare(candidate.key, key) == 0) ? candidate
+          : null;
+    } // while
+  } // find(K, CSLNode<K>[], CSLNode<K>[])
+
+  /**
+   * Find the node with the given key without modifying the list. The node may have been
+   * removed, in which case its value is null.
+   */
+  CSLNode<K> findNode(K key) {
+    if (key == null) {
+      throw new NullPointerException("Inavlid key is null");
+    } // if
+    boolean[] marked = new boolean[1];
+    CSLNode<K> finger = this.front;
+    CSLNode<K> curr = null;
+    // Step over removed nodes but never descend from one: a removed node's links are frozen,
+    // so keys added after it was removed may not be reachable from it.
+    for (int level = this.height.get() - 1; level >= 0; level--) {
+      curr = finger.next[level].getReference();
+      while (curr != null) {
+        CSLNode<K> succ = curr.next[level].get(marked);
+        if (marked[0]) {
+          curr = succ;
+        } else if (precede(curr.key, key)) {
+          finger = curr;
+          curr = succ;
+        } else {
+          break;
+        } // if/else
+      } // while
+    } // for
+    return (curr != null && this.comparator.compare(curr.key, key) == 0) ? curr : null;
+  } // findNode(K)
+
+  /**
+   * Link a node that is already in level 0 into its remaining levels.
+   */
+  void linkUpperLevels(CSLNode<K> newNode, CSLNode<K>[] preds, CSLNode<K>[] succs) {
+    boolean[] marked = new boolean[1];
+    for (int level = 1; level < newNode.next.length; level++) {
+      while (true) {
+        CSLNode<K> succ = succs[level];
+        CSLNode<K> current = newNode.next[level].get(marked);
+        if (marked[0]) {
+          // It is already being removed, so there is no point linking it any higher.
+          return;
+        } // if
+        if (current != succ && !newNode.next[level].compareAndSet(current, succ, false, false)) {
+          continue;
+        } // if
+        if (preds[level].next[level].compareAndSet(succ, newNode, false, false)) {
+          if (newNode.next[level].isMarked()) {
+            // A remover marked it before we linked it; snip it out again and stop.
+            find(newNode.key, preds, succs);
+            return;
+          } // if
+          break;
+        } // if
+        if (find(newNode.key, preds, succs) != newNode) {
+          return;
+        } // if
+      } // while
+    } // for
+  } // linkUpperLevels(CSLNode<K>, CSLNode<K>[], CSLNode<K>[])
+
+  /**
+   * Mark every forward link of a node, from the top down, so that nothing can be linked after it.
+   */
+  static <K> void markTower(CSLNode<K> node) {
+    boolean[] marked = new boolean[1];
+    for (int level = node.next.length - 1; level >= 0; level--) {
+      CSLNode<K> succ = node.next[level].get(marked);
+      while (!marked[0]) {
+        node.next[level].compareAndSet(succ, succ, false, true);
+        succ = node.next[level].get(marked);
+      } // while
+    } // for
+  } // markTower(CSLNode<K>)
+
+  /**
+   * Make sure searches start at least as high as newHeight.
+   */
+  void raiseHeight(int newHeight) {
+    int current = this.height.get();
+    while (current < newHeight && !this.height.compareAndSet(current, newHeight)) {
+      current = this.height.get();
+    } // while
+  } // raiseHeight(int)
+
+  /**
+   * Pick a random height for a new node.
+   */
+  int randomHeight() {
+    return this.levels.level(ThreadLocalRandom.current().nextLong(), MAX_HEIGHT);
+  } // randomHeight()
+
+  /**
+   * Make an array with room for one node per level.
+   */
+  @SuppressWarnings("unchecked")
+  static <K> CSLNode<K>[] newTower() {
+    return (CSLNode<K>[]) new CSLNode<?>[MAX_HEIGHT];
+  } // newTower()
+
+  private boolean precede(K key1, K key2) {
+    return this.comparator.compare(key1, key2) < 0;
+  } // precede(K, K)
+
+  static Object mask(Object value) {
+    return (value == null) ? NULL_VALUE : value;
+  } // mask(Object)
+
+  @SuppressWarnings("unchecked")
+  static <V> V unmask(Object value) {
+    return (value == NULL_VALUE) ? null : (V) value;
+  } // unmask(Object)
+
+  /**
+   * A weakly consistent walk over the nodes that were present when we reached them.
+   */
+  class NodeIterator {
+    /**
+     * The next node to return and the value it had when we found it.
+     */
+    CSLNode<K> next;
+    Object nextValue;
+
+    /**
+     * The node most recently returned by next() and the value it had when we found it.
+     */
+    CSLNode<K> last;
+    Object lastValue;
+
+    NodeIterator() {
+      advance(ConcurrentSkipList.this.front);
+    } // NodeIterator()
+
+    /**
+     * Move next to the first live node after node.
+     */
+    void advance(CSLNode<K> node) {
+      CSLNode<K> candidate = node.next[0].getReference();
+      while (candidate != null) {
+        Object value = candidate.value.get();
+        if (value != null) {
+          this.nextValue = value;
+          break;
+        } // if
+        candidate = candidate.next[0].getReference();
+      } // while
+      this.next = candidate;
+    } // advance(CSLNode<K>)
+
+    boolean hasNext() {
+      return this.next != null;
+    } // hasNext()
+
+    CSLNode<K> next() {
+      if (this.next == null) {
+        throw new NoSuchElementException();
+      } // if
+      this.last = this.next;
+      this.lastValue = this.nextValue;
+      advance(this.next);
+      return this.last;
+    } // next()
+
+    void remove() {
+      if (this.last == null) {
+        throw new IllegalStateException();
+      } // if
+      ConcurrentSkipList.this.remove(this.last.key);
+      this.last = null;
+    } // remove()
+  } // class NodeIterator
+
+} // class ConcurrentSkipList
+
+
+/**
+ * Nodes in a ConcurrentSkipList.
+ */
+class CSLNode<K> {
+
+  /**
+   * The key.
+   */
+  final K key;
+
+  /**
+   * The value, or null once the node has been removed.
+   */
+  final AtomicReference<Object> value;
+
+  /**
+   * Pointers to the next nodes. A marked pointer means this node has been removed.
+   */
+  final AtomicMarkableReference<CSLNode<K>>[] next;
+
+  /**
+   * Create a new node of height n with the specified key and value.
+   */
+  @SuppressWarnings("unchecked")
+  CSLNode(K key, Object value, int n) {
+    this.key = key;
+    this.value = new AtomicReference<Object>(value);
+    this.next = (AtomicMarkableReference<CSLNode<K>>[]) new AtomicMarkableReference<?>[n];
+    for (int i = 0; i < n; i++) {
+      this.next[i] = new AtomicMarkableReference<CSLNode<K>>(null, false);
+    } // for
+  } // CSLNode(K, Object, int)
+
+} // CSLNode<K>
@@ -0,0 +1,311 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+
+/**
+ * Tests of the skip lists that may be shared between threads.
+ */
+public class ConcurrentSkipListTests {
+
+  /**
+   * With one thread, the list should behave exactly like a TreeMap.
+   */
+  @Test
+  public void sequentialMatchesTreeMap() {
+    ConcurrentSkipList<Integer, String> list =
+        new ConcurrentSkipList<Integer, String>((i, j) -> i - j);
+    TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+    Random random = new Random(207);
+    for (int i = 0; i < 5000; i++) {
+      int key = random.nextInt(300);
+      if (random.nextBoolean()) {
+        assertEquals(expected.put(key, "v" + i), list.set(key, "v" + i));
+      } else {
+        assertEquals(expected.remove(key), list.remove(key));
+      } // if/else
+    } // for
+    assertEquals(expected.size(), list.size());
+    Iterator<Integer> keys = list.keys();
+    for (Integer key : expected.keySet()) {
+      assertEquals(key, keys.next());
+      assertEquals(expected.get(key), list.get(key));
+    } // for
+    assertFalse(keys.hasNext());
+  } // sequentialMatchesTreeMap()
+
+  /**
+   * Null values are values, not removals.
+   */
+  @Test
+  public void nullValues() {
+    ConcurrentSkipList<String, String> list = new ConcurrentSkipList<String, String>();
+    list.set("a", null);
+    assertTrue(list.containsKey("a"));
+    assertNull(list.get("a"));
+    assertNull(list.set("a", "A"));
+    assertEquals("A", list.remove("a"));
+    assertFalse(list.containsKey("a"));
+  } // nullValues()
+
+  /**
+   * Threads that add and remove disjoint keys should not lose each other's updates.
+   */
+  @Test
+  public void concurrentDisjointUpdates() throws InterruptedException {
+    ConcurrentSkipList<Integer, Integer> list =
+        new ConcurrentSkipList<Integer, Integer>((i, j) -> i - j);
+    int threads = 4;
+    int perThread = 2000;
+    ArrayList<Thread> workers = new ArrayList<Thread>();
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      workers.add(new Thread(() -> {
+        for (int i = 0; i < perThread; i++) {
+          list.set(i * threads + offset, i);
+        } // for
+        // Remove the odd ones again.
+        for (int i = 1; i < perThread; i += 2) {
+          list.remove(i * threads + offset);
+        } // for
+      }));
+    } // for
+    for (Thread worker : workers) {
+      worker.start();
+    } // for
+    for (Thread worker : workers) {
+      worker.join();
+    } // for
+    assertEquals(threads * perThread / 2, list.size());
+    int count = 0;
+    Integer previous = null;
+    for (Iterator<Integer> it = list.keys(); it.hasNext();) {
+      Integer key = it.next();
+      assertTrue((key / threads) % 2 == 0);
+      assertTrue(previous == null || previous < key);
+      previous = key;
+      count++;
+    } // for
+    assertEquals(threads * perThread / 2, count);
+  } // concurrentDisjointUpdates()
+
+  /**
+   * Threads polling both ends of the list as a work queue should get every key exactly once,
+   * while producers keep adding.
+   */
+  @Test
+  public void concurrentPollsTakeEachKeyOnce() throws InterruptedException {
+    ConcurrentSkipList<Integer, Integer> list =
+        new ConcurrentSkipList<Integer, Integer>((i, j) -> i - j);
+    int threads = 4;
+    int perThread = 5000;
+    AtomicIntegerArray taken = new AtomicIntegerArray(threads * perThread);
+    ArrayList<Thread> workers = new ArrayList<Thread>();
+    for (int t = 0; t < threads; t++) {
+      int first = t * perThread;
+      boolean fromEnd = (t % 2 == 1);
+      workers.add(new Thread(() -> {
+        for (int i = first; i < first + perThread; i++) {
+          list.set(i, i);
+          Map.Entry<Integer, Integer> entry = fromEnd ? list.pollLast() : list.pollFirst();
+          if (entry != null) {
+            taken.incrementAndGet(entry.getKey());
+          } // if
+        } // for
+      }));
+    } // for
+    for (Thread worker : workers) {
+      worker.start();
+    } // for
+    for (Thread worker : workers) {
+      worker.join();
+    } // for
+    // a poll finds nothing if others emptied the list just then, so some may be left
+    for (Map.Entry<Integer, Integer> entry = list.pollFirst(); entry != null; entry =
+        list.pollFirst()) {
+      taken.incrementAndGet(entry.getKey());
+    } // for
+    assertEquals(0, list.size());
+    assertNull(list.peekFirst());
+    assertNull(list.pollLast());
+    for (int i = 0; i < taken.length(); i++) {
+      assertEquals(1, taken.get(i));
+    } // for
+    list.set(3, 3);
+    list.set(1, 1);
+    assertEquals(Integer.valueOf(1), list.peekFirst().getKey());
+    assertEquals(Integer.valueOf(3), list.peekLast().getKey());
+  } // concurrentPollsTakeEachKeyOnce()
+
+  /**
+   * A key set after its neighbours were removed should be found at once, even while removals
+   * race with the linking of the removed nodes' upper levels.
+   */
+  @Test
+  public void lookupsSeeKeysSetAfterRemovals() throws InterruptedException {
+    ConcurrentSkipList<Integer, Integer> list =
+        new ConcurrentSkipList<Integer, Integer>((i, j) -> i - j);
+    int threads = 4;
+    boolean[] failed = new boolean[1];
+    ArrayList<Thread> workers = new ArrayList<Thread>();
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      workers.add(new Thread(() -> {
+        for (int round = 0; round < 200; round++) {
+          for (int i = offset; i < 2000; i += threads) {
+            if (i % 2 == 1) {
+              // churn: nodes that are removed as soon as they are linked
+              list.set(i, round);
+              list.remove(i);
+            } else {
+              list.set(i, round);
+              if (!list.containsKey(i) || list.getOrDefault(i, -1) != round) {
+                failed[0] = true;
+              } // if
+              list.remove(i);
+            } // if/else
+          } // for
+        } // for
+      }));
+    } // for
+    for (Thread worker : workers) {
+      worker.start();
+    } // for
+    for (Thread worker : workers) {
+      worker.join();
+    } // for
+    assertFalse(failed[0]);
+    assertEquals(0, list.size());
+  } // lookupsSeeKeysSetAfterRemovals()
+
+  /**
+   * A removed node that a late link left in an upper level must not hide the keys after it.
+   */
+  @Test
+  public void lookupsStepOverRemovedTowers() {
+    ConcurrentSkipList<Integer, Integer> list =
+        new ConcurrentSkipList<Integer, Integer>((i, j) -> i - j);
+    list.set(40, 40);
+    // 20 was removed while 40 followed it, then 30 was set
+    CSLNode<Integer> removed = new CSLNode<Integer>(20, null, 2);
+    removed.next[0].set(list.front.next[0].getReference(), true);
+    list.set(30, 30);
+    // and only now did the remover's rival link 20 into level 1
+    removed.next[1].set(list.front.next[1].getReference(), true);
+    list.front.next[1].set(removed, false);
+    list.height.set(Math.max(2, list.height.get()));
+    assertTrue(list.containsKey(30));
+    assertEquals(Integer.valueOf(30), list.get(30));
+    assertFalse(list.containsKey(20));
+  } // lookupsStepOverRemovedTowers()
+
+  /**
+   * Readers racing with a writer should only ever see keys that are really there.
+   */
+  @Test
+  public void stampedReadersSeeConsistentValues() throws InterruptedException {
+    StampedSkipList<Integer, Integer> list = new StampedSkipList<Integer, Integer>((i, j) -> i - j);
+    // Even keys are always present; odd keys come and go.
+    for (int i = 0; i < 1000; i += 2) {
+      list.set(i, i);
+    } // for
+    boolean[] failed = new boolean[1];
+    Thread writer = new Thread(() -> {
+      for (int round = 0; round < 20; round++) {
+        for (int i = 1; i < 1000; i += 2) {
+          list.set(i, i);
+        } // for
+        for (int i = 1; i < 1000; i += 2) {
+          list.remove(i);
+        } // for
+      } // for
+    });
+    Thread reader = new Thread(() -> {
+      Random random = new Random(207);
+      for (int i = 0; i < 100000; i++) {
+        int key = random.nextInt(500) * 2;
+        if (!list.containsKey(key) || list.get(key) != key) {
+          failed[0] = true;
+        } // if
+      } // for
+    });
+    writer.start();
+    reader.start();
+    writer.join();
+    reader.join();
+    assertFalse(failed[0]);
+    assertEquals(500, list.size());
+  } // stampedReadersSeeConsistentValues()
+
+  /**
+   * Each lookup through a StampedSkipList counts once in the metrics, however many optimistic
+   * attempts a busy writer makes it take.
+   */
+  @Test
+  public void stampedLookupsCountOnce() throws InterruptedException {
+    SkipList<Integer, Integer> inner = new SkipList<Integer, Integer>((i, j) -> i - j);
+    SkipListMetrics metrics = inner.enableMetrics();
+    StampedSkipList<Integer, Integer> list = new StampedSkipList<Integer, Integer>(inner);
+    AtomicBoolean done = new AtomicBoolean();
+    Thread writer = new Thread(() -> {
+      for (int i = 0; !done.get(); i = (i + 1) % 1000) {
+        list.set(i, i);
+        list.remove(i);
+      } // for
+    });
+    writer.start();
+    for (int i = 0; i < 50000; i++) {
+      list.getOrDefault(i % 1000, null);
+    } // for
+    done.set(true);
+    writer.join();
+    assertEquals(50000, metrics.getLookups());
+  } // stampedLookupsCountOnce()
+
+  /**
+   * A scan of a snapshot should see the map as it was, however a writer changes it meanwhile.
+   */
+  @Test
+  public void stampedSnapshotScansAreConsistent() throws InterruptedException {
+    StampedSkipList<Integer, Integer> list = new StampedSkipList<Integer, Integer>((i, j) -> i - j);
+    for (int i = 0; i < 5000; i++) {
+      list.set(i, i);
+    } // for
+    SkipListSnapshot<Integer, Integer> snapshot = list.snapshot();
+    Thread writer = new Thread(() -> {
+      Random random = new Random(222);
+      for (int i = 0; i < 50000; i++) {
+        int key = random.nextInt(6000);
+        if (random.nextBoolean()) {
+          list.set(key, -key);
+        } else {
+          list.remove(key);
+        } // if/else
+      } // for
+    });
+    writer.start();
+    boolean[] failed = new boolean[1];
+    int[] count = new int[1];
+    for (int round = 0; round < 5; round++) {
+      count[0] = 0;
+      snapshot.forEach((key, value) -> {
+        if (!key.equals(count[0]) || !value.equals(key)) {
+          failed[0] = true;
+        } // if
+        count[0]++;
+      });
+      assertEquals(5000, count[0]);
+    } // for
+    writer.join();
+    assertFalse(failed[0]);
+    assertEquals(Integer.valueOf(4999), snapshot.get(4999));
+    snapshot.close();
+    assertTrue(list.list.snapshots.isEmpty());
+  } // stampedSnapshotScansAreConsistent()
+
+} // class ConcurrentSkipListTests
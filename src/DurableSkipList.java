@@ -0,0 +1,681 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * A thread-safe SkipList whose changes survive restarts, kept in a directory of snapshots and
+ * write-ahead logs.
+ *
+ * set and remove append a record to the current log before changing the list, and then wait
+ * as the SyncPolicy says. Readers go through a StampedSkipList and never touch the disk; they
+ * may see a change before its record is on the disk.
+ *
+ * Every so often (by default, once the log passes 64 MB) we start a new log and write a
+ * snapshot of the list by walking level 0. Snapshot n holds everything in the logs before log
+ * n, so once it is safely on the disk the older files go. It is written by a background thread
+ * from a SkipListSnapshot opened as the log starts, so writers carry on meanwhile; if writing it
+ * fails, later writes fail too. Opening a directory loads the newest
+ * snapshot with loadSorted, in linear time, and replays the logs from there on.
+ *
+ * The files are named snapshot-n.dat and log-n.wal. The directory must be used by one
+ * DurableSkipList at a time.
+ */
+public class DurableSkipList<K, V> implements SimpleMap<K, V>, Closeable {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * When set and remove return.
+   */
+  public enum SyncPolicy {
+    /**
+     * Once the change is forced to the disk. Writers that arrive together share one fsync.
+     */
+    ALWAYS,
+    /**
+     * At once; a background thread forces the log every interval, so a machine crash loses at
+     * most that much.
+     */
+    INTERVAL,
+    /**
+     * At once; the log is written to the operating system when its buffer fills and forced only
+     * at snapshots and close, so a process crash can lose the last 64 KB of changes.
+     */
+    NONE
+  } // enum SyncPolicy
+
+  static final long SNAPSHOT_MAGIC = 0x534b4950534e4150L; // "SKIPSNAP"
+
+  static final byte SET = 1;
+  static final byte REMOVE = 2;
+
+  /**
+   * How much we let the log buffer hold before writing it out, for INTERVAL and NONE.
+   */
+  static final int FLUSH_BYTES = 1 << 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the files are.
+   */
+  final Path directory;
+
+  final Codec<K> keyCodec;
+  final Codec<V> valueCodec;
+  final SyncPolicy policy;
+
+  /**
+   * The list, and the thread-safe view of it that we use. recover replaces both with the list it
+   * loads from a snapshot, before anyone else sees the map.
+   */
+  SkipList<K, V> list;
+  StampedSkipList<K, V> view;
+
+  /**
+   * Writers hold this while they log and apply a change, so the log has changes in the order
+   * they were applied.
+   */
+  final Object writeLock = new Object();
+
+  /**
+   * Held while a snapshot is written, so there is one at a time. Writers do not take it.
+   */
+  final Object snapshotLock = new Object();
+
+  /**
+   * The log we append to, and its number.
+   */
+  WriteAheadLog log;
+  long logNumber;
+
+  /**
+   * Start a new log and snapshot once the log is this long.
+   */
+  long snapshotBytes = 64L << 20;
+
+  /**
+   * The thread that writes snapshots once the log is long enough (and forces the log, for
+   * SyncPolicy.INTERVAL), and the first thing that went wrong there.
+   */
+  ScheduledExecutorService background;
+  volatile IOException backgroundFailure;
+
+  /**
+   * Whether the background thread has a snapshot to write. Guarded by writeLock.
+   */
+  boolean snapshotQueued;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  DurableSkipList(Path directory, Comparator<K> comparator, Codec<K> keyCodec,
+      Codec<V> valueCodec, SyncPolicy policy) {
+    this.directory = directory;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.policy = policy;
+    this.list = new SkipList<K, V>(comparator);
+    this.view = new StampedSkipList<K, V>(this.list);
+  } // DurableSkipList(Path, Comparator<K>, Codec<K>, Codec<V>, SyncPolicy)
+
+  /**
+   * Open the map kept in directory (creating the directory if needed). For INTERVAL, the log is
+   * forced every 100 ms.
+   */
+  public static <K, V> DurableSkipList<K, V> open(Path directory, Comparator<K> comparator,
+      Codec<K> keyCodec, Codec<V> valueCodec, SyncPolicy policy) throws IOException {
+    return open(directory, comparator, keyCodec, valueCodec, policy, 100);
+  } // open(Path, Comparator<K>, Codec<K>, Codec<V>, SyncPolicy)
+
+  /**
+   * Open the map kept in directory, forcing the log every intervalMillis if policy is INTERVAL.
+   */
+  public static <K, V> DurableSkipList<K, V> open(Path directory, Comparator<K> comparator,
+      Codec<K> keyCodec, Codec<V> valueCodec, SyncPolicy policy, long intervalMillis)
+      throws IOException {
+    Files.createDirectories(directory);
+    DurableSkipList<K, V> map =
+        new DurableSkipList<K, V>(directory, comparator, keyCodec, valueCodec, policy);
+    map.recover();
+    map.background = Executors.newSingleThreadScheduledExecutor((task) -> {
+      Thread thread = new Thread(task, "DurableSkipList " + directory);
+      thread.setDaemon(true);
+      return thread;
+    });
+    if (policy == SyncPolicy.INTERVAL) {
+      map.background.scheduleWithFixedDelay(map::syncQuietly, intervalMillis, intervalMillis,
+          TimeUnit.MILLISECONDS);
+    } // if
+    return map;
+  } // open(Path, Comparator<K>, Codec<K>, Codec<V>, SyncPolicy, long)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Set the value associated with key, and log it.
+   *
+   * @throws UncheckedIOException if the log cannot be written or a background snapshot failed.
+   */
+  @Override
+  public V set(K key, V value) {
+    byte[] record = encode(SET, key, value);
+    long seq;
+    V old;
+    synchronized (this.writeLock) {
+      checkBackground();
+      seq = this.log.append(record);
+      old = this.view.set(key, value);
+    } // synchronized
+    afterWrite(seq);
+    return old;
+  } // set(K, V)
+
+  @Override
+  public V get(K key) {
+    return this.view.get(key);
+  } // get(K)
+
+  @Override
+  public V getOrDefault(K key, V defaultValue) {
+    return this.view.getOrDefault(key, defaultValue);
+  } // getOrDefault(K, V)
+
+  @Override
+  public int size() {
+    return this.view.size();
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    return this.view.containsKey(key);
+  } // containsKey(K)
+
+  /**
+   * Remove the value with the given key, and log it if there was one.
+   *
+   * @throws UncheckedIOException if the log cannot be written or a background snapshot failed.
+   */
+  @Override
+  public V remove(K key) {
+    byte[] record = encode(REMOVE, key, null);
+    long seq;
+    V old;
+    synchronized (this.writeLock) {
+      checkBackground();
+      if (!this.view.containsKey(key)) {
+        return null;
+      } // if
+      seq = this.log.append(record);
+      old = this.view.remove(key);
+    } // synchronized
+    afterWrite(seq);
+    return old;
+  } // remove(K)
+
+  @Override
+  public Iterator<K> keys() {
+    return this.view.keys();
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    return this.view.values();
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    this.view.forEach(action);
+  } // forEach
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Start a new log once the current one is this long, writing a snapshot.
+   */
+  public void setSnapshotBytes(long bytes) {
+    this.snapshotBytes = bytes;
+  } // setSnapshotBytes(long)
+
+  /**
+   * Force every change so far to the disk.
+   */
+  public void sync() throws IOException {
+    WriteAheadLog current;
+    synchronized (this.writeLock) {
+      current = this.log;
+    } // synchronized
+    current.sync();
+  } // sync()
+
+  /**
+   * Start a new log and write a snapshot of the list as it was then, then delete the files the
+   * snapshot makes unnecessary. Writers wait only while the log changes, not while the snapshot
+   * is written.
+   */
+  public void snapshot() throws IOException {
+    snapshot(null);
+  } // snapshot()
+
+  /**
+   * Force everything to the disk and close the files. The map must not be used afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    // Periodic syncs stop at once; a queued snapshot is still written.
+    this.background.shutdown();
+    try {
+      this.background.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } // try/catch
+    synchronized (this.snapshotLock) {
+      synchronized (this.writeLock) {
+        this.log.close();
+      } // synchronized
+    } // synchronized
+  } // close()
+
+  // +----------+----------------------------------------------------
+  // | Recovery |
+  // +----------+
+
+  /**
+   * Load the newest snapshot, replay the logs after it, and start a new log.
+   */
+  void recover() throws IOException {
+    TreeSet<Long> snapshots = new TreeSet<Long>();
+    TreeSet<Long> logs = new TreeSet<Long>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        long number = fileNumber(name);
+        if (number < 0) {
+          if (name.matches("snapshot-\\d+\\.tmp")) {
+            // a snapshot we did not finish
+            Files.delete(file);
+          } // if
+        } else if (name.startsWith("snapshot-")) {
+          snapshots.add(number);
+        } else {
+          logs.add(number);
+        } // if/else
+      } // for
+    } // try
+
+    long start = 0;
+    if (!snapshots.isEmpty()) {
+      start = snapshots.last();
+      this.list = readSnapshot(snapshotFile(start));
+      this.view = new StampedSkipList<K, V>(this.list);
+    } // if
+    for (long number : logs.tailSet(start)) {
+      WriteAheadLog.read(logFile(number), this::replay);
+    } // for
+    this.logNumber = Math.max(start, logs.isEmpty() ? 0 : logs.last()) + 1;
+    this.log = new WriteAheadLog(logFile(this.logNumber));
+    forceDirectory();
+  } // recover()
+
+  /**
+   * Apply one record from a log.
+   */
+  void replay(ByteBuffer record) {
+    byte op = record.get();
+    K key = this.keyCodec.decode(readBytes(record));
+    if (op == SET) {
+      byte[] value = readBytes(record);
+      this.list.set(key, (value == null) ? null : this.valueCodec.decode(value));
+    } else {
+      this.list.remove(key);
+    } // if/else
+  } // replay(ByteBuffer)
+
+  // +-----------+---------------------------------------------------
+  // | Snapshots |
+  // +-----------+
+
+  /**
+   * Snapshot, as in snapshot(), unless expected is not null and is no longer our log (because
+   * someone else got there first).
+   */
+  void snapshot(WriteAheadLog expected) throws IOException {
+    synchronized (this.snapshotLock) {
+      long number;
+      WriteAheadLog old;
+      SkipListSnapshot<K, V> image;
+      synchronized (this.writeLock) {
+        if (expected != null && this.log != expected) {
+          return;
+        } // if
+        number = this.logNumber + 1;
+        WriteAheadLog log = new WriteAheadLog(logFile(number));
+        image = this.view.snapshot();
+        old = this.log;
+        this.log = log;
+        this.logNumber = number;
+      } // synchronized
+      try {
+        // Until the snapshot is on the disk, we need the old log.
+        old.close();
+        Path temporary = this.directory.resolve("snapshot-" + number + ".tmp");
+        writeSnapshot(temporary, image);
+        Files.move(temporary, snapshotFile(number), StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+      } finally {
+        image.close();
+      } // try/finally
+      deleteBefore(number);
+    } // synchronized
+  } // snapshot(WriteAheadLog)
+
+  /**
+   * Write every entry of image, in order, with a count first and a CRC last, and force the file.
+   */
+  void writeSnapshot(Path file, SkipListSnapshot<K, V> image) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      CheckedOutputStream checked = new CheckedOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), new CRC32());
+      DataOutputStream out = new DataOutputStream(checked);
+      out.writeLong(SNAPSHOT_MAGIC);
+      out.writeInt(image.size());
+      try {
+        image.forEach((key, value) -> {
+          try {
+            writeBytes(out, this.keyCodec.encode(key));
+            writeBytes(out, (value == null) ? null : this.valueCodec.encode(value));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          } // try/catch
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } // try/catch
+      out.writeInt((int) checked.getChecksum().getValue());
+      out.flush();
+      channel.force(true);
+    } // try
+  } // writeSnapshot(Path, SkipListSnapshot<K, V>)
+
+  /**
+   * Load a snapshot into a new list. A corrupt file leaves our list as it was.
+   */
+  SkipList<K, V> readSnapshot(Path file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(file), 1 << 16))) {
+      CRC32 crc = new CRC32();
+      DataInputStream checked = new DataInputStream(new CheckedInputStream(in, crc));
+      if (checked.readLong() != SNAPSHOT_MAGIC) {
+        throw new IOException(file + " is not a snapshot");
+      } // if
+      int count = checked.readInt();
+      Iterator<Map.Entry<K, V>> entries = new Iterator<Map.Entry<K, V>>() {
+        int remaining = count;
+
+        @Override
+        public boolean hasNext() {
+          return this.remaining > 0;
+        } // hasNext()
+
+        @Override
+        public Map.Entry<K, V> next() {
+          if (this.remaining == 0) {
+            throw new NoSuchElementException();
+          } // if
+          this.remaining--;
+          try {
+            K key = DurableSkipList.this.keyCodec.decode(readBytes(checked));
+            byte[] value = readBytes(checked);
+            return new SimpleEntry<K, V>(key,
+                (value == null) ? null : DurableSkipList.this.valueCodec.decode(value));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          } // try/catch
+        } // next()
+      };
+      SkipList<K, V> loaded = new SkipList<K, V>(this.list.comparator);
+      try {
+        loaded.loadSorted(entries, false);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } // try/catch
+      int expected = (int) crc.getValue();
+      if (in.readInt() != expected) {
+        throw new IOException(file + " is corrupt");
+      } // if
+      return loaded;
+    } catch (EOFException e) {
+      throw new IOException(file + " is cut short", e);
+    } // try/catch
+  } // readSnapshot(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Wait for the record with sequence number seq as the policy says, and have the background
+   * thread snapshot if the log is long enough.
+   */
+  void afterWrite(long seq) {
+    WriteAheadLog current;
+    synchronized (this.writeLock) {
+      current = this.log;
+    } // synchronized
+    try {
+      if (this.policy == SyncPolicy.ALWAYS) {
+        current.commit(seq, true);
+      } else if (current.pendingBytes() >= FLUSH_BYTES) {
+        current.commit(seq, false);
+      } // if/else
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+    if (current.length() >= this.snapshotBytes) {
+      synchronized (this.writeLock) {
+        // someone else may have got there first
+        if (this.log == current && !this.snapshotQueued) {
+          this.snapshotQueued = true;
+          this.background.execute(() -> inBackground(() -> snapshot(current)));
+        } // if
+      } // synchronized
+    } // if
+  } // afterWrite(long)
+
+  /**
+   * Something that the background thread does.
+   */
+  interface Task {
+    void run() throws IOException;
+  } // interface Task
+
+  /**
+   * Run a queued snapshot, remembering the first failure so that writers hear of it.
+   */
+  void inBackground(Task task) {
+    try {
+      task.run();
+    } catch (IOException | RuntimeException e) {
+      if (this.backgroundFailure == null) {
+        this.backgroundFailure = (e instanceof IOException) ? (IOException) e : new IOException(e);
+      } // if
+    } finally {
+      synchronized (this.writeLock) {
+        this.snapshotQueued = false;
+      } // synchronized
+    } // try/catch/finally
+  } // inBackground(Task)
+
+  /**
+   * Wait for the background thread to finish what is queued.
+   *
+   * @throws IOException if a background snapshot failed.
+   */
+  void await() throws IOException {
+    try {
+      this.background.submit(() -> { }).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for the background thread", e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } // try/catch
+    if (this.backgroundFailure != null) {
+      throw new IOException("a background snapshot failed", this.backgroundFailure);
+    } // if
+  } // await()
+
+  /**
+   * Refuse to write once a background snapshot has failed. The caller holds the write lock.
+   */
+  void checkBackground() {
+    if (this.backgroundFailure != null) {
+      throw new UncheckedIOException("a background snapshot failed", this.backgroundFailure);
+    } // if
+  } // checkBackground()
+
+  void syncQuietly() {
+    try {
+      sync();
+    } catch (IOException e) {
+      // the next write or sync reports it
+    } // try/catch
+  } // syncQuietly()
+
+  byte[] encode(byte op, K key, V value) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    byte[] keyBytes = this.keyCodec.encode(key);
+    byte[] valueBytes = (op == SET && value != null) ? this.valueCodec.encode(value) : null;
+    int size = 1 + 4 + keyBytes.length;
+    if (op == SET) {
+      size += 4 + ((valueBytes == null) ? 0 : valueBytes.length);
+    } // if
+    ByteBuffer record = ByteBuffer.allocate(size);
+    record.put(op).putInt(keyBytes.length).put(keyBytes);
+    if (op == SET) {
+      record.putInt((valueBytes == null) ? -1 : valueBytes.length);
+      if (valueBytes != null) {
+        record.put(valueBytes);
+      } // if
+    } // if
+    return record.array();
+  } // encode(byte, K, V)
+
+  /**
+   * Read a length (-1 for null) and that many bytes.
+   */
+  static byte[] readBytes(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    } // if
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  } // readBytes(ByteBuffer)
+
+  static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    } // if
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  } // readBytes(DataInputStream)
+
+  static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    } // if/else
+  } // writeBytes(DataOutputStream, byte[])
+
+  Path snapshotFile(long number) {
+    return this.directory.resolve("snapshot-" + number + ".dat");
+  } // snapshotFile(long)
+
+  Path logFile(long number) {
+    return this.directory.resolve("log-" + number + ".wal");
+  } // logFile(long)
+
+  /**
+   * Delete the snapshots and logs before number.
+   */
+  void deleteBefore(long number) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+      for (Path file : files) {
+        long n = fileNumber(file.getFileName().toString());
+        if (n >= 0 && n < number) {
+          Files.delete(file);
+        } // if
+      } // for
+    } // try
+  } // deleteBefore(long)
+
+  /**
+   * Get n from snapshot-n.dat or log-n.wal, or -1 if name is not like either.
+   */
+  static long fileNumber(String name) {
+    if (name.matches("snapshot-\\d+\\.dat")) {
+      return Long.parseLong(name.substring(9, name.length() - 4));
+    } else if (name.matches("log-\\d+\\.wal")) {
+      return Long.parseLong(name.substring(4, name.length() - 4));
+    } // if/else
+    return -1;
+  } // fileNumber(String)
+
+  /**
+   * Make sure renames and new files in the directory are on the disk. Not every system lets us
+   * open a directory; there, we do without.
+   */
+  void forceDirectory() {
+    try (FileChannel channel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // best effort
+    } // try/catch
+  } // forceDirectory()
+
+} // class DurableSkipList
@@ -0,0 +1,201 @@
+import static org.junit.Assert.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+/**
+ * Tests of the skip list kept in snapshots and write-ahead logs.
+ */
+public class DurableSkipListTests {
+
+  static final Comparator<Integer> ORDER = Integer::compare;
+
+  /**
+   * Changes survive close and open, with and without snapshots in between.
+   */
+  @Test
+  public void reopenKeepsChanges() throws IOException {
+    Path directory = Files.createTempDirectory("durable");
+    try {
+      TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+      Random random = new Random(207);
+      for (DurableSkipList.SyncPolicy policy : DurableSkipList.SyncPolicy.values()) {
+        DurableSkipList<Integer, String> map = open(directory, policy);
+        assertMatches(expected, map);
+        // small logs, so that some rounds snapshot along the way
+        map.setSnapshotBytes(20000);
+        for (int i = 0; i < 2000; i++) {
+          int key = random.nextInt(500);
+          if (random.nextInt(3) > 0) {
+            String value = (i % 50 == 0) ? null : "v" + i;
+            assertEquals(expected.put(key, value), map.set(key, value));
+          } else {
+            assertEquals(expected.remove(key), map.remove(key));
+          } // if/else
+        } // for
+        map.close();
+      } // for
+      DurableSkipList<Integer, String> map = open(directory, DurableSkipList.SyncPolicy.NONE);
+      assertMatches(expected, map);
+      map.snapshot();
+      map.close();
+      // one snapshot and the log after it are all that is left
+      try (Stream<Path> files = Files.list(directory)) {
+        assertEquals(2, files.count());
+      } // try
+      map = open(directory, DurableSkipList.SyncPolicy.NONE);
+      assertMatches(expected, map);
+      map.close();
+    } finally {
+      delete(directory);
+    } // try/finally
+  } // reopenKeepsChanges()
+
+  /**
+   * Forced changes survive a crash, and a torn record at the end of the log is ignored.
+   */
+  @Test
+  public void recoversFromCrash() throws IOException {
+    Path directory = Files.createTempDirectory("durable");
+    try {
+      DurableSkipList<Integer, String> crashed = open(directory, DurableSkipList.SyncPolicy.ALWAYS);
+      TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+      for (int i = 0; i < 300; i++) {
+        crashed.set(i, "a" + i);
+        expected.put(i, "a" + i);
+        if (i == 100) {
+          crashed.snapshot();
+        } // if
+      } // for
+      crashed.remove(7);
+      expected.remove(7);
+      // pretend the process died half way through writing a record
+      Files.write(crashed.logFile(crashed.logNumber), new byte[] {0, 0, 0, 40, 1, 2},
+          StandardOpenOption.APPEND);
+      DurableSkipList<Integer, String> map = open(directory, DurableSkipList.SyncPolicy.ALWAYS);
+      assertMatches(expected, map);
+      map.set(1000, "after");
+      map.close();
+      map = open(directory, DurableSkipList.SyncPolicy.ALWAYS);
+      assertEquals("after", map.get(1000));
+      // a corrupt snapshot is refused and the list stays as it was
+      map.snapshot();
+      Path snapshot = map.snapshotFile(map.logNumber);
+      byte[] bytes = Files.readAllBytes(snapshot);
+      bytes[bytes.length - 10] ^= 1;
+      Files.write(snapshot, bytes);
+      DurableSkipList<Integer, String> reading = map;
+      assertThrows(IOException.class, () -> reading.readSnapshot(snapshot));
+      expected.put(1000, "after");
+      assertMatches(expected, map);
+      map.close();
+    } finally {
+      delete(directory);
+    } // try/finally
+  } // recoversFromCrash()
+
+  /**
+   * A snapshot that a long log calls for is written in the background; if it fails, later writes
+   * fail, but nothing logged is lost.
+   */
+  @Test
+  public void backgroundSnapshotFailureStopsWrites() throws IOException {
+    Path directory = Files.createTempDirectory("durable");
+    try {
+      DurableSkipList<Integer, String> map = open(directory, DurableSkipList.SyncPolicy.NONE);
+      TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+      for (int i = 0; i < 100; i++) {
+        map.set(i, "v" + i);
+        expected.put(i, "v" + i);
+      } // for
+      // a directory where the next snapshot's file should go makes it fail
+      Files.createDirectory(directory.resolve("snapshot-" + (map.logNumber + 1) + ".tmp"));
+      map.setSnapshotBytes(1000);
+      map.set(100, "v100");
+      expected.put(100, "v100");
+      assertThrows(IOException.class, map::await);
+      assertThrows(UncheckedIOException.class, () -> map.set(101, "v101"));
+      assertThrows(UncheckedIOException.class, () -> map.remove(1));
+      map.close();
+      DurableSkipList<Integer, String> reopened = open(directory, DurableSkipList.SyncPolicy.NONE);
+      assertMatches(expected, reopened);
+      reopened.close();
+    } finally {
+      delete(directory);
+    } // try/finally
+  } // backgroundSnapshotFailureStopsWrites()
+
+  /**
+   * Writers on several threads share fsyncs and lose nothing, even while snapshots are written.
+   */
+  @Test
+  public void concurrentWriters() throws Exception {
+    Path directory = Files.createTempDirectory("durable");
+    try {
+      DurableSkipList<Integer, String> map = open(directory, DurableSkipList.SyncPolicy.ALWAYS);
+      ArrayList<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < 4; t++) {
+        int base = t * 1000;
+        threads.add(new Thread(() -> {
+          for (int i = 0; i < 200; i++) {
+            map.set(base + i, "t" + base);
+          } // for
+        }));
+      } // for
+      for (Thread thread : threads) {
+        thread.start();
+      } // for
+      int snapshots = 0;
+      while (threads.get(0).isAlive() || snapshots == 0) {
+        map.snapshot();
+        snapshots++;
+      } // while
+      for (Thread thread : threads) {
+        thread.join();
+      } // for
+      map.close();
+      DurableSkipList<Integer, String> reopened =
+          open(directory, DurableSkipList.SyncPolicy.ALWAYS);
+      assertEquals(800, reopened.size());
+      assertEquals("t3000", reopened.get(3199));
+      reopened.close();
+    } finally {
+      delete(directory);
+    } // try/finally
+  } // concurrentWriters()
+
+  static DurableSkipList<Integer, String> open(Path directory,
+      DurableSkipList.SyncPolicy policy) throws IOException {
+    return DurableSkipList.open(directory, ORDER, Codec.INTS, Codec.STRINGS, policy);
+  } // open(Path, DurableSkipList.SyncPolicy)
+
+  static void assertMatches(TreeMap<Integer, String> expected, SimpleMap<Integer, String> map) {
+    assertEquals(expected.size(), map.size());
+    Iterator<Integer> keys = map.keys();
+    for (Integer key : expected.keySet()) {
+      assertEquals(key, keys.next());
+      assertEquals(expected.get(key), map.get(key));
+    } // for
+    assertFalse(keys.hasNext());
+  } // assertMatches(TreeMap<Integer, String>, SimpleMap<Integer, String>)
+
+  static void delete(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      } // for
+    } // try
+    Files.delete(directory);
+  } // delete(Path)
+
+} // class DurableSkipListTests
@@ -0,0 +1,400 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A thread-safe SkipList whose entries expire, for use as a cache.
+ *
+ * Each entry may have a deadline, set from a time-to-live when the entry is set. Besides the list
+ * of entries in key order we keep a second list of the entries that expire, in deadline order, so
+ * the expired ones are always at its front: reaping k of them takes k steps there, and removing
+ * their keys from the main list is one finger search over the batch. Nothing ever scans the
+ * entries that are still live.
+ *
+ * Expired entries are never returned. They are reaped a few at a time by every operation, all at
+ * once by reap(), and periodically by a background sweeper if startSweeper was called. Time comes
+ * from a clock in nanoseconds, System.nanoTime unless another is given.
+ */
+public class ExpiringSkipList<K, V> implements SimpleMap<K, V>, AutoCloseable {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most expired entries each ordinary operation reaps.
+   */
+  static final int LAZY_REAP = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The entries, by key.
+   */
+  final SkipList<K, Expiry<K, V>> entries;
+
+  /**
+   * The entries that expire, by deadline. The values are unused.
+   */
+  final SkipList<Expiry<K, V>, Object> deadlines;
+
+  /**
+   * Nanoseconds since some fixed time.
+   */
+  final LongSupplier clock;
+
+  /**
+   * The time-to-live, in nanoseconds, of entries set without one, or 0 if they never expire.
+   */
+  final long defaultTtl;
+
+  /**
+   * Breaks ties between entries with the same deadline.
+   */
+  long sequence;
+
+  /**
+   * Guards everything.
+   */
+  final Object lock = new Object();
+
+  /**
+   * The background sweeper, or null if there is none.
+   */
+  ScheduledExecutorService sweeper;
+
+  /**
+   * How long each reap that found something took, how many entries it removed, and how many
+   * entries have expired in all.
+   */
+  final SkipListMetrics.Histogram reapNanos = new SkipListMetrics.Histogram();
+  final SkipListMetrics.Histogram reapSizes = new SkipListMetrics.Histogram();
+  long expired;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty map whose entries, unless set with a ttl of their own, live for ttl (or
+   * forever, if ttl is null).
+   */
+  public ExpiringSkipList(Comparator<K> comparator, Duration ttl) {
+    this(comparator, ttl, System::nanoTime);
+  } // ExpiringSkipList(Comparator<K>, Duration)
+
+  /**
+   * Create an empty map that reads the time, in nanoseconds, from clock.
+   */
+  public ExpiringSkipList(Comparator<K> comparator, Duration ttl, LongSupplier clock) {
+    this.entries = new SkipList<K, Expiry<K, V>>(comparator);
+    this.deadlines = SkipList.naturalOrder((expiry) -> expiry.deadline ^ Long.MIN_VALUE);
+    this.clock = clock;
+    this.defaultTtl = nanos(ttl);
+  } // ExpiringSkipList(Comparator<K>, Duration, LongSupplier)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Set the value associated with key, to expire after the default time-to-live.
+   *
+   * @return the previous value, or null if there was none or it had expired.
+   */
+  @Override
+  public V set(K key, V value) {
+    return set(key, value, this.defaultTtl);
+  } // set(K, V)
+
+  @Override
+  public V get(K key) {
+    synchronized (this.lock) {
+      Expiry<K, V> expiry = live(key);
+      if (expiry == null) {
+        throw new IndexOutOfBoundsException("The key was not found.");
+      } // if
+      return expiry.value;
+    } // synchronized
+  } // get(K)
+
+  @Override
+  public V getOrDefault(K key, V defaultValue) {
+    synchronized (this.lock) {
+      Expiry<K, V> expiry = live(key);
+      return (expiry == null) ? defaultValue : expiry.value;
+    } // synchronized
+  } // getOrDefault(K, V)
+
+  /**
+   * Count the entries that have not expired. This reaps every expired entry first.
+   */
+  @Override
+  public int size() {
+    synchronized (this.lock) {
+      reap(this.clock.getAsLong(), Integer.MAX_VALUE);
+      return this.entries.size();
+    } // synchronized
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    synchronized (this.lock) {
+      return live(key) != null;
+    } // synchronized
+  } // containsKey(K)
+
+  @Override
+  public V remove(K key) {
+    synchronized (this.lock) {
+      long now = this.clock.getAsLong();
+      reap(now, LAZY_REAP);
+      Expiry<K, V> old = this.entries.remove(key);
+      if (old == null) {
+        return null;
+      } // if
+      if (old.expires()) {
+        this.deadlines.remove(old);
+      } // if
+      return old.expired(now) ? null : old.value;
+    } // synchronized
+  } // remove(K)
+
+  /**
+   * Get an iterator for the keys that had not expired when it was called. Later changes are not
+   * seen and the iterator does not support remove.
+   */
+  @Override
+  public Iterator<K> keys() {
+    ArrayList<K> keys = new ArrayList<K>();
+    forEach((key, value) -> keys.add(key));
+    return Collections.unmodifiableList(keys).iterator();
+  } // keys()
+
+  /**
+   * Get an iterator for the values that had not expired when it was called. Later changes are
+   * not seen and the iterator does not support remove.
+   */
+  @Override
+  public Iterator<V> values() {
+    ArrayList<V> values = new ArrayList<V>();
+    forEach((key, value) -> values.add(value));
+    return Collections.unmodifiableList(values).iterator();
+  } // values()
+
+  /**
+   * Apply a function to each entry that has not expired, while holding the lock. The action must
+   * not modify this map.
+   */
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    synchronized (this.lock) {
+      reap(this.clock.getAsLong(), Integer.MAX_VALUE);
+      this.entries.forEach((key, expiry) -> action.accept(key, expiry.value));
+    } // synchronized
+  } // forEach(BiConsumer)
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Set the value associated with key, to expire after ttl (or never, if ttl is null).
+   *
+   * @return the previous value, or null if there was none or it had expired.
+   * @throws IllegalArgumentException if ttl is not positive.
+   */
+  public V set(K key, V value, Duration ttl) {
+    return set(key, value, nanos(ttl));
+  } // set(K, V, Duration)
+
+  /**
+   * Remove every expired entry now.
+   *
+   * @return the number removed.
+   */
+  public int reap() {
+    synchronized (this.lock) {
+      return reap(this.clock.getAsLong(), Integer.MAX_VALUE);
+    } // synchronized
+  } // reap()
+
+  /**
+   * Reap every period in a background thread, until close. Without a sweeper, an expired entry
+   * that is never touched again stays in memory until some operation happens to reap it.
+   */
+  public void startSweeper(Duration period) {
+    synchronized (this.lock) {
+      if (this.sweeper != null) {
+        throw new IllegalStateException("sweeper already running");
+      } // if
+      this.sweeper = Executors.newSingleThreadScheduledExecutor((task) -> {
+        Thread thread = new Thread(task, "ExpiringSkipList sweeper");
+        thread.setDaemon(true);
+        return thread;
+      });
+      long nanos = nanos(period);
+      this.sweeper.scheduleWithFixedDelay(this::reap, nanos, nanos, TimeUnit.NANOSECONDS);
+    } // synchronized
+  } // startSweeper(Duration)
+
+  /**
+   * Stop the sweeper, if there is one. The map itself stays usable.
+   */
+  @Override
+  public void close() {
+    synchronized (this.lock) {
+      if (this.sweeper != null) {
+        this.sweeper.shutdownNow();
+        this.sweeper = null;
+      } // if
+    } // synchronized
+  } // close()
+
+  /**
+   * How long each reap that removed anything took, in nanoseconds.
+   */
+  public SkipListMetrics.Distribution reapNanos() {
+    return this.reapNanos.distribution();
+  } // reapNanos()
+
+  /**
+   * How many entries each reap that removed anything removed.
+   */
+  public SkipListMetrics.Distribution reapSizes() {
+    return this.reapSizes.distribution();
+  } // reapSizes()
+
+  /**
+   * The number of entries that have expired and been reaped.
+   */
+  public long expiredCount() {
+    synchronized (this.lock) {
+      return this.expired;
+    } // synchronized
+  } // expiredCount()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Do the work of set, with a ttl in nanoseconds (0 for none).
+   */
+  V set(K key, V value, long ttl) {
+    synchronized (this.lock) {
+      long now = this.clock.getAsLong();
+      reap(now, LAZY_REAP);
+      Expiry<K, V> expiry = new Expiry<K, V>(key, value, ttl != 0, now + ttl, this.sequence++);
+      Expiry<K, V> old = this.entries.set(key, expiry);
+      if (old != null && old.expires()) {
+        this.deadlines.remove(old);
+      } // if
+      if (expiry.expires()) {
+        this.deadlines.set(expiry, null);
+      } // if
+      return (old == null || old.expired(now)) ? null : old.value;
+    } // synchronized
+  } // set(K, V, long)
+
+  /**
+   * Find the live entry for key, or null. The caller holds the lock.
+   */
+  Expiry<K, V> live(K key) {
+    long now = this.clock.getAsLong();
+    reap(now, LAZY_REAP);
+    Expiry<K, V> expiry = this.entries.getOrDefault(key, null);
+    return (expiry == null || expiry.expired(now)) ? null : expiry;
+  } // live(K)
+
+  /**
+   * Remove up to limit entries that expired by now, from the front of deadlines. The caller
+   * holds the lock.
+   *
+   * @return the number removed.
+   */
+  int reap(long now, int limit) {
+    Expiry<K, V> first = this.deadlines.firstKey();
+    if (first == null || !first.expired(now)) {
+      return 0;
+    } // if
+    long start = System.nanoTime();
+    ArrayList<K> keys = new ArrayList<K>();
+    Iterator<Expiry<K, V>> due = this.deadlines.keys();
+    while (keys.size() < limit && due.hasNext()) {
+      Expiry<K, V> expiry = due.next();
+      if (!expiry.expired(now)) {
+        break;
+      } // if
+      due.remove();
+      keys.add(expiry.key);
+    } // while
+    keys.sort(this.entries.comparator);
+    this.entries.removeAll(keys);
+    this.expired += keys.size();
+    this.reapNanos.record(System.nanoTime() - start);
+    this.reapSizes.record(keys.size());
+    return keys.size();
+  } // reap(long, int)
+
+  /**
+   * Convert a time-to-live to nanoseconds, with null meaning forever (0).
+   */
+  static long nanos(Duration ttl) {
+    if (ttl == null) {
+      return 0;
+    } // if
+    if (ttl.isNegative() || ttl.isZero()) {
+      throw new IllegalArgumentException("ttl must be positive: " + ttl);
+    } // if
+    return ttl.toNanos();
+  } // nanos(Duration)
+
+} // class ExpiringSkipList
+
+/**
+ * An entry of an ExpiringSkipList, ordered by deadline and then by the order entries were set.
+ */
+class Expiry<K, V> implements Comparable<Expiry<K, V>> {
+  final K key;
+  final V value;
+
+  /**
+   * Whether the entry expires, and when, in the map's clock.
+   */
+  final boolean expires;
+  final long deadline;
+
+  final long sequence;
+
+  Expiry(K key, V value, boolean expires, long deadline, long sequence) {
+    this.key = key;
+    this.value = value;
+    this.expires = expires;
+    this.deadline = deadline;
+    this.sequence = sequence;
+  } // Expiry(K, V, boolean, long, long)
+
+  boolean expires() {
+    return this.expires;
+  } // expires()
+
+  boolean expired(long now) {
+    return this.expires && this.deadline - now <= 0;
+  } // expired(long)
+
+  @Override
+  public int compareTo(Expiry<K, V> other) {
+    int order = Long.compare(this.deadline, other.deadline);
+    return (order != 0) ? order : Long.compare(this.sequence, other.sequence);
+  } // compareTo(Expiry<K, V>)
+} // class Expiry
@@ -0,0 +1,111 @@
+import static org.junit.Assert.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+/**
+ * Tests of the expiring skip list, mostly with a clock we move by hand.
+ */
+public class ExpiringSkipListTests {
+
+  /**
+   * Entries disappear at their deadlines, whether or not anything reaps them, and only the
+   * expired ones are reaped.
+   */
+  @Test
+  public void entriesExpireOnTime() {
+    long[] now = {-50};
+    ExpiringSkipList<Integer, String> map =
+        new ExpiringSkipList<Integer, String>((i, j) -> i - j, Duration.ofNanos(100), () -> now[0]);
+    for (int i = 0; i < 10; i++) {
+      map.set(i, "v" + i);
+    } // for
+    map.set(10, "forever", null);
+    map.set(11, "long", Duration.ofNanos(1000));
+    assertEquals(12, map.size());
+
+    now[0] += 99;
+    assertEquals("v3", map.get(3));
+    now[0] += 1;
+    assertFalse(map.containsKey(3));
+    assertNull(map.getOrDefault(4, null));
+    assertThrows(IndexOutOfBoundsException.class, () -> map.get(5));
+    assertEquals("forever", map.get(10));
+    assertEquals(2, map.size());
+    assertEquals(10, map.expiredCount());
+
+    // resetting an entry moves its deadline
+    map.set(11, "renewed", Duration.ofNanos(1000));
+    now[0] += 950;
+    assertEquals("renewed", map.get(11));
+    assertNull(map.set(1, "back"));
+    now[0] += 100;
+    Iterator<Integer> keys = map.keys();
+    assertEquals(Integer.valueOf(10), keys.next());
+    assertFalse(keys.hasNext());
+    assertEquals("forever", map.remove(10));
+    assertEquals(0, map.size());
+    assertEquals(0, map.reap());
+    assertEquals(12, map.expiredCount());
+    assertTrue(map.reapNanos().count() > 0);
+    assertEquals(12, map.reapSizes().mean() * map.reapSizes().count(), 0.001);
+    assertEquals(0, map.deadlines.size());
+  } // entriesExpireOnTime()
+
+  /**
+   * Random sets, removes and clock ticks give the same answers as a TreeMap of deadlines.
+   */
+  @Test
+  public void matchesModel() {
+    long[] now = {Long.MAX_VALUE - 5000};
+    ExpiringSkipList<Integer, Integer> map =
+        new ExpiringSkipList<Integer, Integer>((i, j) -> i - j, null, () -> now[0]);
+    TreeMap<Integer, long[]> model = new TreeMap<Integer, long[]>();
+    Random random = new Random(224);
+    for (int i = 0; i < 20000; i++) {
+      int key = random.nextInt(500);
+      long[] live = model.get(key);
+      Integer expected = (live == null || live[1] - now[0] <= 0) ? null : (int) live[0];
+      switch (random.nextInt(4)) {
+        case 0:
+          assertEquals(expected, map.remove(key));
+          model.remove(key);
+          break;
+        case 1:
+          assertEquals(expected, map.getOrDefault(key, null));
+          break;
+        default:
+          long ttl = 1 + random.nextInt(200);
+          assertEquals(expected, map.set(key, i, Duration.ofNanos(ttl)));
+          model.put(key, new long[] {i, now[0] + ttl});
+      } // switch
+      now[0] += random.nextInt(3);
+    } // for
+    model.values().removeIf((live) -> live[1] - now[0] <= 0);
+    assertEquals(model.size(), map.size());
+    assertEquals(model.size(), map.deadlines.size());
+    map.forEach((key, value) -> assertEquals(model.get(key)[0], (long) value));
+  } // matchesModel()
+
+  /**
+   * The sweeper reaps entries that nothing touches.
+   */
+  @Test
+  public void sweeperReaps() throws InterruptedException {
+    ExpiringSkipList<Integer, Integer> map =
+        new ExpiringSkipList<Integer, Integer>((i, j) -> i - j, Duration.ofMillis(1));
+    for (int i = 0; i < 1000; i++) {
+      map.set(i, i);
+    } // for
+    map.startSweeper(Duration.ofMillis(5));
+    for (int tries = 0; tries < 200 && map.entries.size() > 0; tries++) {
+      Thread.sleep(10);
+    } // for
+    map.close();
+    assertEquals(1000, map.expiredCount());
+  } // sweeperReaps()
+
+} // class ExpiringSkipListTests
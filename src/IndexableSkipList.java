@@ -0,0 +1,412 @@
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * A skip list that can also find entries by position.
+ *
+ * Each forward link records its width: the number of level-0 steps it skips. Summing widths
+ * while descending gives the position of any node, so getByIndex, rankOf and quantile take
+ * O(log n) steps, like get. Positions start at 0 for the smallest key.
+ */
+public class IndexableSkipList<K, V> implements SimpleMap<K, V> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The maximum height of a node.
+   */
+  static final int MAX_HEIGHT = 32;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The comparator used to determine the ordering in the list.
+   */
+  Comparator<K> comparator;
+
+  /**
+   * The number of values in the list.
+   */
+  int size;
+
+  /**
+   * Current height / highest level in use.
+   */
+  int height;
+
+  /**
+   * The probability used to determine the height of nodes.
+   */
+  double prob = 0.5;
+
+  /**
+   * Where node heights come from.
+   */
+  LevelGenerator levels = new LevelGenerator(prob);
+
+  /**
+   * The head of the list, at position -1.
+   */
+  ISLNode<K, V> front;
+
+  /**
+   * Scratch space for searches: the last node before the key at each level, and its position.
+   */
+  ISLNode<K, V>[] update;
+  int[] positions;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new skip list that orders values using the specified comparator.
+   */
+  @SuppressWarnings("unchecked")
+  public IndexableSkipList(Comparator<K> comparator) {
+    this.comparator = comparator;
+    this.front = new ISLNode<K, V>(null, null, MAX_HEIGHT);
+    this.update = (ISLNode<K, V>[]) new ISLNode<?, ?>[MAX_HEIGHT];
+    this.positions = new int[MAX_HEIGHT];
+    this.size = 0;
+    this.height = 0;
+  } // IndexableSkipList(Comparator<K>)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  @Override
+  public V set(K key, V value) {
+    ISLNode<K, V> candidate = findPredecessors(key);
+    if (candidate != null && this.comparator.compare(candidate.key, key) == 0) {
+      V old = candidate.value;
+      candidate.value = value;
+      return old;
+    } // if the key is already there
+
+    int newHeight = randomHeight();
+    for (int level = this.height; level < newHeight; level++) {
+      this.update[level] = this.front;
+      this.positions[level] = -1;
+    } // for
+    this.height = Math.max(this.height, newHeight);
+
+    // The new node goes straight after update[0].
+    int position = this.positions[0] + 1;
+    ISLNode<K, V> newNode = new ISLNode<K, V>(key, value, newHeight);
+    for (int level = 0; level < newHeight; level++) {
+      ISLNode<K, V> pred = this.update[level];
+      newNode.next[level] = pred.next[level];
+      // The old link spanned pred.width; the new node sits inside it and pushes its end one on.
+      newNode.width[level] = this.positions[level] + pred.width[level] + 1 - position;
+      pred.next[level] = newNode;
+      pred.width[level] = position - this.positions[level];
+    } // for
+    for (int level = newHeight; level < this.height; level++) {
+      this.update[level].width[level]++;
+    } // for
+    this.size++;
+    return null;
+  } // set(K,V)
+
+  @Override
+  public V get(K key) {
+    ISLNode<K, V> node = findNode(key);
+    if (node == null) {
+      throw new IndexOutOfBoundsException("The key was not found.");
+    } // if
+    return node.value;
+  } // get(K)
+
+  @Override
+  public V getOrDefault(K key, V defaultValue) {
+    ISLNode<K, V> node = findNode(key);
+    return (node == null) ? defaultValue : node.value;
+  } // getOrDefault(K, V)
+
+  @Override
+  public int size() {
+    return this.size;
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    return findNode(key) != null;
+  } // containsKey(K)
+
+  @Override
+  public V remove(K key) {
+    ISLNode<K, V> candidate = findPredecessors(key);
+    if (candidate == null || this.comparator.compare(candidate.key, key) != 0) {
+      return null;
+    } // if the key is not there
+
+    for (int level = 0; level < candidate.next.length; level++) {
+      ISLNode<K, V> pred = this.update[level];
+      pred.next[level] = candidate.next[level];
+      pred.width[level] += candidate.width[level] - 1;
+    } // for
+    for (int level = candidate.next.length; level < this.height; level++) {
+      this.update[level].width[level]--;
+    } // for
+    while (this.height > 0 && this.front.next[this.height - 1] == null) {
+      this.height--;
+    } // while
+    this.size--;
+    return candidate.value;
+  } // remove(K)
+
+  @Override
+  public Iterator<K> keys() {
+    Iterator<ISLNode<K, V>> nodes = nodes(0, this.size);
+    return new Iterator<K>() {
+      @Override
+      public boolean hasNext() {
+        return nodes.hasNext();
+      } // hasNext()
+
+      @Override
+      public K next() {
+        return nodes.next().key;
+      } // next()
+    };
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    Iterator<ISLNode<K, V>> nodes = nodes(0, this.size);
+    return new Iterator<V>() {
+      @Override
+      public boolean hasNext() {
+        return nodes.hasNext();
+      } // hasNext()
+
+      @Override
+      public V next() {
+        return nodes.next().value;
+      } // next()
+    };
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (ISLNode<K, V> node = this.front.next[0]; node != null; node = node.next[0]) {
+      action.accept(node.key, node.value);
+    } // for
+  } // forEach
+
+  // +------------------+--------------------------------------------
+  // | Position methods |
+  // +------------------+
+
+  /**
+   * Get the entry at the given position (0 for the smallest key). The entry is an immutable copy.
+   *
+   * @throws IndexOutOfBoundsException if index is negative or not less than size().
+   */
+  public Map.Entry<K, V> getByIndex(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + this.size);
+    } // if
+    return copyOf(select(index));
+  } // getByIndex(int)
+
+  /**
+   * Find the position of key. If the key is not there, returns (-(insertion point) - 1), as
+   * java.util.Arrays.binarySearch does, so the result is non-negative only for keys that are
+   * present.
+   */
+  public int rankOf(K key) {
+    ISLNode<K, V> candidate = findPredecessors(key);
+    int insertion = this.height == 0 ? 0 : this.positions[0] + 1;
+    if (candidate != null && this.comparator.compare(candidate.key, key) == 0) {
+      return insertion;
+    } // if
+    return -insertion - 1;
+  } // rankOf(K)
+
+  /**
+   * Get the key at quantile q, using the nearest-rank method: the smallest key such that at least
+   * q of the keys are less than or equal to it.
+   *
+   * @throws IllegalArgumentException if q is not between 0 and 1.
+   * @throws NoSuchElementException if the list is empty.
+   */
+  public K quantile(double q) {
+    if (!(q >= 0.0 && q <= 1.0)) {
+      throw new IllegalArgumentException("quantile must be between 0 and 1: " + q);
+    } // if
+    if (this.size == 0) {
+      throw new NoSuchElementException("empty list");
+    } // if
+    int index = Math.max(0, (int) Math.ceil(q * this.size) - 1);
+    return select(Math.min(index, this.size - 1)).key;
+  } // quantile(double)
+
+  /**
+   * Iterate the entries at positions from (inclusive) to to (exclusive), in order. The entries
+   * are immutable copies.
+   *
+   * @throws IndexOutOfBoundsException if the positions are not 0 <= from <= to <= size().
+   */
+  public Iterator<Map.Entry<K, V>> indexRange(int from, int to) {
+    if (from < 0 || to > this.size || from > to) {
+      throw new IndexOutOfBoundsException(
+          "Range [" + from + ", " + to + ") out of bounds for size " + this.size);
+    } // if
+    Iterator<ISLNode<K, V>> nodes = nodes(from, to);
+    return new Iterator<Map.Entry<K, V>>() {
+      @Override
+      public boolean hasNext() {
+        return nodes.hasNext();
+      } // hasNext()
+
+      @Override
+      public Map.Entry<K, V> next() {
+        return copyOf(nodes.next());
+      } // next()
+    };
+  } // indexRange(int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Iterate the nodes at positions from (inclusive) to to (exclusive), which must be in bounds.
+   */
+  Iterator<ISLNode<K, V>> nodes(int from, int to) {
+    return new Iterator<ISLNode<K, V>>() {
+      ISLNode<K, V> next = (from < to) ? select(from) : null;
+      int remaining = to - from;
+
+      @Override
+      public boolean hasNext() {
+        return this.remaining > 0;
+      } // hasNext()
+
+      @Override
+      public ISLNode<K, V> next() {
+        if (this.remaining == 0) {
+          throw new NoSuchElementException();
+        } // if
+        ISLNode<K, V> temp = this.next;
+        this.next = this.next.next[0];
+        this.remaining--;
+        return temp;
+      } // next()
+    };
+  } // nodes(int, int)
+
+  /**
+   * Copy a node into an entry that does not change with the list.
+   */
+  Map.Entry<K, V> copyOf(ISLNode<K, V> node) {
+    return new SimpleImmutableEntry<K, V>(node.key, node.value);
+  } // copyOf(ISLNode<K, V>)
+
+  /**
+   * Fill update and positions with the last node before key at each level in use and return the
+   * first node at level 0 whose key is not smaller than key (or null, if there is no such node).
+   */
+  ISLNode<K, V> findPredecessors(K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    ISLNode<K, V> finger = this.front;
+    int position = -1;
+    for (int level = this.height - 1; level >= 0; level--) {
+      while (finger.next[level] != null && precede(finger.next[level].key, key)) {
+        position += finger.width[level];
+        finger = finger.next[level];
+      } // while
+      this.update[level] = finger;
+      this.positions[level] = position;
+    } // for
+    return finger.next[0];
+  } // findPredecessors(K)
+
+  /**
+   * Find the node with the given key, or null if there is no such node.
+   */
+  ISLNode<K, V> findNode(K key) {
+    ISLNode<K, V> candidate = findPredecessors(key);
+    return (candidate != null && this.comparator.compare(candidate.key, key) == 0) ? candidate
+        : null;
+  } // findNode(K)
+
+  /**
+   * Find the node at a position we know is in range.
+   */
+  ISLNode<K, V> select(int index) {
+    ISLNode<K, V> finger = this.front;
+    int position = -1;
+    for (int level = this.height - 1; level >= 0; level--) {
+      while (finger.next[level] != null && position + finger.width[level] <= index) {
+        position += finger.width[level];
+        finger = finger.next[level];
+      } // while
+    } // for
+    return finger;
+  } // select(int)
+
+  /**
+   * Pick a random height for a new node.
+   */
+  int randomHeight() {
+    return this.levels.next(MAX_HEIGHT);
+  } // randomHeight()
+
+  private boolean precede(K key1, K key2) {
+    return this.comparator.compare(key1, key2) < 0;
+  } // precede(K, K)
+
+} // class IndexableSkipList
+
+
+/**
+ * Nodes in an IndexableSkipList.
+ */
+class ISLNode<K, V> {
+
+  /**
+   * The key.
+   */
+  K key;
+
+  /**
+   * The value.
+   */
+  V value;
+
+  /**
+   * Pointers to the next nodes, one slot per level of the node.
+   */
+  ISLNode<K, V>[] next;
+
+  /**
+   * How many positions each pointer in next moves forward. Only meaningful for non-null pointers.
+   */
+  int[] width;
+
+  /**
+   * Create a new node of height n with the specified key and value.
+   */
+  @SuppressWarnings("unchecked")
+  ISLNode(K key, V value, int n) {
+    this.key = key;
+    this.value = value;
+    this.next = (ISLNode<K, V>[]) new ISLNode<?, ?>[n];
+    this.width = new int[n];
+  } // ISLNode(K, V, int)
+
+} // ISLNode<K,V>
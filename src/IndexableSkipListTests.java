@@ -0,0 +1,92 @@
+import static org.junit.Assert.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests of the skip list with positions.
+ */
+public class IndexableSkipListTests {
+
+  /**
+   * After random sets and removes, every position should agree with a sorted ArrayList.
+   */
+  @Test
+  public void positionsMatchSortedList() {
+    IndexableSkipList<Integer, String> list = new IndexableSkipList<Integer, String>((i, j) -> i - j);
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    Random random = new Random(207);
+    for (int i = 0; i < 3000; i++) {
+      int key = random.nextInt(1000);
+      if (random.nextInt(3) > 0) {
+        if (list.set(key, "v" + key) == null) {
+          expected.add(key);
+        } // if
+      } else if (list.remove(key) != null) {
+        expected.remove((Integer) key);
+      } // if/else
+    } // for
+    Collections.sort(expected);
+    assertEquals(expected.size(), list.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i), list.getByIndex(i).getKey());
+      assertEquals(i, list.rankOf(expected.get(i)));
+    } // for
+    for (int key = -1; key <= 1000; key++) {
+      if (!expected.contains(key)) {
+        assertEquals(Collections.binarySearch(expected, key), list.rankOf(key));
+      } // if
+    } // for
+  } // positionsMatchSortedList()
+
+  /**
+   * Quantiles use the nearest-rank method.
+   */
+  @Test
+  public void quantiles() {
+    IndexableSkipList<Integer, String> list = new IndexableSkipList<Integer, String>((i, j) -> i - j);
+    assertThrows(NoSuchElementException.class, () -> list.quantile(0.5));
+    for (int i = 1; i <= 100; i++) {
+      list.set(i, null);
+    } // for
+    assertEquals((Integer) 1, list.quantile(0.0));
+    assertEquals((Integer) 50, list.quantile(0.5));
+    assertEquals((Integer) 99, list.quantile(0.99));
+    assertEquals((Integer) 100, list.quantile(1.0));
+    assertThrows(IllegalArgumentException.class, () -> list.quantile(1.5));
+  } // quantiles()
+
+  /**
+   * indexRange returns exactly the entries between the positions.
+   */
+  @Test
+  public void indexRange() {
+    IndexableSkipList<Integer, String> list = new IndexableSkipList<Integer, String>((i, j) -> i - j);
+    for (int i = 0; i < 50; i++) {
+      list.set(i * 2, "v" + i);
+    } // for
+    Iterator<Map.Entry<Integer, String>> it = list.indexRange(10, 15);
+    for (int i = 10; i < 15; i++) {
+      assertEquals((Integer) (i * 2), it.next().getKey());
+    } // for
+    assertFalse(it.hasNext());
+    assertFalse(list.indexRange(50, 50).hasNext());
+    assertThrows(IndexOutOfBoundsException.class, () -> list.indexRange(40, 51));
+    assertThrows(IndexOutOfBoundsException.class, () -> list.getByIndex(50));
+    // entries are copies, equal to any other entry with the same key and value
+    Map.Entry<Integer, String> entry = list.getByIndex(3);
+    assertEquals(new SimpleEntry<Integer, String>(6, "v3"), entry);
+    assertEquals(new SimpleEntry<Integer, String>(6, "v3").hashCode(), entry.hashCode());
+    assertThrows(UnsupportedOperationException.class, () -> entry.setValue("changed"));
+    assertThrows(UnsupportedOperationException.class,
+        () -> list.indexRange(0, 1).next().setValue("changed"));
+    assertEquals("v3", list.get(6));
+  } // indexRange()
+
+} // class IndexableSkipListTests
@@ -0,0 +1,105 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks random node heights for skip lists, using one random 64-bit word per node.
+ *
+ * A node reaches level h+1 with probability prob^h. When prob is a power of 1/2, 2^-k, the
+ * height is one more than the number of trailing zero bits in the word divided by k; for any
+ * other prob, we turn the word into a uniform u in (0, 1] and invert the geometric distribution.
+ * Either way we need just one random number, rather than one per level.
+ *
+ * Each generator has its own state, so lists do not contend on a shared Random. A generator is
+ * not thread-safe; for lists shared between threads, pass a word from ThreadLocalRandom to
+ * level(long, int) instead of calling next(int).
+ */
+public class LevelGenerator {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The probability that a node at one level also reaches the next.
+   */
+  final double prob;
+
+  /**
+   * k, if prob is 2^-k; otherwise 0.
+   */
+  final int bitsPerLevel;
+
+  /**
+   * The natural log of prob, for the general case.
+   */
+  final double logProb;
+
+  /**
+   * The state of our SplitMix64 generator.
+   */
+  long state;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a generator with a given seed, so that the same sequence of operations builds the
+   * same list every time.
+   *
+   * @throws IllegalArgumentException if prob is not strictly between 0 and 1.
+   */
+  public LevelGenerator(double prob, long seed) {
+    if (!(prob > 0.0 && prob < 1.0)) {
+      throw new IllegalArgumentException("prob must be between 0 and 1: " + prob);
+    } // if
+    this.prob = prob;
+    this.logProb = Math.log(prob);
+    int k = (int) Math.round(-Math.log(prob) / Math.log(2));
+    this.bitsPerLevel = (k >= 1 && k <= 32 && Math.scalb(1.0, -k) == prob) ? k : 0;
+    this.state = seed;
+  } // LevelGenerator(double, long)
+
+  /**
+   * Create a generator with an unpredictable seed.
+   */
+  public LevelGenerator(double prob) {
+    this(prob, ThreadLocalRandom.current().nextLong());
+  } // LevelGenerator(double)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Pick the height of a new node, between 1 and max.
+   */
+  public int next(int max) {
+    return level(nextWord(), max);
+  } // next(int)
+
+  /**
+   * Turn a random word into a height between 1 and max.
+   */
+  public int level(long word, int max) {
+    int result;
+    if (this.bitsPerLevel != 0) {
+      result = 1 + Long.numberOfTrailingZeros(word) / this.bitsPerLevel;
+    } else {
+      // The top 53 bits give a uniform double in (0, 1].
+      double u = ((word >>> 11) + 1) * 0x1.0p-53;
+      result = 1 + (int) Math.min(max, Math.floor(Math.log(u) / this.logProb));
+    } // if/else
+    return Math.min(result, max);
+  } // level(long, int)
+
+  /**
+   * Advance the generator (SplitMix64, as in java.util.SplittableRandom).
+   */
+  long nextWord() {
+    long z = (this.state += 0x9E3779B97F4A7C15L);
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  } // nextWord()
+
+} // class LevelGenerator
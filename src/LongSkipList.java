@@ -0,0 +1,366 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.BiConsumer;
+
+/**
+ * A skip list whose keys are primitive longs. Keys are stored unboxed and compared with
+ * {@code <}, so the search path does no boxing and no comparator calls.
+ */
+public class LongSkipList<V> implements SimpleMap<Long, V> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The initial height of front. Front grows as the list does, as in SkipList.
+   */
+  static final int INITIAL_HEIGHT = SkipList.INITIAL_HEIGHT;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of values in the list.
+   */
+  int size;
+
+  /**
+   * Current height / highest level in use.
+   */
+  int height;
+
+  /**
+   * The probability used to determine the height of nodes.
+   */
+  double prob = 0.5;
+
+  /**
+   * Where node heights come from.
+   */
+  LevelGenerator levels = new LevelGenerator(prob);
+
+  /**
+   * The head of the list. Its key is never looked at.
+   */
+  LongSLNode<V> front;
+
+  /**
+   * Scratch space for the predecessors found by a search, reused between calls.
+   */
+  LongSLNode<V>[] update;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty, skip list.
+   */
+  @SuppressWarnings("unchecked")
+  public LongSkipList() {
+    this.front = new LongSLNode<V>(0, null, INITIAL_HEIGHT);
+    this.update = (LongSLNode<V>[]) new LongSLNode<?>[INITIAL_HEIGHT];
+    this.size = 0;
+    this.height = 0;
+  } // LongSkipList()
+
+  // +-------------------+-------------------------------------------
+  // | Primitive methods |
+  // +-------------------+
+
+  /**
+   * Set the value associated with key.
+   *
+   * @return the previous value associated with key (or null, if there's no such value)
+   */
+  public V set(long key, V value) {
+    LongSLNode<V> candidate = findPredecessors(key);
+    if (candidate != null && candidate.key == key) {
+      V old = candidate.value;
+      candidate.value = value;
+      return old;
+    } // if the key is already there
+
+    int newHeight = randomHeight();
+    if (newHeight > this.front.next.length) {
+      growFront(newHeight);
+    } // if
+    for (int level = this.height; level < newHeight; level++) {
+      this.update[level] = this.front;
+    } // for
+    this.height = Math.max(this.height, newHeight);
+
+    LongSLNode<V> newNode = new LongSLNode<V>(key, value, newHeight);
+    for (int level = 0; level < newHeight; level++) {
+      newNode.next[level] = this.update[level].next[level];
+      this.update[level].next[level] = newNode;
+    } // for
+    this.size++;
+    return null;
+  } // set(long, V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the map.
+   */
+  public V get(long key) {
+    LongSLNode<V> node = findNode(key);
+    if (node == null) {
+      throw new IndexOutOfBoundsException("The key was not found.");
+    } // if
+    return node.value;
+  } // get(long)
+
+  /**
+   * Get the value associated with key, or defaultValue if the key is not in the map.
+   */
+  public V getOrDefault(long key, V defaultValue) {
+    LongSLNode<V> node = findNode(key);
+    return (node == null) ? defaultValue : node.value;
+  } // getOrDefault(long, V)
+
+  /**
+   * Determine if a key appears in the table.
+   */
+  public boolean containsKey(long key) {
+    return findNode(key) != null;
+  } // containsKey(long)
+
+  /**
+   * Remove the value with the given key.
+   *
+   * @return The associated value (or null, if there is no associated value).
+   */
+  public V remove(long key) {
+    LongSLNode<V> candidate = findPredecessors(key);
+    if (candidate == null || candidate.key != key) {
+      return null;
+    } // if the key is not there
+
+    for (int level = 0; level < candidate.next.length; level++) {
+      this.update[level].next[level] = candidate.next[level];
+    } // for
+    while (this.height > 0 && this.front.next[this.height - 1] == null) {
+      this.height--;
+    } // while
+    this.size--;
+    return candidate.value;
+  } // remove(long)
+
+  /**
+   * Get an iterator for all of the keys in the map that does not box them.
+   */
+  public PrimitiveIterator.OfLong keyIterator() {
+    return new PrimitiveIterator.OfLong() {
+      LongSLNode<V> next = LongSkipList.this.front.next[0];
+
+      @Override
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      @Override
+      public long nextLong() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        long key = this.next.key;
+        this.next = this.next.next[0];
+        return key;
+      } // nextLong()
+    };
+  } // keyIterator()
+
+  /**
+   * Apply a function to each key/value pair without boxing the keys.
+   */
+  public void forEachEntry(EntryConsumer<? super V> action) {
+    for (LongSLNode<V> node = this.front.next[0]; node != null; node = node.next[0]) {
+      action.accept(node.key, node.value);
+    } // for
+  } // forEachEntry(EntryConsumer)
+
+  /**
+   * Something that takes an unboxed key and its value.
+   */
+  @FunctionalInterface
+  public interface EntryConsumer<V> {
+    void accept(long key, V value);
+  } // interface EntryConsumer
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  @Override
+  public V set(Long key, V value) {
+    return set(unbox(key), value);
+  } // set(Long, V)
+
+  @Override
+  public V get(Long key) {
+    return get(unbox(key));
+  } // get(Long)
+
+  @Override
+  public V getOrDefault(Long key, V defaultValue) {
+    return getOrDefault(unbox(key), defaultValue);
+  } // getOrDefault(Long, V)
+
+  @Override
+  public int size() {
+    return this.size;
+  } // size()
+
+  @Override
+  public boolean containsKey(Long key) {
+    return containsKey(unbox(key));
+  } // containsKey(Long)
+
+  @Override
+  public V remove(Long key) {
+    return remove(unbox(key));
+  } // remove(Long)
+
+  @Override
+  public Iterator<Long> keys() {
+    return keyIterator();
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    return new Iterator<V>() {
+      LongSLNode<V> next = LongSkipList.this.front.next[0];
+
+      @Override
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      @Override
+      public V next() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        V value = this.next.value;
+        this.next = this.next.next[0];
+        return value;
+      } // next()
+    };
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super Long, ? super V> action) {
+    forEachEntry((key, value) -> action.accept(key, value));
+  } // forEach
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (LongSLNode<V> node = this.front.next[0]; node != null; node = node.next[0]) {
+      builder.append(", (").append(node.key).append(" ").append(node.value).append(")");
+    } // for
+    return builder.toString();
+  } // toString()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Fill update with the last node before key at each level in use and return the first node
+   * at level 0 whose key is not smaller than key (or null, if there is no such node).
+   */
+  LongSLNode<V> findPredecessors(long key) {
+    LongSLNode<V> finger = this.front;
+    for (int level = this.height - 1; level >= 0; level--) {
+      while (finger.next[level] != null && finger.next[level].key < key) {
+        finger = finger.next[level];
+      } // while
+      this.update[level] = finger;
+    } // for
+    return finger.next[0];
+  } // findPredecessors(long)
+
+  /**
+   * Find the node with the given key, or null if there is no such node.
+   */
+  LongSLNode<V> findNode(long key) {
+    LongSLNode<V> finger = this.front;
+    for (int level = this.height - 1; level >= 0; level--) {
+      while (finger.next[level] != null && finger.next[level].key < key) {
+        finger = finger.next[level];
+      } // while
+    } // for
+    LongSLNode<V> candidate = finger.next[0];
+    return (candidate != null && candidate.key == key) ? candidate : null;
+  } // findNode(long)
+
+  /**
+   * Pick a random height for a new node.
+   */
+  int randomHeight() {
+    return this.levels.next(SkipList.maxLevel(this.size, this.prob));
+  } // randomHeight()
+
+  /**
+   * Give front (and update, which must be as tall) at least newHeight levels.
+   */
+  void growFront(int newHeight) {
+    int length = Math.min(SkipList.MAX_HEIGHT, Math.max(newHeight, 2 * this.front.next.length));
+    this.front.next = Arrays.copyOf(this.front.next, length);
+    this.update = Arrays.copyOf(this.update, length);
+  } // growFront(int)
+
+  /**
+   * Unbox a key passed through the SimpleMap interface.
+   */
+  static long unbox(Long key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    return key;
+  } // unbox(Long)
+
+} // class LongSkipList
+
+
+/**
+ * Nodes in a LongSkipList.
+ */
+class LongSLNode<V> {
+
+  /**
+   * The key.
+   */
+  long key;
+
+  /**
+   * The value.
+   */
+  V value;
+
+  /**
+   * Pointers to the next nodes, one slot per level of the node.
+   */
+  LongSLNode<V>[] next;
+
+  /**
+   * Create a new node of height n with the specified key and value.
+   */
+  @SuppressWarnings("unchecked")
+  LongSLNode(long key, V value, int n) {
+    this.key = key;
+    this.value = value;
+    this.next = (LongSLNode<V>[]) new LongSLNode<?>[n];
+  } // LongSLNode(long, V, int)
+
+} // LongSLNode<V>
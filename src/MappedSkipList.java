@@ -0,0 +1,366 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An OffHeapSkipList whose arena is a memory-mapped file, so a map can be closed and opened
+ * again without rebuilding it. Opening maps the file and reads its header; nodes are paged in
+ * by the operating system as searches touch them.
+ *
+ * Crashes: set links a new node from the bottom up and remove unlinks from the top down, so a
+ * node is in the map exactly when level 0 points to it, and a value is replaced by swapping one
+ * aligned long. Blocks are freed only once nothing points to them, and the arena writes its
+ * allocation state to the header before handing out a block. So if the process dies at any
+ * point, the file opens as the map before or after the operation in progress. If the machine
+ * dies, only what was written before the last force() (or close()) is safe, since the operating
+ * system writes pages back in any order.
+ *
+ * The file does not record the codecs; open it with the ones it was made with. A file must not
+ * be open twice at once.
+ */
+public class MappedSkipList<K, V> extends OffHeapSkipList<K, V> implements Closeable {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The arena, with its file.
+   */
+  final MappedArena mapped;
+
+  /**
+   * Whether the file was not closed properly and we had to recount.
+   */
+  final boolean recovered;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  MappedSkipList(Codec<K> keyCodec, Codec<V> valueCodec, MappedArena arena) {
+    super(keyCodec, valueCodec, arena, arena.getLong(MappedArena.ROOT));
+    this.mapped = arena;
+    boolean fresh = arena.getLong(MappedArena.ROOT) == Arena.NIL;
+    this.recovered = !fresh && arena.getInt(MappedArena.CLEAN) == 0;
+    if (fresh) {
+      arena.putLong(MappedArena.ROOT, this.front);
+    } else if (this.recovered) {
+      recount();
+    } else {
+      this.size = arena.getInt(MappedArena.SIZE);
+      this.height = arena.getInt(MappedArena.HEIGHT);
+    } // if/else
+    saveHeader();
+    // From here on the file is dirty until close.
+    arena.putInt(MappedArena.CLEAN, 0);
+    arena.force();
+  } // MappedSkipList(Codec<K>, Codec<V>, MappedArena)
+
+  /**
+   * Open the map stored in file, or make a new one if the file is missing or empty.
+   *
+   * @throws IOException if the file cannot be mapped or is not a skip list file.
+   */
+  public static <K, V> MappedSkipList<K, V> open(Path file, Codec<K> keyCodec,
+      Codec<V> valueCodec) throws IOException {
+    return open(file, keyCodec, valueCodec, Arena.DEFAULT_CHUNK_SIZE);
+  } // open(Path, Codec<K>, Codec<V>)
+
+  /**
+   * Open the map stored in file. A new file grows chunkSize bytes at a time; an existing file
+   * keeps the chunk size it was made with.
+   *
+   * @throws IOException if the file cannot be mapped or is not a skip list file.
+   */
+  public static <K, V> MappedSkipList<K, V> open(Path file, Codec<K> keyCodec,
+      Codec<V> valueCodec, int chunkSize) throws IOException {
+    return new MappedSkipList<K, V>(keyCodec, valueCodec, MappedArena.open(file, chunkSize));
+  } // open(Path, Codec<K>, Codec<V>, int)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  @Override
+  public V set(K key, V value) {
+    V old = super.set(key, value);
+    saveHeader();
+    return old;
+  } // set(K, V)
+
+  @Override
+  public V remove(K key) {
+    V old = super.remove(key);
+    saveHeader();
+    return old;
+  } // remove(K)
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Remove every entry. Unlike set and remove, this is not safe against crashes.
+   */
+  @Override
+  public void clear() {
+    super.clear();
+    this.mapped.putLong(MappedArena.ROOT, this.front);
+    saveHeader();
+  } // clear()
+
+  /**
+   * Write everything done so far to the disk.
+   */
+  public void force() {
+    saveHeader();
+    this.mapped.force();
+  } // force()
+
+  /**
+   * Determine whether the file had not been closed when we opened it.
+   */
+  public boolean recovered() {
+    return this.recovered;
+  } // recovered()
+
+  /**
+   * Write everything to the disk, mark the file as closed properly, and close it. The list must
+   * not be used afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    force();
+    this.mapped.putInt(MappedArena.CLEAN, 1);
+    this.mapped.force();
+    this.mapped.channel.close();
+  } // close()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Never overwrite a value in place: a crash part way through would leave half of each.
+   */
+  @Override
+  void replaceValue(long node, V value) {
+    long old = valueOf(node);
+    this.arena.putLong(node + VALUE, newValue(value));
+    freeValue(old);
+  } // replaceValue(long, V)
+
+  void saveHeader() {
+    this.mapped.putInt(MappedArena.SIZE, this.size);
+    this.mapped.putInt(MappedArena.HEIGHT, this.height);
+  } // saveHeader()
+
+  /**
+   * Work out size and height from the links, which are right even after a crash.
+   */
+  void recount() {
+    this.size = 0;
+    for (long node = next(this.front, 0); node != Arena.NIL; node = next(node, 0)) {
+      this.size++;
+    } // for
+    this.height = MAX_HEIGHT;
+    while (this.height > 0 && next(this.front, this.height - 1) == Arena.NIL) {
+      this.height--;
+    } // while
+  } // recount()
+
+} // class MappedSkipList
+
+
+/**
+ * An arena whose chunks are consecutive regions of a file. Chunk 0 starts with a header that
+ * holds the arena's allocation state, the free lists for small blocks, and a few fields for the
+ * list.
+ */
+class MappedArena extends Arena {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  static final long MAGIC_NUMBER = 0x534b49504c495354L; // "SKIPLIST"
+  static final int FORMAT_VERSION = 1;
+
+  /**
+   * Where the header fields are.
+   */
+  static final int MAGIC = 0;
+  static final int VERSION = 8;
+  static final int CHUNK_SIZE = 12;
+  static final int CHUNK_COUNT = 16;
+  static final int POSITION = 20;
+  static final int USED = 24;
+  static final int CLEAN = 32;
+  static final int HEIGHT = 36;
+  static final int ROOT = 40;
+  static final int SIZE = 48;
+  static final int FREE = 64;
+
+  /**
+   * The header keeps free lists for blocks of 8, 16, ..., 8 * FREE_CLASSES bytes. Larger blocks
+   * freed before the file is closed are not reused after it is opened again.
+   */
+  static final int FREE_CLASSES = 256;
+
+  static final int HEADER_SIZE = 4096;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The file.
+   */
+  final FileChannel channel;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  MappedArena(FileChannel channel, int chunkSize, ByteBuffer[] chunks, int chunkCount,
+      int position) {
+    super(chunkSize, chunks, chunkCount, position);
+    this.channel = channel;
+  } // MappedArena(FileChannel, int, ByteBuffer[], int, int)
+
+  /**
+   * Map a file, writing a new header if it is empty.
+   */
+  static MappedArena open(Path file, int chunkSize) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    try {
+      boolean fresh = channel.size() == 0;
+      if (!fresh) {
+        ByteBuffer header = ByteBuffer.allocate(FREE);
+        channel.read(header, 0);
+        if (header.getLong(MAGIC) != MAGIC_NUMBER) {
+          throw new IOException(file + " is not a skip list file");
+        } // if
+        if (header.getInt(VERSION) != FORMAT_VERSION) {
+          throw new IOException(file + " has unknown version " + header.getInt(VERSION));
+        } // if
+        chunkSize = header.getInt(CHUNK_SIZE);
+      } else if (chunkSize < 2 * HEADER_SIZE) {
+        throw new IllegalArgumentException("chunk size too small: " + chunkSize);
+      } // if/else
+      chunkSize &= ~7;
+      ByteBuffer first = channel.map(FileChannel.MapMode.READ_WRITE, 0, chunkSize);
+      int chunkCount = fresh ? 1 : first.getInt(CHUNK_COUNT);
+      ByteBuffer[] chunks = new ByteBuffer[Math.max(4, Integer.highestOneBit(chunkCount) * 2)];
+      chunks[0] = first;
+      for (int c = 1; c < chunkCount; c++) {
+        chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, (long) c * chunkSize, chunkSize);
+      } // for
+      MappedArena arena = new MappedArena(channel, chunkSize, chunks, chunkCount,
+          fresh ? HEADER_SIZE : first.getInt(POSITION));
+      if (fresh) {
+        first.putInt(VERSION, FORMAT_VERSION);
+        first.putInt(CHUNK_SIZE, chunkSize);
+        first.putLong(ROOT, NIL);
+        arena.saveState();
+        first.putLong(MAGIC, MAGIC_NUMBER);
+      } else {
+        arena.used = first.getLong(USED);
+      } // if/else
+      return arena;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    } // try/catch
+  } // open(Path, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Blocks must fit in a chunk, since every chunk is the same size in the file.
+   */
+  @Override
+  public long allocate(int bytes) {
+    if (roundUp(bytes) > this.chunkSize) {
+      throw new IllegalArgumentException(bytes + " bytes do not fit in a chunk");
+    } // if
+    long address = super.allocate(bytes);
+    // The header must know the block is taken before anyone links to it.
+    saveState();
+    return address;
+  } // allocate(int)
+
+  @Override
+  public void free(long address, int bytes) {
+    super.free(address, bytes);
+    saveState();
+  } // free(long, int)
+
+  @Override
+  public void clear() {
+    super.clear();
+    this.position = HEADER_SIZE;
+    for (int c = 0; c < FREE_CLASSES; c++) {
+      this.chunks[0].putLong(FREE + 8 * c, NIL);
+    } // for
+    saveState();
+  } // clear()
+
+  /**
+   * Write every chunk to the disk.
+   */
+  void force() {
+    for (int c = 0; c < this.chunkCount; c++) {
+      ((MappedByteBuffer) this.chunks[c]).force();
+    } // for
+  } // force()
+
+  /**
+   * Copy the allocation state into the header.
+   */
+  void saveState() {
+    ByteBuffer header = this.chunks[0];
+    header.putInt(CHUNK_COUNT, this.chunkCount);
+    header.putInt(POSITION, this.position);
+    header.putLong(USED, this.used);
+  } // saveState()
+
+  @Override
+  long freeHead(int size) {
+    int sizeClass = size / 8 - 1;
+    if (sizeClass < FREE_CLASSES) {
+      return this.chunks[0].getLong(FREE + 8 * sizeClass);
+    } // if
+    return super.freeHead(size);
+  } // freeHead(int)
+
+  @Override
+  void setFreeHead(int size, long address) {
+    int sizeClass = size / 8 - 1;
+    if (sizeClass < FREE_CLASSES) {
+      this.chunks[0].putLong(FREE + 8 * sizeClass, address);
+    } else {
+      super.setFreeHead(size, address);
+    } // if/else
+  } // setFreeHead(int, long)
+
+  @Override
+  ByteBuffer newChunk(int index, int size) {
+    try {
+      return this.channel.map(FileChannel.MapMode.READ_WRITE, (long) index * this.chunkSize,
+          this.chunkSize);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // newChunk(int, int)
+
+} // class MappedArena
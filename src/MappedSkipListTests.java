@@ -0,0 +1,97 @@
+import static org.junit.Assert.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+/**
+ * Tests of the skip list stored in a memory-mapped file.
+ */
+public class MappedSkipListTests {
+
+  /**
+   * A map that is closed and opened again has the same entries, and still works.
+   */
+  @Test
+  public void reopenKeepsEntries() throws IOException {
+    Path file = Files.createTempFile("skiplist", ".map");
+    Files.delete(file);
+    TreeMap<Long, String> expected = new TreeMap<Long, String>();
+    Random random = new Random(207);
+    try {
+      for (int round = 0; round < 3; round++) {
+        // small chunks, so the file needs several
+        MappedSkipList<Long, String> list =
+            MappedSkipList.open(file, Codec.LONGS, Codec.STRINGS, 1 << 14);
+        assertFalse(list.recovered());
+        assertMatches(expected, list);
+        for (int i = 0; i < 3000; i++) {
+          long key = random.nextInt(2000);
+          if (random.nextInt(3) > 0) {
+            String value = "v" + "x".repeat(i % 7) + i;
+            assertEquals(expected.put(key, value), list.set(key, value));
+          } else {
+            assertEquals(expected.remove(key), list.remove(key));
+          } // if/else
+        } // for
+        list.close();
+      } // for
+    } finally {
+      Files.deleteIfExists(file);
+    } // try/finally
+  } // reopenKeepsEntries()
+
+  /**
+   * If a file was not closed, opening it recounts from the links.
+   */
+  @Test
+  public void recoversWithoutClose() throws IOException {
+    Path file = Files.createTempFile("skiplist", ".map");
+    try {
+      assertThrows(IOException.class,
+          () -> {
+            Files.write(file, new byte[] {1, 2, 3});
+            MappedSkipList.open(file, Codec.INTS, Codec.INTS);
+          });
+      Files.delete(file);
+      MappedSkipList<Integer, Integer> crashed =
+          MappedSkipList.open(file, Codec.INTS, Codec.INTS, 1 << 14);
+      TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+      for (int i = 0; i < 1000; i++) {
+        crashed.set(i * 3 % 1000, i);
+        expected.put(i * 3 % 1000, i);
+      } // for
+      crashed.remove(10);
+      expected.remove(10);
+      crashed.force();
+      // pretend the process died: open the file again without closing it
+      MappedSkipList<Integer, Integer> list =
+          MappedSkipList.open(file, Codec.INTS, Codec.INTS);
+      assertTrue(list.recovered());
+      assertMatches(expected, list);
+      list.close();
+      crashed.mapped.channel.close();
+    } finally {
+      Files.deleteIfExists(file);
+    } // try/finally
+  } // recoversWithoutClose()
+
+  /**
+   * Check that a list has the same entries as a TreeMap.
+   */
+  static <K, V> void assertMatches(TreeMap<K, V> expected, MappedSkipList<K, V> list) {
+    assertEquals(expected.size(), list.size());
+    Iterator<K> keys = list.keys();
+    Iterator<V> values = list.values();
+    for (K key : expected.keySet()) {
+      assertEquals(key, keys.next());
+      assertEquals(expected.get(key), values.next());
+    } // for
+    assertFalse(keys.hasNext());
+  } // assertMatches(TreeMap<K, V>, MappedSkipList<K, V>)
+
+} // class MappedSkipListTests
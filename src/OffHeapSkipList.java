@@ -0,0 +1,436 @@
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * A skip list whose nodes live outside the Java heap, in an Arena.
+ *
+ * Keys and values are stored as bytes made by a Codec, and keys are ordered by comparing those
+ * bytes, so the key codec must preserve order (see Codec). A node is a block of the arena:
+ *
+ * <pre>
+ *   int height | int key length | long value address | long next[height] | key bytes
+ * </pre>
+ *
+ * and a value is a separate block holding its length and its bytes (a null value has address
+ * NIL). The only objects on the heap are the list itself and the arena's chunks, however many
+ * entries there are, so a large map adds nothing for the garbage collector to trace. The price
+ * is encoding the key of every call and decoding whatever we return.
+ */
+public class OffHeapSkipList<K, V> implements SimpleMap<K, V> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The maximum height of a node.
+   */
+  static final int MAX_HEIGHT = 32;
+
+  /**
+   * Where the fields of a node are.
+   */
+  static final int HEIGHT = 0;
+  static final int KEY_LENGTH = 4;
+  static final int VALUE = 8;
+  static final int NEXT = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * How keys and values become bytes.
+   */
+  final Codec<K> keyCodec;
+  final Codec<V> valueCodec;
+
+  /**
+   * Where the nodes are.
+   */
+  final Arena arena;
+
+  /**
+   * The address of the head of the list, a node of height MAX_HEIGHT with no key.
+   */
+  long front;
+
+  /**
+   * The number of values in the list.
+   */
+  int size;
+
+  /**
+   * Current height / highest level in use.
+   */
+  int height;
+
+  /**
+   * The probability used to determine the height of nodes.
+   */
+  double prob = 0.5;
+
+  /**
+   * Where node heights come from.
+   */
+  LevelGenerator levels = new LevelGenerator(prob);
+
+  /**
+   * Scratch space for the predecessors found by a search, reused between calls.
+   */
+  long[] update = new long[MAX_HEIGHT];
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty, list in the given arena.
+   */
+  public OffHeapSkipList(Codec<K> keyCodec, Codec<V> valueCodec, Arena arena) {
+    this(keyCodec, valueCodec, arena, Arena.NIL);
+  } // OffHeapSkipList(Codec<K>, Codec<V>, Arena)
+
+  /**
+   * Create a list whose head is already in the arena (or a new list, if front is NIL). The caller
+   * sets size and height.
+   */
+  OffHeapSkipList(Codec<K> keyCodec, Codec<V> valueCodec, Arena arena, long front) {
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.arena = arena;
+    this.front = (front == Arena.NIL) ? newNode(new byte[0], Arena.NIL, MAX_HEIGHT) : front;
+    this.size = 0;
+    this.height = 0;
+  } // OffHeapSkipList(Codec<K>, Codec<V>, Arena, long)
+
+  /**
+   * Create a new, empty, list in an arena of its own.
+   */
+  public OffHeapSkipList(Codec<K> keyCodec, Codec<V> valueCodec) {
+    this(keyCodec, valueCodec, new Arena());
+  } // OffHeapSkipList(Codec<K>, Codec<V>)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  @Override
+  public V set(K key, V value) {
+    byte[] keyBytes = encodeKey(key);
+    ByteBuffer buffer = ByteBuffer.wrap(keyBytes);
+    long candidate = findPredecessors(buffer);
+    if (matches(candidate, buffer)) {
+      V old = decodeValue(valueOf(candidate));
+      replaceValue(candidate, value);
+      return old;
+    } // if the key is already there
+
+    int newHeight = randomHeight();
+    for (int level = this.height; level < newHeight; level++) {
+      this.update[level] = this.front;
+    } // for
+    this.height = Math.max(this.height, newHeight);
+
+    // Link from the bottom up, so that the node is in the list as soon as level 0 points to it.
+    long node = newNode(keyBytes, newValue(value), newHeight);
+    for (int level = 0; level < newHeight; level++) {
+      setNext(node, level, next(this.update[level], level));
+      setNext(this.update[level], level, node);
+    } // for
+    this.size++;
+    return null;
+  } // set(K, V)
+
+  @Override
+  public V get(K key) {
+    long node = findNode(key);
+    if (node == Arena.NIL) {
+      throw new IndexOutOfBoundsException("The key was not found.");
+    } // if
+    return decodeValue(valueOf(node));
+  } // get(K)
+
+  @Override
+  public V getOrDefault(K key, V defaultValue) {
+    long node = findNode(key);
+    return (node == Arena.NIL) ? defaultValue : decodeValue(valueOf(node));
+  } // getOrDefault(K, V)
+
+  @Override
+  public int size() {
+    return this.size;
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    return findNode(key) != Arena.NIL;
+  } // containsKey(K)
+
+  @Override
+  public V remove(K key) {
+    ByteBuffer buffer = ByteBuffer.wrap(encodeKey(key));
+    long candidate = findPredecessors(buffer);
+    if (!matches(candidate, buffer)) {
+      return null;
+    } // if the key is not there
+
+    // Unlink from the top down, so that the node stays in the list until the level 0 link goes.
+    int candidateHeight = heightOf(candidate);
+    for (int level = candidateHeight - 1; level >= 0; level--) {
+      setNext(this.update[level], level, next(candidate, level));
+    } // for
+    while (this.height > 0 && next(this.front, this.height - 1) == Arena.NIL) {
+      this.height--;
+    } // while
+    this.size--;
+
+    long value = valueOf(candidate);
+    V old = decodeValue(value);
+    freeValue(value);
+    this.arena.free(candidate, nodeSize(candidateHeight, keyLength(candidate)));
+    return old;
+  } // remove(K)
+
+  @Override
+  public Iterator<K> keys() {
+    return new NodeIterator<K>() {
+      @Override
+      K read(long node) {
+        return keyOf(node);
+      } // read(long)
+    };
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    return new NodeIterator<V>() {
+      @Override
+      V read(long node) {
+        return decodeValue(valueOf(node));
+      } // read(long)
+    };
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (long node = next(this.front, 0); node != Arena.NIL; node = next(node, 0)) {
+      action.accept(keyOf(node), decodeValue(valueOf(node)));
+    } // for
+  } // forEach
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Remove every entry and give its memory back to the arena. Only this list's blocks are freed,
+   * so other lists in the same arena are untouched.
+   */
+  public void clear() {
+    // Unlink everything first, so that nothing points to a block once it is freed.
+    long node = next(this.front, 0);
+    for (int level = 0; level < this.height; level++) {
+      setNext(this.front, level, Arena.NIL);
+    } // for
+    this.size = 0;
+    this.height = 0;
+    while (node != Arena.NIL) {
+      long following = next(node, 0);
+      freeValue(valueOf(node));
+      this.arena.free(node, nodeSize(heightOf(node), keyLength(node)));
+      node = following;
+    } // while
+  } // clear()
+
+  /**
+   * The number of bytes of memory outside the heap that the list holds.
+   */
+  public long offHeapBytes() {
+    return this.arena.reserved();
+  } // offHeapBytes()
+
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    forEach((key, value) -> builder.append(", (").append(key).append(" ").append(value)
+        .append(")"));
+    return builder.toString();
+  } // toString()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Fill update with the last node before key at each level in use and return the first node
+   * at level 0 whose key is not smaller than key (or NIL, if there is no such node).
+   */
+  long findPredecessors(ByteBuffer key) {
+    long finger = this.front;
+    for (int level = this.height - 1; level >= 0; level--) {
+      long next;
+      while ((next = next(finger, level)) != Arena.NIL && compare(next, key) < 0) {
+        finger = next;
+      } // while
+      this.update[level] = finger;
+    } // for
+    return next(finger, 0);
+  } // findPredecessors(ByteBuffer)
+
+  /**
+   * Find the node with the given key, or NIL if there is no such node.
+   */
+  long findNode(K key) {
+    ByteBuffer buffer = ByteBuffer.wrap(encodeKey(key));
+    long finger = this.front;
+    for (int level = this.height - 1; level >= 0; level--) {
+      long next;
+      while ((next = next(finger, level)) != Arena.NIL && compare(next, buffer) < 0) {
+        finger = next;
+      } // while
+    } // for
+    long candidate = next(finger, 0);
+    return matches(candidate, buffer) ? candidate : Arena.NIL;
+  } // findNode(K)
+
+  /**
+   * Determine if candidate (which may be NIL) has the given key.
+   */
+  boolean matches(long candidate, ByteBuffer key) {
+    return candidate != Arena.NIL && compare(candidate, key) == 0;
+  } // matches(long, ByteBuffer)
+
+  /**
+   * Compare the key of a node with the bytes of a key.
+   */
+  int compare(long node, ByteBuffer key) {
+    return this.arena.compare(node + NEXT + 8L * heightOf(node), keyLength(node), key);
+  } // compare(long, ByteBuffer)
+
+  long newNode(byte[] keyBytes, long value, int height) {
+    long node = this.arena.allocate(nodeSize(height, keyBytes.length));
+    this.arena.putInt(node + HEIGHT, height);
+    this.arena.putInt(node + KEY_LENGTH, keyBytes.length);
+    this.arena.putLong(node + VALUE, value);
+    for (int level = 0; level < height; level++) {
+      setNext(node, level, Arena.NIL);
+    } // for
+    this.arena.putBytes(node + NEXT + 8L * height, keyBytes);
+    return node;
+  } // newNode(byte[], long, int)
+
+  static int nodeSize(int height, int keyLength) {
+    return NEXT + 8 * height + keyLength;
+  } // nodeSize(int, int)
+
+  int heightOf(long node) {
+    return this.arena.getInt(node + HEIGHT);
+  } // heightOf(long)
+
+  int keyLength(long node) {
+    return this.arena.getInt(node + KEY_LENGTH);
+  } // keyLength(long)
+
+  long valueOf(long node) {
+    return this.arena.getLong(node + VALUE);
+  } // valueOf(long)
+
+  long next(long node, int level) {
+    return this.arena.getLong(node + NEXT + 8L * level);
+  } // next(long, int)
+
+  void setNext(long node, int level, long next) {
+    this.arena.putLong(node + NEXT + 8L * level, next);
+  } // setNext(long, int, long)
+
+  K keyOf(long node) {
+    return this.keyCodec.decode(
+        this.arena.getBytes(node + NEXT + 8L * heightOf(node), keyLength(node)));
+  } // keyOf(long)
+
+  byte[] encodeKey(K key) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    return this.keyCodec.encode(key);
+  } // encodeKey(K)
+
+  /**
+   * Store a value in a block of its own and return its address (NIL for null).
+   */
+  long newValue(V value) {
+    if (value == null) {
+      return Arena.NIL;
+    } // if
+    byte[] bytes = this.valueCodec.encode(value);
+    long address = this.arena.allocate(4 + bytes.length);
+    this.arena.putInt(address, bytes.length);
+    this.arena.putBytes(address + 4, bytes);
+    return address;
+  } // newValue(V)
+
+  /**
+   * Give a node a new value, reusing the old value's block when the sizes allow.
+   */
+  void replaceValue(long node, V value) {
+    long old = valueOf(node);
+    if (old != Arena.NIL && value != null) {
+      byte[] bytes = this.valueCodec.encode(value);
+      int oldLength = this.arena.getInt(old);
+      if (Arena.roundUp(4 + oldLength) == Arena.roundUp(4 + bytes.length)) {
+        this.arena.putInt(old, bytes.length);
+        this.arena.putBytes(old + 4, bytes);
+        return;
+      } // if
+    } // if
+    this.arena.putLong(node + VALUE, newValue(value));
+    freeValue(old);
+  } // replaceValue(long, V)
+
+  void freeValue(long address) {
+    if (address != Arena.NIL) {
+      this.arena.free(address, 4 + this.arena.getInt(address));
+    } // if
+  } // freeValue(long)
+
+  V decodeValue(long address) {
+    if (address == Arena.NIL) {
+      return null;
+    } // if
+    return this.valueCodec.decode(this.arena.getBytes(address + 4, this.arena.getInt(address)));
+  } // decodeValue(long)
+
+  /**
+   * Pick a random height for a new node.
+   */
+  int randomHeight() {
+    return this.levels.next(MAX_HEIGHT);
+  } // randomHeight()
+
+  /**
+   * Walk level 0, decoding something from each node.
+   */
+  abstract class NodeIterator<T> implements Iterator<T> {
+    long next = OffHeapSkipList.this.next(OffHeapSkipList.this.front, 0);
+
+    abstract T read(long node);
+
+    @Override
+    public boolean hasNext() {
+      return this.next != Arena.NIL;
+    } // hasNext()
+
+    @Override
+    public T next() {
+      if (this.next == Arena.NIL) {
+        throw new NoSuchElementException();
+      } // if
+      T result = read(this.next);
+      this.next = OffHeapSkipList.this.next(this.next, 0);
+      return result;
+    } // next()
+  } // class NodeIterator
+
+} // class OffHeapSkipList
@@ -0,0 +1,109 @@
+import static org.junit.Assert.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+/**
+ * Tests of the skip list that keeps its nodes outside the heap.
+ */
+public class OffHeapSkipListTests {
+
+  /**
+   * Random sets and removes should agree with a TreeMap, and byte order of the encoded keys
+   * should be numeric order.
+   */
+  @Test
+  public void matchesTreeMap() {
+    // small chunks, so that nodes land in many of them
+    OffHeapSkipList<Long, String> list =
+        new OffHeapSkipList<Long, String>(Codec.LONGS, Codec.STRINGS, new Arena(4096));
+    TreeMap<Long, String> expected = new TreeMap<Long, String>();
+    Random random = new Random(207);
+    for (int i = 0; i < 20000; i++) {
+      long key = random.nextInt(2000) - 1000L;
+      if (random.nextInt(3) > 0) {
+        String value = (i % 10 == 0) ? null : "v" + "x".repeat(i % 13) + i;
+        assertEquals(expected.put(key, value), list.set(key, value));
+      } else {
+        assertEquals(expected.remove(key), list.remove(key));
+      } // if/else
+      assertEquals(expected.size(), list.size());
+    } // for
+    Iterator<Long> keys = list.keys();
+    Iterator<String> values = list.values();
+    for (Long key : expected.keySet()) {
+      assertEquals(key, keys.next());
+      assertEquals(expected.get(key), values.next());
+      assertTrue(list.containsKey(key));
+    } // for
+    assertFalse(keys.hasNext());
+    assertFalse(list.containsKey(5000L));
+    assertEquals("none", list.getOrDefault(5000L, "none"));
+    assertThrows(IndexOutOfBoundsException.class, () -> list.get(5000L));
+    assertThrows(NullPointerException.class, () -> list.set(null, "x"));
+  } // matchesTreeMap()
+
+  /**
+   * Strings compare by their bytes, so a prefix comes first; freed blocks are reused.
+   */
+  @Test
+  public void stringKeysAndReuse() {
+    Arena arena = new Arena(1 << 16);
+    OffHeapSkipList<String, Integer> list =
+        new OffHeapSkipList<String, Integer>(Codec.STRINGS, Codec.INTS, arena);
+    String[] words = {"banana", "apple", "applesauce", "app", "cherry", "a longer key than eight"};
+    for (int i = 0; i < words.length; i++) {
+      list.set(words[i], -i);
+    } // for
+    assertEquals(", (a longer key than eight -5), (app -3), (apple -1), (applesauce -2), "
+        + "(banana 0), (cherry -4)", list.toString());
+    for (int round = 0; round < 100; round++) {
+      list.remove("cherry");
+      list.set("cherry", round);
+    } // for
+    assertEquals((Integer) 99, list.get("cherry"));
+    // freed blocks come back for the next allocation of the same size
+    long block = arena.allocate(20);
+    arena.free(block, 20);
+    assertEquals(block, arena.allocate(24));
+    assertTrue(block != arena.allocate(24));
+    list.clear();
+    assertEquals(0, list.size());
+    assertFalse(list.keys().hasNext());
+  } // stringKeysAndReuse()
+
+  /**
+   * Lists may share an arena; clearing one frees its blocks and leaves the others alone.
+   */
+  @Test
+  public void clearKeepsSharedArena() {
+    Arena arena = new Arena(1 << 16);
+    OffHeapSkipList<Long, String> kept =
+        new OffHeapSkipList<Long, String>(Codec.LONGS, Codec.STRINGS, arena);
+    OffHeapSkipList<Long, String> cleared =
+        new OffHeapSkipList<Long, String>(Codec.LONGS, Codec.STRINGS, arena);
+    for (long i = 0; i < 1000; i++) {
+      kept.set(i, "kept " + i);
+    } // for
+    long used = arena.used();
+    for (long i = 0; i < 1000; i++) {
+      cleared.set(i, (i % 3 == 0) ? null : "cleared " + i);
+    } // for
+    cleared.clear();
+    assertEquals(used, arena.used());
+    assertEquals(0, cleared.size());
+    assertFalse(cleared.containsKey(5L));
+    assertEquals(1000, kept.size());
+    for (long i = 0; i < 1000; i++) {
+      assertEquals("kept " + i, kept.get(i));
+    } // for
+    // the cleared list still works
+    for (long i = 0; i < 1000; i++) {
+      cleared.set(i, "again " + i);
+    } // for
+    assertEquals("again 7", cleared.get(7L));
+  } // clearKeepsSharedArena()
+
+} // class OffHeapSkipListTests
@@ -0,0 +1,60 @@
+import static org.junit.Assert.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+/**
+ * Tests of the primitive-keyed skip lists (IntSkipList and LongSkipList).
+ */
+public class PrimitiveSkipListTests {
+
+  /**
+   * Random sets and removes should agree with a TreeMap.
+   */
+  @Test
+  public void longMatchesTreeMap() {
+    LongSkipList<String> list = new LongSkipList<String>();
+    TreeMap<Long, String> expected = new TreeMap<Long, String>();
+    Random random = new Random(207);
+    for (int i = 0; i < 5000; i++) {
+      long key = random.nextInt(500) - 250L;
+      if (random.nextBoolean()) {
+        assertEquals(expected.put(key, "v" + i), list.set(key, "v" + i));
+      } else {
+        assertEquals(expected.remove(key), list.remove(key));
+      } // if/else
+      assertEquals(expected.size(), list.size());
+    } // for
+    PrimitiveIterator.OfLong keys = list.keyIterator();
+    for (Long key : expected.keySet()) {
+      assertEquals(key.longValue(), keys.nextLong());
+      assertEquals(expected.get(key), list.get(key.longValue()));
+    } // for
+    assertFalse(keys.hasNext());
+  } // longMatchesTreeMap()
+
+  /**
+   * Negative keys sort before positive ones and misses behave like SkipList.
+   */
+  @Test
+  public void intOrderAndMisses() {
+    IntSkipList<String> list = new IntSkipList<String>();
+    list.set(Integer.MAX_VALUE, "max");
+    list.set(0, "zero");
+    list.set(Integer.MIN_VALUE, "min");
+    PrimitiveIterator.OfInt keys = list.keyIterator();
+    assertEquals(Integer.MIN_VALUE, keys.nextInt());
+    assertEquals(0, keys.nextInt());
+    assertEquals(Integer.MAX_VALUE, keys.nextInt());
+    assertTrue(list.containsKey(0));
+    assertFalse(list.containsKey(1));
+    assertThrows(IndexOutOfBoundsException.class, () -> list.get(1));
+    assertThrows(NullPointerException.class, () -> list.get((Integer) null));
+    assertEquals("zero", list.remove(0));
+    assertEquals(null, list.remove(0));
+    assertEquals(2, list.size());
+  } // intOrderAndMisses()
+
+} // class PrimitiveSkipListTests
@@ -1,4 +1,5 @@
 import java.util.Iterator;
+import java.util.Optional;
 import java.util.function.BiConsumer;
 
 /**
@@ -22,6 +23,26 @@ public interface SimpleMap<K, V> {
    */
   public V get(K key);
 
+  /**
+   * Get the value associated with key, or defaultValue if the key is not in the map. Unlike get,
+   * a missing key is not an error.
+   * 
+   * @throws NullPointerException if the key is null.
+   */
+  public default V getOrDefault(K key, V defaultValue) {
+    return containsKey(key) ? get(key) : defaultValue;
+  } // getOrDefault(K, V)
+
+  /**
+   * Look up the value associated with key. The result is empty if the key is not in the map or
+   * its value is null.
+   * 
+   * @throws NullPointerException if the key is null.
+   */
+  public default Optional<V> find(K key) {
+    return Optional.ofNullable(getOrDefault(key, null));
+  } // find(K)
+
   /**
    * Determine how many values are in the map.
    */
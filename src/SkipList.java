@@ -1,9 +1,27 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.Random;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An implementation of skip lists.
@@ -15,15 +33,14 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
   // +-----------+
 
   /**
-   * The initial height of the skip list.
+   * The initial height of the front of the skip list. Front grows as the list does.
    */
-  static final int INITIAL_HEIGHT = 16;
+  static final int INITIAL_HEIGHT = 4;
 
-  // +---------------+-----------------------------------------------
-  // | Static Fields |
-  // +---------------+
-
-  static Random rand = new Random();
+  /**
+   * The most levels a skip list can have.
+   */
+  static final int MAX_HEIGHT = 64;
 
   // +--------+------------------------------------------------------
   // | Fields |
@@ -32,8 +49,8 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
   /**
    * Pointers to all the front elements.
    */
-  public ArrayList<SLNode<K, V>> front() {
-    return front.next;
+  public List<SLNode<K, V>> front() {
+    return Arrays.asList(front.next);
   }
 
   /**
@@ -41,19 +58,42 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
    */
   Comparator<K> comparator;
 
+  /**
+   * Whether the keys are Comparable and in their natural order, so that we can call compareTo
+   * instead of going through the comparator.
+   */
+  boolean natural;
+
+  /**
+   * Makes the long that each node keeps to decide most comparisons without the key, or null.
+   */
+  ToLongFunction<? super K> prefix;
+
   /**
    * The number of values in the list.
    */
   int size;
+
   /**
-   * The number of steps get, set and remove take
+   * The number of times nodes have been linked or unlinked, so that an iterator can tell whether
+   * its predecessors are still good.
    */
+  int modCount;
+  /**
+   * The number of steps the last get, set and remove took.
+   *
+   * @deprecated these only show the last operation and are not safe to share; use
+   *             enableMetrics() instead.
+   */
+  @Deprecated
   public int getCounter;
+  @Deprecated
   public int setCounter;
+  @Deprecated
   public int removeCounter;
 
   /**
-   * Current height / Current heighest level in list
+   * Current height / Current heighest level in list (at most front.getHeight())
    */
   int height;
 
@@ -62,11 +102,32 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
    */
   double prob = 0.5;
 
+  /**
+   * Where node heights come from.
+   */
+  LevelGenerator levels;
+
   /**
    * front is the head pointer of the list (pointing to other elements)
    */
   SLNode<K, V> front;
 
+  /**
+   * The last node in the list, or null if the list is empty.
+   */
+  SLNode<K, V> tail;
+
+  /**
+   * Operation metrics, or null when they are disabled.
+   */
+  SkipListMetrics metrics;
+
+  /**
+   * The open snapshots, which keep the old version of each key we change, or null if no snapshot
+   * was ever opened.
+   */
+  CopyOnWriteArrayList<SkipListSnapshot<K, V>> snapshots;
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -77,13 +138,10 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
   public SkipList(Comparator<K> comparator) {
     // create the front of the list, which will point to all elements in the list
     this.front = new SLNode<K, V>(null, null, INITIAL_HEIGHT);
-    // set all next pointers of frontNode to null
-    for (int i = 0; i < INITIAL_HEIGHT; i++) {
-      this.front.next.set(i, null);
-    }
     this.comparator = comparator;
+    this.levels = new LevelGenerator(this.prob);
     this.size = 0;
-    this.height = INITIAL_HEIGHT;
+    this.height = 0;
     getCounter = 0;
     setCounter = 0;
     removeCounter = 0;
@@ -91,19 +149,93 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
   } // SkipList(Comparator<K>)
 
   /**
-   * Create a new skip list that orders values using a not-very-clever default comparator.
+   * Create a new skip list whose node heights come from a generator with the given seed, so that
+   * the same operations always build the same list (useful for benchmarks).
+   */
+  public SkipList(Comparator<K> comparator, long seed) {
+    this(comparator);
+    this.levels = new LevelGenerator(this.prob, seed);
+  } // SkipList(Comparator<K>, long)
+
+  /**
+   * Create a new skip list that orders values using the specified comparator and keeps a prefix
+   * of each key in its node. prefix must agree with the comparator: if a precedes b, then
+   * prefix(a) must not be greater than prefix(b), compared as unsigned longs. Searches compare
+   * prefixes first and only look at keys when the prefixes are equal, which saves a call and a
+   * trip to the key object; each node gets eight bytes bigger. stringPrefix suits String keys,
+   * and (i) -> i ^ Long.MIN_VALUE suits Integer or Long keys.
+   */
+  public SkipList(Comparator<K> comparator, ToLongFunction<? super K> prefix) {
+    this(comparator);
+    this.prefix = prefix;
+  } // SkipList(Comparator<K>, ToLongFunction<? super K>)
+
+  /**
+   * Create a new skip list that orders values using a not-very-clever default comparator, which
+   * compares the keys' strings. For Comparable keys, naturalOrder() is much faster.
    */
   public SkipList() {
     this((k1, k2) -> k1.toString().compareTo(k2.toString()));
   } // SkipList()
 
+  /**
+   * Create a new skip list of Comparable keys in their natural order. Searches call compareTo
+   * directly rather than through a comparator.
+   */
+  public static <K extends Comparable<? super K>, V> SkipList<K, V> naturalOrder() {
+    SkipList<K, V> list = new SkipList<K, V>(Comparator.<K>naturalOrder());
+    list.natural = true;
+    return list;
+  } // naturalOrder()
+
+  /**
+   * Create a new skip list of Comparable keys in their natural order that keeps a prefix of each
+   * key in its node, as in SkipList(Comparator, ToLongFunction).
+   */
+  public static <K extends Comparable<? super K>, V> SkipList<K, V> naturalOrder(
+      ToLongFunction<? super K> prefix) {
+    SkipList<K, V> list = naturalOrder();
+    list.prefix = prefix;
+    return list;
+  } // naturalOrder(ToLongFunction<? super K>)
+
+  /**
+   * The first eight characters of s as a long, a byte each, for use as a key prefix. A character
+   * past Latin-1 (or 0xFF itself) becomes 0xFF and ends the prefix, so the order stays right.
+   */
+  public static long stringPrefix(String s) {
+    long result = 0;
+    int length = Math.min(8, s.length());
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c >= 0xFF) {
+        return result | (0xFFL << (56 - 8 * i));
+      } // if
+      result |= (long) c << (56 - 8 * i);
+    } // for
+    return result;
+  } // stringPrefix(String)
+
   // +-------------------+-------------------------------------------
   // | SimpleMap methods |
   // +-------------------+
 
   @Override
-  @SuppressWarnings("unchecked")
   public V set(K key, V value) {
+    SkipListMetrics metrics = this.metrics;
+    if (metrics == null) {
+      return insertOrReplace(key, value);
+    } // if
+    long start = System.nanoTime();
+    V result = insertOrReplace(key, value);
+    metrics.recordSet(System.nanoTime() - start, this.setCounter);
+    return result;
+  } // set(K,V)
+
+  /**
+   * Do the work of set.
+   */
+  V insertOrReplace(K key, V value) {
     this.setCounter = 0;
     // if key is null, throw exception
     if (key == null) {
@@ -113,15 +245,14 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
     // CASE 1: List is either empty or newNode precedes first Node (which front is pointing to)
     // Check whether front.next(0) is null first because this may fail first
     if (this.front.next(0) == null || precede(key, this.front.next(0).key)) {
+      preserve(key, SkipListSnapshot.ABSENT);
       // make newNode with random height
-      SLNode<K, V> newNode = new SLNode<K, V>(key, value, randomHeight());
+      SLNode<K, V> newNode = newNode(key, value, randomHeight());
       // update height if newNode's height is higher than current height
       if (newNode.getHeight() > this.height) {
         this.height = newNode.getHeight();
       }
-      if (newNode.getHeight() > INITIAL_HEIGHT) {
-        throw new IndexOutOfBoundsException("new Node is too high");
-      }
+      growFront(newNode.getHeight());
       // setting next pointers of newNode to what front used to points to
       // front points to newNode at all levels
       for (int i = 0; i < newNode.getHeight(); i++) {
@@ -129,20 +260,25 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
         // front points to newNode
         front.setNext(i, newNode);
       }
+      if (newNode.next(0) == null) {
+        this.tail = newNode;
+      }
       this.size++;
+      this.modCount++;
       return null;
     } else {
       // CASE 2: Unempty List
-      // update arrayList contains previous pointers of element will be inserted/updated
-      ArrayList<SLNode<K, V>> update = (ArrayList<SLNode<K, V>>) this.front.next.clone();
+      // update contains previous pointers of element will be inserted/updated
+      SLNode<K, V>[] update = this.front.next.clone();
       // start iterating from front
       SLNode<K, V> finger = this.front;
+      long keyPrefix = prefixOf(key);
       // level starts from height - 1 to 0
       // Case 2A: Check if Node with key exists
       for (int level = this.height - 1; level >= 0; level--) {
         // iterating while current != null, next node after current at level != null
         while (finger != null && finger.next(level) != null
-            && precede(finger.next(level).key, key)) {
+            && before(finger.next(level), key, keyPrefix)) {
           finger = finger.next(level);
           this.setCounter++;
         }
@@ -150,61 +286,66 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
         // if we found a matched element
         if (finger.next(level) != null && key.equals(finger.next(level).key)) {
           V returnValue = finger.next(level).value;
+          preserve(key, returnValue);
           finger.next(level).value = value;
           return returnValue;
         } else {
           // going down level when not found a match or cant keep going (next = null)
-          update.set(level, finger);
+          update[level] = finger;
           this.setCounter++;
         }
       }
       // Case 2B: no key existed, insert a new element
-      SLNode<K, V> newNode = new SLNode<K, V>(key, value, randomHeight());
+      preserve(key, SkipListSnapshot.ABSENT);
+      SLNode<K, V> newNode = newNode(key, value, randomHeight());
       this.size++;
+      this.modCount++;
 
       // update skip list's height
       if (newNode.getHeight() > this.height) {
         this.height = newNode.getHeight();
       }
+      // make room in front (and update, whose new slots stand for front) for a taller node
+      if (newNode.getHeight() > update.length) {
+        growFront(newNode.getHeight());
+        update = Arrays.copyOf(update, newNode.getHeight());
+      }
       // resetting pointers all levels from 0 to newNode's height
       for (int i = 0; i < newNode.getHeight(); i++) {
-        if (update.get(i) == null) {
+        if (update[i] == null) {
           front.setNext(i, newNode);
         } else {
-          newNode.setNext(i, update.get(i).next(i));
-          update.get(i).setNext(i, newNode);
+          newNode.setNext(i, update[i].next(i));
+          update[i].setNext(i, newNode);
         }
       }
+      if (newNode.next(0) == null) {
+        this.tail = newNode;
+      }
       return null;
     }
 
-  } // set(K,V)
+  } // insertOrReplace(K,V)
 
+  /**
+   * Get the value associated with key. This is kept for SimpleMap; callers that expect misses
+   * should use getOrDefault, find or containsKey, which do not build an exception.
+   */
   @Override
   public V get(K key) {
-    this.getCounter = 0;
-    if (this.height == 0) {
+    SLNode<K, V> node = lookup(key);
+    if (node == null) {
       throw new IndexOutOfBoundsException("The key was not found.");
     }
-    if (key == null) {
-      throw new NullPointerException("Inavlid key is null");
-    }
-    SLNode<K, V> finger = this.front;
-    for (int level = this.height - 1; level >= 0; level--) {
-      while (finger.next(level) != null && precede(finger.next(level).key, key)) {
-        finger = finger.next(level);
-        this.getCounter++;
-      }
-
-      if (finger.next(level) != null && finger.next(level).key.equals(key)) {
-        return finger.next(level).value;
-      }
-      this.getCounter++;
-    }
-    // break out of the loop, we reached the bottom, key is not in the list
-    throw new IndexOutOfBoundsException("The key was not found.");
+    return node.value;
   } // get(K,V)
 
+  @Override
+  public V getOrDefault(K key, V defaultValue) {
+    SLNode<K, V> node = lookup(key);
+    return (node == null) ? defaultValue : node.value;
+  } // getOrDefault(K, V)
+
   @Override
   public int size() {
     return this.size;
@@ -212,17 +353,25 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
 
   @Override
   public boolean containsKey(K key) {
-    try {
-      get(key);
-      return true;
-    } catch (Exception e) {
-      return false;
-    }
+    return lookup(key) != null;
   } // containsKey(K)
 
-  @SuppressWarnings("unchecked")
   @Override
   public V remove(K key) {
+    SkipListMetrics metrics = this.metrics;
+    if (metrics == null) {
+      return unlink(key);
+    } // if
+    long start = System.nanoTime();
+    V result = unlink(key);
+    metrics.recordRemove(System.nanoTime() - start, this.removeCounter);
+    return result;
+  } // remove(K)
+
+  /**
+   * Do the work of remove.
+   */
+  V unlink(K key) {
     this.removeCounter = 0;
     // if key == null, throw exception
     if (key == null) {
@@ -233,19 +382,20 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
       return null;
     }
     // Case 2: Unempty List
-    // update is arraylist of previouis pointers pointing to thing will be removed
+    // update is array of previouis pointers pointing to thing will be removed
     // update is front.next.clone() to have the same size
-    ArrayList<SLNode<K, V>> update = (ArrayList<SLNode<K, V>>) this.front.next.clone();
+    SLNode<K, V>[] update = this.front.next.clone();
     SLNode<K, V> temp = this.front;
+    long keyPrefix = prefixOf(key);
 
     // check from top level to bottom
     for (int level = this.height - 1; level >= 0; level--) {
-      while (temp != null && temp.next(level) != null && precede(temp.next(level).key, key)) {
+      while (temp != null && temp.next(level) != null && before(temp.next(level), key, keyPrefix)) {
         temp = temp.next(level);
         this.removeCounter++;
       }
       // putting previous pointers in update when we go down one level
-      update.set(level, temp);
+      update[level] = temp;
       this.removeCounter++;
     }
 
@@ -255,32 +405,34 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
     } else {
       // Case 2B: deleting node with key
       SLNode<K, V> removeNode = temp.next(0);
+      preserve(key, removeNode.value);
+      unlinked(removeNode);
       this.size--;
+      this.modCount++;
       // save the height of the deleted node before we delete that node.
       int removeNodeHeight = temp.next(0).getHeight();
       for (int i = 0; i < removeNodeHeight; i++) {
-        if (update.get(i) == removeNode) {
-          this.front.setNext(i, update.get(i).next(i).next(i));
+        if (update[i] == removeNode) {
+          this.front.setNext(i, update[i].next(i).next(i));
         } else {
-          update.get(i).setNext(i, update.get(i).next(i).next(i));
+          update[i].setNext(i, update[i].next(i).next(i));
         }
       }
+      if (removeNode == this.tail) {
+        this.tail = nodeOrNull(temp);
+      }
 
       if (removeNodeHeight >= this.height) {
-        int newHeight = 0;
-        while (newHeight <= INITIAL_HEIGHT && this.front.next(newHeight) != null) {
-          newHeight++;
-        }
-        this.height = newHeight;
+        shrinkHeight();
       }
       return removeNode.value;
     }
-  } // remove(K)
+  } // unlink(K)
 
   @Override
   public Iterator<K> keys() {
     return new Iterator<K>() {
-      Iterator<SLNode<K, V>> nodeIterator = SkipList.this.nodes();
+      NodeIterator nodeIterator = SkipList.this.nodes();
 
       @Override
       public boolean hasNext() {
@@ -302,7 +454,7 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
   @Override
   public Iterator<V> values() {
     return new Iterator<V>() {
-      Iterator<SLNode<K, V>> valIterator = SkipList.this.nodes();
+      NodeIterator valIterator = SkipList.this.nodes();
 
       @Override
       public boolean hasNext() {
@@ -323,7 +475,7 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
 
   @Override
   public void forEach(BiConsumer<? super K, ? super V> action) {
-    Iterator<SLNode<K, V>> nodes = this.nodes();
+    NodeIterator nodes = this.nodes();
     SLNode<K, V> current;
     while (nodes.hasNext()) {
       current = nodes.next();
@@ -332,10 +484,482 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
 
   } // forEach
 
+  // +-----------+---------------------------------------------------
+  // | Bulk load |
+  // +-----------+
+
+  /**
+   * Add entries whose keys are in strictly increasing order, and all greater than the keys
+   * already in the list, in a single pass. Each node gets a random height, as set would give it,
+   * but is linked onto the end of each level it reaches instead of being searched for, so loading
+   * n entries takes O(n) steps rather than O(n log n).
+   *
+   * If verify is true, every key is checked against the one before it, and out-of-order input
+   * leaves the list as it was before the call. If verify is false, only the first key is checked
+   * and out-of-order input leaves the list corrupt.
+   *
+   * @throws IllegalArgumentException if the keys are out of order (see above).
+   * @throws NullPointerException if a key is null.
+   */
+  public void loadSorted(Iterator<? extends Map.Entry<? extends K, ? extends V>> entries,
+      boolean verify) {
+    Appender appender = new Appender(verify);
+    try {
+      while (entries.hasNext()) {
+        Map.Entry<? extends K, ? extends V> entry = entries.next();
+        appender.append(entry.getKey(), entry.getValue(), appender.randomHeight());
+      } // while
+    } catch (RuntimeException e) {
+      appender.abandon();
+      throw e;
+    } // try/catch
+    appender.finish();
+  } // loadSorted(Iterator, boolean)
+
+  /**
+   * Add a stream of entries in strictly increasing key order, as in loadSorted(Iterator,
+   * boolean).
+   */
+  public void loadSorted(Stream<? extends Map.Entry<? extends K, ? extends V>> entries,
+      boolean verify) {
+    loadSorted(entries.iterator(), verify);
+  } // loadSorted(Stream, boolean)
+
+  /**
+   * Add parallel arrays of keys (in strictly increasing order) and values, as in
+   * loadSorted(Iterator, boolean).
+   *
+   * @throws IllegalArgumentException if the arrays have different lengths.
+   */
+  public void loadSorted(K[] keys, V[] values, boolean verify) {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("different numbers of keys and values");
+    } // if
+    Appender appender = new Appender(verify);
+    try {
+      for (int i = 0; i < keys.length; i++) {
+        appender.append(keys[i], values[i], appender.randomHeight());
+      } // for
+    } catch (RuntimeException e) {
+      appender.abandon();
+      throw e;
+    } // try/catch
+    appender.finish();
+  } // loadSorted(K[], V[], boolean)
+
+  // +---------------+-----------------------------------------------
+  // | Serialization |
+  // +---------------+
+
+  /**
+   * Write every entry to out in the compact binary format of SkipListFormat, in one pass through
+   * a 64 KB buffer. If heights is true, each node's height is written too, so that readFrom can
+   * rebuild exactly this list. The stream is not closed.
+   */
+  public void writeTo(OutputStream out, Codec<K> keyCodec, Codec<V> valueCodec, boolean heights)
+      throws IOException {
+    writeTo(Channels.newChannel(out), keyCodec, valueCodec, heights);
+  } // writeTo(OutputStream, Codec<K>, Codec<V>, boolean)
+
+  /**
+   * Write every entry to a channel, as in writeTo(OutputStream, Codec, Codec, boolean).
+   */
+  public void writeTo(WritableByteChannel out, Codec<K> keyCodec, Codec<V> valueCodec,
+      boolean heights) throws IOException {
+    SkipListFormat.Writer writer = new SkipListFormat.Writer(out);
+    writer.writeInt(SkipListFormat.MAGIC);
+    writer.writeByte(heights ? SkipListFormat.HEIGHTS : 0);
+    writer.writeVarint(this.size);
+    for (SLNode<K, V> node = this.front.next(0); node != null; node = node.next(0)) {
+      if (heights) {
+        writer.writeByte(node.getHeight());
+      } // if
+      byte[] key = keyCodec.encode(node.key);
+      writer.writeVarint(key.length);
+      writer.writeBytes(key);
+      if (node.value == null) {
+        writer.writeVarint(0);
+      } else {
+        byte[] value = valueCodec.encode(node.value);
+        writer.writeVarint(value.length + 1L);
+        writer.writeBytes(value);
+      } // if/else
+    } // for
+    writer.finish();
+  } // writeTo(WritableByteChannel, Codec<K>, Codec<V>, boolean)
+
+  /**
+   * Add the entries that writeTo wrote, one at a time, with loadSorted's Appender, so it takes
+   * linear time. Nodes get the heights that were written, if they were, and random ones if not.
+   * As with loadSorted, the keys must all follow the ones already in the list; they are checked.
+   * If anything is wrong, including the checksum, the list is left as it was. The stream is not
+   * closed, and may have been read past the end of the data.
+   *
+   * @throws IOException if the data cannot be read, is cut short or is corrupt.
+   * @throws IllegalArgumentException if the keys are out of order.
+   */
+  public void readFrom(InputStream in, Codec<K> keyCodec, Codec<V> valueCodec)
+      throws IOException {
+    readFrom(Channels.newChannel(in), keyCodec, valueCodec);
+  } // readFrom(InputStream, Codec<K>, Codec<V>)
+
+  /**
+   * Add the entries that writeTo wrote, read from a channel, as in readFrom(InputStream, Codec,
+   * Codec).
+   */
+  public void readFrom(ReadableByteChannel in, Codec<K> keyCodec, Codec<V> valueCodec)
+      throws IOException {
+    SkipListFormat.Reader reader = new SkipListFormat.Reader(in);
+    if (reader.readInt() != SkipListFormat.MAGIC) {
+      throw new IOException("not skip list data");
+    } // if
+    boolean heights = (reader.readByte() & SkipListFormat.HEIGHTS) != 0;
+    long count = reader.readVarint();
+    Appender appender = new Appender(true);
+    try {
+      for (long i = 0; i < count; i++) {
+        int nodeHeight = heights ? reader.readByte() : 0;
+        if (heights && (nodeHeight < 1 || nodeHeight > MAX_HEIGHT)) {
+          throw new IOException("bad height " + nodeHeight);
+        } // if
+        K key = keyCodec.decode(reader.readBytes(reader.readLength()));
+        int length = reader.readLength();
+        V value = (length == 0) ? null : valueCodec.decode(reader.readBytes(length - 1));
+        appender.append(key, value, heights ? nodeHeight : appender.randomHeight());
+      } // for
+      int expected = reader.checksum();
+      if (reader.readInt() != expected) {
+        throw new IOException("skip list data is corrupt");
+      } // if
+    } catch (IOException | RuntimeException e) {
+      appender.abandon();
+      throw e;
+    } // try/catch
+    appender.finish();
+  } // readFrom(ReadableByteChannel, Codec<K>, Codec<V>)
+
+  // +-----------------+---------------------------------------------
+  // | Batched updates |
+  // +-----------------+
+
+  /**
+   * Set every entry in a batch whose keys are in increasing order.
+   *
+   * Instead of starting each search from the top of front, we keep the predecessors of the
+   * previous key and resume from them (a finger search): we climb only as high as we need to get
+   * past the previous key, then descend. A batch of k keys spread over n entries takes
+   * O(k log(n/k)) steps rather than O(k log n). Keys out of order are still handled correctly;
+   * they just restart the search from front.
+   *
+   * @throws NullPointerException if a key is null.
+   */
+  public void setAll(Iterable<? extends Map.Entry<? extends K, ? extends V>> sortedEntries) {
+    Finger finger = new Finger();
+    for (Map.Entry<? extends K, ? extends V> entry : sortedEntries) {
+      K key = entry.getKey();
+      SLNode<K, V> candidate = finger.moveTo(key);
+      if (candidate != null && !precede(key, candidate.key)) {
+        preserve(key, candidate.value);
+        candidate.value = entry.getValue();
+      } else {
+        preserve(key, SkipListSnapshot.ABSENT);
+        finger.insert(key, entry.getValue());
+      } // if/else
+    } // for
+  } // setAll(Iterable)
+
+  /**
+   * Remove every key in a batch whose keys are in increasing order, using the same finger search
+   * as setAll.
+   *
+   * @return the number of keys that were in the list.
+   * @throws NullPointerException if a key is null.
+   */
+  public int removeAll(Iterable<? extends K> sortedKeys) {
+    Finger finger = new Finger();
+    int removed = 0;
+    for (K key : sortedKeys) {
+      SLNode<K, V> candidate = finger.moveTo(key);
+      if (candidate != null && !precede(key, candidate.key)) {
+        preserve(key, candidate.value);
+        finger.unlink(candidate);
+        removed++;
+      } // if
+    } // for
+    shrinkHeight();
+    return removed;
+  } // removeAll(Iterable)
+
+  // +---------------+-----------------------------------------------
+  // | Ordered views |
+  // +---------------+
+
+  /**
+   * Get the smallest key in the list, or null if the list is empty.
+   */
+  public K firstKey() {
+    return keyOf(this.front.next(0));
+  } // firstKey()
+
+  /**
+   * Get the largest key in the list, or null if the list is empty.
+   */
+  public K lastKey() {
+    return keyOf(this.tail);
+  } // lastKey()
+
+  /**
+   * Get the largest key less than or equal to key, or null if there is no such key.
+   */
+  public K floorKey(K key) {
+    return keyOf(findLast(key, true));
+  } // floorKey(K)
+
+  /**
+   * Get the largest key strictly less than key, or null if there is no such key.
+   */
+  public K lowerKey(K key) {
+    return keyOf(findLast(key, false));
+  } // lowerKey(K)
+
+  /**
+   * Get the smallest key greater than or equal to key, or null if there is no such key.
+   */
+  public K ceilingKey(K key) {
+    return keyOf(findLast(key, false).next(0));
+  } // ceilingKey(K)
+
+  /**
+   * Get the smallest key strictly greater than key, or null if there is no such key.
+   */
+  public K higherKey(K key) {
+    return keyOf(findLast(key, true).next(0));
+  } // higherKey(K)
+
+  /**
+   * Iterate the entries whose keys are at least from and less than to, in order. Finding the
+   * first entry takes O(log n) steps; after that, each entry takes one step along level 0. The
+   * entries are immutable copies; use set to change a value.
+   */
+  public Iterator<Map.Entry<K, V>> range(K from, K to) {
+    if (from == null || to == null) {
+      throw new NullPointerException("null bound");
+    } // if
+    return new RangeIterator(findLast(from, false).next(0), to);
+  } // range(K, K)
+
+  /**
+   * Iterate the entries whose keys are less than to, in order.
+   */
+  public Iterator<Map.Entry<K, V>> head(K to) {
+    if (to == null) {
+      throw new NullPointerException("null bound");
+    } // if
+    return new RangeIterator(this.front.next(0), to);
+  } // head(K)
+
+  /**
+   * Iterate the entries whose keys are at least from, in order.
+   */
+  public Iterator<Map.Entry<K, V>> tail(K from) {
+    if (from == null) {
+      throw new NullPointerException("null bound");
+    } // if
+    return new RangeIterator(findLast(from, false).next(0), null);
+  } // tail(K)
+
+  // +------------------+--------------------------------------------
+  // | Queue operations |
+  // +------------------+
+
+  /**
+   * Get the entry with the smallest key, or null if the list is empty, in O(1) steps.
+   */
+  public Map.Entry<K, V> peekFirst() {
+    return copyOf(this.front.next(0));
+  } // peekFirst()
+
+  /**
+   * Get the entry with the largest key, or null if the list is empty, in O(1) steps.
+   */
+  public Map.Entry<K, V> peekLast() {
+    return copyOf(this.tail);
+  } // peekLast()
+
+  /**
+   * Remove and return the entry with the smallest key, or null if the list is empty. The first
+   * node is the first at every level it reaches, so we unlink it from front without a search,
+   * in O(1) expected steps.
+   */
+  public Map.Entry<K, V> pollFirst() {
+    SLNode<K, V> first = this.front.next(0);
+    if (first == null) {
+      return null;
+    } // if
+    preserve(first.key, first.value);
+    for (int level = 0; level < first.getHeight(); level++) {
+      this.front.setNext(level, first.next(level));
+    } // for
+    if (first == this.tail) {
+      this.tail = null;
+    } // if
+    unlinked(first);
+    this.size--;
+    this.modCount++;
+    if (first.getHeight() >= this.height) {
+      shrinkHeight();
+    } // if
+    return copyOf(first);
+  } // pollFirst()
+
+  /**
+   * Remove and return the entry with the largest key, or null if the list is empty. Links only
+   * go forward, so finding the last node's predecessors takes a descent, but it compares nodes
+   * rather than keys: O(log n) expected steps.
+   */
+  public Map.Entry<K, V> pollLast() {
+    SLNode<K, V> last = this.tail;
+    if (last == null) {
+      return null;
+    } // if
+    preserve(last.key, last.value);
+    SLNode<K, V> finger = this.front;
+    for (int level = this.height - 1; level >= 0; level--) {
+      while (finger.next(level) != null && finger.next(level) != last) {
+        finger = finger.next(level);
+      } // while
+      if (level < last.getHeight()) {
+        finger.setNext(level, null);
+      } // if
+    } // for
+    this.tail = nodeOrNull(finger);
+    unlinked(last);
+    this.size--;
+    this.modCount++;
+    if (last.getHeight() >= this.height) {
+      shrinkHeight();
+    } // if
+    return copyOf(last);
+  } // pollLast()
+
+  // +---------+-----------------------------------------------------
+  // | Streams |
+  // +---------+
+
+  /**
+   * Get a spliterator for the entries, in order. It splits at the towers of the upper levels,
+   * so the halves of a split are about the same size and finding the split point takes about as
+   * many steps as a search. Only the unsplit spliterator knows its size exactly. The list must
+   * not change while it is in use. The entries are immutable copies.
+   */
+  public Spliterator<Map.Entry<K, V>> spliterator() {
+    return new NodeSpliterator<Map.Entry<K, V>>(this::copyOf,
+        Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL,
+        Map.Entry.comparingByKey(this.comparator));
+  } // spliterator()
+
+  /**
+   * Get a stream of the entries, in order. Call parallel() on it to spread the work over the
+   * common fork-join pool.
+   */
+  public Stream<Map.Entry<K, V>> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  } // stream()
+
+  /**
+   * Get a stream of the keys, in order.
+   */
+  public Stream<K> keyStream() {
+    return StreamSupport.stream(new NodeSpliterator<K>((node) -> node.key,
+        Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL,
+        this.comparator), false);
+  } // keyStream()
+
+  /**
+   * Get a stream of the values, in key order.
+   */
+  public Stream<V> valueStream() {
+    return StreamSupport.stream(
+        new NodeSpliterator<V>((node) -> node.value, Spliterator.ORDERED, null), false);
+  } // valueStream()
+
+  /**
+   * Apply a function to each key/value pair, spread over the common fork-join pool, in no
+   * particular order. The action must be thread-safe and must not modify this map.
+   */
+  public void parallelForEach(BiConsumer<? super K, ? super V> action) {
+    StreamSupport.stream(new NodeSpliterator<SLNode<K, V>>((node) -> node, 0, null), true)
+        .forEach((node) -> action.accept(node.key, node.value));
+  } // parallelForEach(BiConsumer)
+
+  /**
+   * Remove every entry that filter accepts, in one pass along level 0.
+   *
+   * @return true if any entry was removed.
+   */
+  public boolean removeIf(BiPredicate<? super K, ? super V> filter) {
+    boolean removed = false;
+    NodeIterator nodes = nodes();
+    while (nodes.hasNext()) {
+      SLNode<K, V> node = nodes.next();
+      if (filter.test(node.key, node.value)) {
+        nodes.remove();
+        removed = true;
+      } // if
+    } // while
+    return removed;
+  } // removeIf(BiPredicate)
+
+  // +-----------+---------------------------------------------------
+  // | Snapshots |
+  // +-----------+
+
+  /**
+   * Open a read-only view of the list as it is now. Later changes to the list are not seen by
+   * the snapshot, which keeps the old version of each key they touch until it is closed; see
+   * SkipListSnapshot. The list must only be changed through its own methods while a snapshot is
+   * open.
+   */
+  public SkipListSnapshot<K, V> snapshot() {
+    if (this.snapshots == null) {
+      this.snapshots = new CopyOnWriteArrayList<SkipListSnapshot<K, V>>();
+    } // if
+    return new SkipListSnapshot<K, V>(this, null);
+  } // snapshot()
+
   // +----------------------+----------------------------------------
   // | Other public methods |
   // +----------------------+
 
+  /**
+   * Start recording operation metrics, if we are not already, and return them. This counts the
+   * nodes of each height once, so call it before sharing the list between threads.
+   */
+  public SkipListMetrics enableMetrics() {
+    if (this.metrics == null) {
+      SkipListMetrics metrics = new SkipListMetrics(this);
+      for (SLNode<K, V> node = this.front.next(0); node != null; node = node.next(0)) {
+        metrics.linked(node.getHeight());
+      } // for
+      this.metrics = metrics;
+    } // if
+    return this.metrics;
+  } // enableMetrics()
+
+  /**
+   * Stop recording operation metrics.
+   */
+  public void disableMetrics() {
+    this.metrics = null;
+  } // disableMetrics()
+
+  /**
+   * Get the metrics being recorded, or null if they are disabled.
+   */
+  public SkipListMetrics metrics() {
+    return this.metrics;
+  } // metrics()
+
   /**
    * Method to log the number of times we traverse horizontally and call next
    */
@@ -344,23 +968,76 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
   }
 
   /**
-   * Dump the tree to some output location.
+   * Render the entries as ", (key value)" for each, in order. Takes linear time; for big lists,
+   * appendTo with a limit is kinder.
    */
-
+  @Override
   public String toString() {
-    String builder = "";
-    Iterator<SLNode<K, V>> it = this.nodes();
-    while (it.hasNext()) {
-      SLNode<K, V> current = it.next();
-      builder += ", (" + current.key.toString() + " " + current.value.toString() + ")";
-    }
-    return builder;
-  }
+    return toString(Long.MAX_VALUE);
+  } // toString()
+
+  /**
+   * Render at most limit entries, as toString does, followed by ", ..." if there are more.
+   */
+  public String toString(long limit) {
+    StringBuilder builder = new StringBuilder();
+    try {
+      appendTo(builder, null, null, limit);
+    } catch (IOException e) {
+      // a StringBuilder never throws
+      throw new UncheckedIOException(e);
+    } // try/catch
+    return builder.toString();
+  } // toString(long)
+
+  /**
+   * Write the entries to out as toString renders them, one at a time, so nothing the size of the
+   * list is built.
+   */
+  public void appendTo(Appendable out) throws IOException {
+    appendTo(out, null, null, Long.MAX_VALUE);
+  } // appendTo(Appendable)
+
+  /**
+   * Write at most limit entries to out, followed by ", ..." if there are more.
+   */
+  public void appendTo(Appendable out, long limit) throws IOException {
+    appendTo(out, null, null, limit);
+  } // appendTo(Appendable, long)
+
+  /**
+   * Write at most limit of the entries whose keys are at least from and less than to, followed
+   * by ", ..." if there are more. A null bound leaves that end open. Finding the first entry
+   * takes O(log n) steps.
+   */
+  public void appendTo(Appendable out, K from, K to, long limit) throws IOException {
+    SLNode<K, V> node = (from == null) ? this.front.next(0) : findLast(from, false).next(0);
+    for (long written = 0; node != null && (to == null || precede(node.key, to));
+        node = node.next(0), written++) {
+      if (written == limit) {
+        out.append(", ...");
+        return;
+      } // if
+      out.append(", (").append(String.valueOf(node.key)).append(' ')
+          .append(String.valueOf(node.value)).append(')');
+    } // for
+  } // appendTo(Appendable, K, K, long)
 
+  /**
+   * Dump the tree to some output location, one node at a time.
+   */
   public void dump(PrintWriter pen) {
+    dump(pen, Long.MAX_VALUE);
+  } // dump(PrintWriter)
+
+  /**
+   * Dump at most limit nodes, and a line of dots if there are more.
+   */
+  public void dump(PrintWriter pen, long limit) {
     String leading = "          ";
 
-    SLNode<K, V> current = front().get(0);
+    SLNode<K, V> current = this.front.next(0);
+    long dumped = 0;
 
     // Print some X's at the start
     pen.print(leading);
@@ -371,6 +1048,10 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
     printLinks(pen, leading);
 
     while (current != null) {
+      if (dumped++ == limit) {
+        pen.println(leading + " ...");
+        break;
+      } // if
       // Print out the key as a fixed-width field.
       // (There's probably a better way to do this.)
       String str;
@@ -386,17 +1067,17 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
       } // if/else
 
       // Print an indication for the links it has.
-      for (int level = 0; level < current.next.size(); level++) {
+      for (int level = 0; level < current.getHeight(); level++) {
         pen.print("-*");
       } // for
         // Print an indication for the links it lacks.
-      for (int level = current.next.size(); level < this.height; level++) {
+      for (int level = current.getHeight(); level < this.height; level++) {
         pen.print(" |");
       } // for
       pen.println();
       printLinks(pen, leading);
 
-      current = current.next.get(0);
+      current = current.next(0);
     } // while
 
     // Print some O's at the start
@@ -406,7 +1087,7 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
     } // for
     pen.println();
 
-  } // dump(PrintWriter)
+  } // dump(PrintWriter, long)
 
   /**
    * Print some links (for dump).
@@ -427,45 +1108,747 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
    * Pick a random height for a new node.
    */
   int randomHeight() {
-    int result = 1;
-    while (rand.nextDouble() < prob) {
-      result = result + 1;
+    return randomHeight(this.size);
+  } // randomHeight()
+
+  /**
+   * Pick a random height for a new node in a list that has n elements.
+   */
+  int randomHeight(long n) {
+    return this.levels.next(maxLevel(n, this.prob));
+  } // randomHeight(long)
+
+  /**
+   * The tallest a node may be in a list of n elements: about log base 1/prob of n, as in Pugh's
+   * paper, plus one level of headroom. Searches stay O(log n) however big the list gets, and a
+   * small list never needs more than a few levels of front.
+   */
+  static int maxLevel(long n, double prob) {
+    int levels = 2 + (int) (Math.log(n + 1) / -Math.log(prob));
+    return Math.min(levels, MAX_HEIGHT);
+  } // maxLevel(long, double)
+
+  /**
+   * Make sure front has at least newHeight levels. Front doubles when it grows, so it is only
+   * copied a handful of times over the life of the list.
+   */
+  void growFront(int newHeight) {
+    int length = this.front.getHeight();
+    if (newHeight > length) {
+      this.front.next =
+          Arrays.copyOf(this.front.next, Math.min(MAX_HEIGHT, Math.max(newHeight, 2 * length)));
     }
-    return Math.min(result, INITIAL_HEIGHT);
-  } // random\Height()
+  } // growFront(int)
 
   /**
-   * Get an iterator for all of the nodes. (Useful for implementing the other iterators.)
+   * Bring height back down to the highest level that still has nodes, after removals, and give
+   * back front levels once most of them are unused.
    */
-  Iterator<SLNode<K, V>> nodes() {
-    return new Iterator<SLNode<K, V>>() {
+  void shrinkHeight() {
+    while (this.height > 0 && this.front.next(this.height - 1) == null) {
+      this.height--;
+    }
+    int length = this.front.getHeight();
+    if (length > INITIAL_HEIGHT && this.height < length / 4) {
+      this.front.next = Arrays.copyOf(this.front.next, Math.max(INITIAL_HEIGHT, 2 * this.height));
+    }
+  } // shrinkHeight()
 
-      /**
-       * A reference to the next node to return.
-       */
-      SLNode<K, V> next = SkipList.this.front().get(0);
+  /**
+   * Iterate every entry, in order, by following level 0.
+   */
+  Iterator<Map.Entry<K, V>> entries() {
+    return new RangeIterator(this.front.next(0), null);
+  } // entries()
 
-      @Override
-      public boolean hasNext() {
-        return this.next != null;
-      } // hasNext()
+  /**
+   * Iterate the entries whose keys are greater than key, or every entry if key is null.
+   */
+  Iterator<Map.Entry<K, V>> entriesAfter(K key) {
+    return (key == null) ? entries() : new RangeIterator(findLast(key, true).next(0), null);
+  } // entriesAfter(K)
 
-      @Override
-      public SLNode<K, V> next() {
-        if (this.next == null) {
-          throw new IllegalStateException();
+  /**
+   * Tell the open snapshots that key, whose value is old (or SkipListSnapshot.ABSENT), is about
+   * to change.
+   */
+  void preserve(K key, Object old) {
+    if (this.snapshots != null) {
+      for (SkipListSnapshot<K, V> snapshot : this.snapshots) {
+        snapshot.preserve(key, old);
+      } // for
+    } // if
+  } // preserve(K, Object)
+
+  /**
+   * Get an iterator for all of the nodes. (Useful for implementing the other iterators.) Its
+   * remove unlinks the last node returned in O(1) expected steps.
+   */
+  NodeIterator nodes() {
+    return new NodeIterator();
+  } // nodes()
+
+  /**
+   * Links nodes onto the end of the list, one after another, for the bulk loaders.
+   */
+  class Appender {
+    /**
+     * The last node at each level, and at each level where it was before we started.
+     */
+    SLNode<K, V>[] tails;
+    SLNode<K, V>[] original;
+
+    /**
+     * Whether to check every key, and the last key we appended.
+     */
+    boolean verify;
+    SLNode<K, V> last;
+
+    /**
+     * How much the list has grown.
+     */
+    int added;
+
+    Appender(boolean verify) {
+      this.verify = verify;
+      this.tails = SkipList.this.front.next.clone();
+      SLNode<K, V> finger = SkipList.this.front;
+      for (int level = this.tails.length - 1; level >= 0; level--) {
+        while (finger.next(level) != null) {
+          finger = finger.next(level);
+        } // while
+        this.tails[level] = finger;
+      } // for
+      this.original = this.tails.clone();
+      this.last = (finger == SkipList.this.front) ? null : finger;
+    } // Appender(boolean)
+
+    /**
+     * Add a node to the end of the list.
+     */
+    void append(K key, V value, int nodeHeight) {
+      if (key == null) {
+        throw new NullPointerException("null key");
+      } // if
+      if (this.last != null && (this.verify || this.added == 0) && !precede(this.last.key, key)) {
+        throw new IllegalArgumentException(
+            "keys out of order: " + key + " does not follow " + this.last.key);
+      } // if
+      if (nodeHeight > this.tails.length) {
+        int oldLength = this.tails.length;
+        growFront(nodeHeight);
+        this.tails = Arrays.copyOf(this.tails, SkipList.this.front.getHeight());
+        Arrays.fill(this.tails, oldLength, this.tails.length, SkipList.this.front);
+      } // if
+      preserve(key, SkipListSnapshot.ABSENT);
+      SLNode<K, V> newNode = newNode(key, value, nodeHeight);
+      for (int level = 0; level < nodeHeight; level++) {
+        this.tails[level].setNext(level, newNode);
+        this.tails[level] = newNode;
+      } // for
+      SkipList.this.tail = newNode;
+      this.last = newNode;
+      this.added++;
+      SkipList.this.modCount++;
+    } // append(K, V, int)
+
+    /**
+     * Pick a height for the next node, allowing for the nodes appended so far.
+     */
+    int randomHeight() {
+      return SkipList.this.randomHeight(SkipList.this.size + this.added);
+    } // randomHeight()
+
+    /**
+     * Record the new size and height.
+     */
+    void finish() {
+      SkipList.this.size += this.added;
+      int newHeight = 0;
+      while (newHeight < this.tails.length && SkipList.this.front.next(newHeight) != null) {
+        newHeight++;
+      } // while
+      SkipList.this.height = Math.max(SkipList.this.height, newHeight);
+    } // finish()
+
+    /**
+     * Cut off everything we appended.
+     */
+    void abandon() {
+      for (SLNode<K, V> node = this.original[0].next(0); node != null; node = node.next(0)) {
+        unlinked(node);
+      } // for
+      for (int level = 0; level < this.tails.length; level++) {
+        if (level < this.original.length) {
+          this.original[level].setNext(level, null);
+        } else {
+          SkipList.this.front.setNext(level, null);
+        } // if/else
+      } // for
+      SkipList.this.tail = nodeOrNull(this.original[0]);
+    } // abandon()
+  } // class Appender
+
+  /**
+   * The predecessors of the most recent key in a batch, for setAll and removeAll.
+   */
+  class Finger {
+    /**
+     * The last node before the most recent key at each level (front, to begin with). Every
+     * entry is a node still in the list.
+     */
+    SLNode<K, V>[] update = SkipList.this.front.next.clone();
+
+    /**
+     * The most recent key, or null before the first.
+     */
+    K previous;
+
+    Finger() {
+      Arrays.fill(this.update, SkipList.this.front);
+    } // Finger()
+
+    /**
+     * Update the predecessors for key and return the first node whose key is not smaller than
+     * key (or null, if there is no such node).
+     */
+    SLNode<K, V> moveTo(K key) {
+      if (key == null) {
+        throw new NullPointerException("null key");
+      } // if
+      if (this.previous != null && !precede(this.previous, key)) {
+        // Out of order, so the old predecessors may be past key.
+        Arrays.fill(this.update, SkipList.this.front);
+      } // if
+      this.previous = key;
+
+      // Climb until the next link no longer jumps over key.
+      int top = 0;
+      while (top < SkipList.this.height - 1 && this.update[top].next(top) != null
+          && precede(this.update[top].next(top).key, key)) {
+        top++;
+      } // while
+
+      SLNode<K, V> finger = this.update[top];
+      for (int level = top; level >= 0; level--) {
+        // The old predecessor at this level may be further along than where we came down.
+        if (this.update[level] != SkipList.this.front
+            && (finger == SkipList.this.front || precede(finger.key, this.update[level].key))) {
+          finger = this.update[level];
+        } // if
+        while (finger.next(level) != null && precede(finger.next(level).key, key)) {
+          finger = finger.next(level);
+        } // while
+        this.update[level] = finger;
+      } // for
+      return finger.next(0);
+    } // moveTo(K)
+
+    /**
+     * Insert a new node straight after the predecessors, which then become the new node.
+     */
+    void insert(K key, V value) {
+      SLNode<K, V> newNode = newNode(key, value, randomHeight());
+      int newHeight = newNode.getHeight();
+      if (newHeight > SkipList.this.height) {
+        SkipList.this.height = newHeight;
+      } // if
+      if (newHeight > this.update.length) {
+        int oldLength = this.update.length;
+        growFront(newHeight);
+        this.update = Arrays.copyOf(this.update, SkipList.this.front.getHeight());
+        Arrays.fill(this.update, oldLength, this.update.length, SkipList.this.front);
+      } // if
+      for (int level = 0; level < newHeight; level++) {
+        newNode.setNext(level, this.update[level].next(level));
+        this.update[level].setNext(level, newNode);
+        this.update[level] = newNode;
+      } // for
+      if (newNode.next(0) == null) {
+        SkipList.this.tail = newNode;
+      } // if
+      SkipList.this.size++;
+      SkipList.this.modCount++;
+    } // insert(K, V)
+
+    /**
+     * Unlink a node that follows the predecessors.
+     */
+    void unlink(SLNode<K, V> node) {
+      for (int level = 0; level < node.getHeight(); level++) {
+        this.update[level].setNext(level, node.next(level));
+      } // for
+      if (node == SkipList.this.tail) {
+        SkipList.this.tail = nodeOrNull(this.update[0]);
+      } // if
+      unlinked(node);
+      SkipList.this.size--;
+      SkipList.this.modCount++;
+    } // unlink(SLNode<K, V>)
+  } // class Finger
+
+  /**
+   * Find the node with the given key for get, getOrDefault or containsKey, which run on one
+   * thread: count the steps in getCounter and record the lookup in metrics. Readers that share
+   * the list use findNode instead, and record each lookup once it has succeeded.
+   */
+  SLNode<K, V> lookup(K key) {
+    SkipListMetrics metrics = this.metrics;
+    long start = (metrics == null) ? 0 : System.nanoTime();
+    int[] counts = new int[2];
+    SLNode<K, V> result = findNode(key, counts);
+    this.getCounter = counts[0];
+    if (metrics != null) {
+      metrics.recordLookup(System.nanoTime() - start, counts[0], counts[1]);
+    }
+    return result;
+  } // lookup(K)
+
+  /**
+   * Find the node with the given key, or null if there is no such node.
+   */
+  SLNode<K, V> findNode(K key) {
+    return findNode(key, null);
+  } // findNode(K)
+
+  /**
+   * Find the node with the given key, or null, and store the steps taken and the comparisons
+   * made in counts[0] and counts[1] if counts is not null.
+   */
+  SLNode<K, V> findNode(K key, int[] counts) {
+    if (key == null) {
+      throw new NullPointerException("Inavlid key is null");
+    }
+    // count in locals, since readers may share the list
+    int steps = 0;
+    int comparisons = 0;
+    SLNode<K, V> result = null;
+    SLNode<K, V> finger = this.front;
+    long keyPrefix = prefixOf(key);
+    for (int level = this.height - 1; level >= 0 && result == null; level--) {
+      SLNode<K, V> next;
+      while ((next = finger.next(level)) != null) {
+        comparisons++;
+        if (!before(next, key, keyPrefix)) {
+          break;
         }
-        SLNode<K, V> temp = this.next;
-        this.next = this.next.next.get(0);
-        return temp;
-      } // next();
-    }; // new Iterator
-  }
+        finger = next;
+        steps++;
+      }
+
+      if (next != null && next.key.equals(key)) {
+        comparisons++;
+        result = next;
+      } else {
+        steps++;
+      }
+    }
+    // if result is still null, we reached the bottom and key is not in the list
+    if (counts != null) {
+      counts[0] = steps;
+      counts[1] = comparisons;
+    }
+    return result;
+  } // findNode(K, int[])
+
+  /**
+   * Find the last node whose key is less than key (or, if inclusive, less than or equal to key).
+   * Returns front if there is no such node.
+   */
+  SLNode<K, V> findLast(K key, boolean inclusive) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    SLNode<K, V> finger = this.front;
+    long keyPrefix = prefixOf(key);
+    for (int level = this.height - 1; level >= 0; level--) {
+      while (finger.next(level) != null && (inclusive ? !after(finger.next(level), key, keyPrefix)
+          : before(finger.next(level), key, keyPrefix))) {
+        finger = finger.next(level);
+      } // while
+    } // for
+    return finger;
+  } // findLast(K, boolean)
 
+  /**
+   * Treat front, as a predecessor, as no node at all.
+   */
+  SLNode<K, V> nodeOrNull(SLNode<K, V> node) {
+    return (node == this.front) ? null : node;
+  } // nodeOrNull(SLNode<K, V>)
+
+  /**
+   * Get the key of a node, treating front and the end of the list as having no key.
+   */
+  K keyOf(SLNode<K, V> node) {
+    return (node == null || node == this.front) ? null : node.key;
+  } // keyOf(SLNode<K, V>)
+
+  /**
+   * Walk level 0 from the front, keeping the predecessors of the last node returned at every
+   * level, so that remove needs no search.
+   */
+  class NodeIterator implements Iterator<SLNode<K, V>> {
+    /**
+     * A reference to the next node to return.
+     */
+    SLNode<K, V> next = SkipList.this.front.next(0);
+
+    /**
+     * The last node returned, or null if there is none, and whether we removed it.
+     */
+    SLNode<K, V> last;
+    boolean removed;
+
+    /**
+     * At each level, the last node before last that reaches it (or front). These are the nodes
+     * whose links remove changes.
+     */
+    SLNode<K, V>[] update = SkipList.this.front.next.clone();
+
+    /**
+     * The list's modCount when update was last right.
+     */
+    int expectedModCount = SkipList.this.modCount;
+
+    NodeIterator() {
+      Arrays.fill(this.update, SkipList.this.front);
+    } // NodeIterator()
+
+    @Override
+    public boolean hasNext() {
+      if (this.expectedModCount != SkipList.this.modCount) {
+        // the list changed around us, so the node after last may be a different one
+        this.next = (this.last == null) ? SkipList.this.front.next(0)
+            : findLast(this.last.key, true).next(0);
+      } // if
+      return this.next != null;
+    } // hasNext()
+
+    @Override
+    public SLNode<K, V> next() {
+      if (this.expectedModCount != SkipList.this.modCount) {
+        // the list changed around us, so pick up after last by searching
+        findPredecessors((this.last == null) ? null : this.last.key, true);
+        this.next = this.update[0].next(0);
+        this.expectedModCount = SkipList.this.modCount;
+      } else if (this.last != null && !this.removed) {
+        // last is now behind us at every level it reaches
+        for (int level = this.last.getHeight() - 1; level >= 0; level--) {
+          this.update[level] = this.last;
+        } // for
+      } // if/else
+      if (this.next == null) {
+        throw new IllegalStateException();
+      }
+      this.last = this.next;
+      this.removed = false;
+      this.next = this.next.next(0);
+      return this.last;
+    } // next()
+
+    /**
+     * Unlink the last node returned. If the list was changed some other way since we last looked,
+     * find the predecessors again with a search.
+     *
+     * @throws IllegalStateException if next has not been called since the last remove, or the
+     *         node is no longer in the list.
+     */
+    @Override
+    public void remove() {
+      SLNode<K, V> node = this.last;
+      if (node == null || this.removed) {
+        throw new IllegalStateException("nothing to remove");
+      } // if
+      if (this.expectedModCount != SkipList.this.modCount) {
+        findPredecessors(node.key, false);
+        if (this.update[0].next(0) != node) {
+          throw new IllegalStateException("node already removed");
+        } // if
+      } // if
+      preserve(node.key, node.value);
+      for (int level = 0; level < node.getHeight(); level++) {
+        this.update[level].setNext(level, node.next(level));
+      } // for
+      if (node == SkipList.this.tail) {
+        SkipList.this.tail = nodeOrNull(this.update[0]);
+      } // if
+      unlinked(node);
+      SkipList.this.size--;
+      SkipList.this.modCount++;
+      this.expectedModCount = SkipList.this.modCount;
+      this.next = node.next(0);
+      this.removed = true;
+      if (node.getHeight() >= SkipList.this.height) {
+        shrinkHeight();
+      } // if
+    } // remove()
+
+    /**
+     * Fill update with the last node before key (or, if inclusive, at or before key) at every
+     * level. A null key comes before every node.
+     */
+    void findPredecessors(K key, boolean inclusive) {
+      if (this.update.length < SkipList.this.front.getHeight()) {
+        this.update = SkipList.this.front.next.clone();
+      } // if
+      Arrays.fill(this.update, SkipList.this.front);
+      SLNode<K, V> finger = SkipList.this.front;
+      if (key == null) {
+        return;
+      } // if
+      long keyPrefix = prefixOf(key);
+      for (int level = SkipList.this.height - 1; level >= 0; level--) {
+        while (finger.next(level) != null
+            && (inclusive ? !after(finger.next(level), key, keyPrefix)
+                : before(finger.next(level), key, keyPrefix))) {
+          finger = finger.next(level);
+        } // while
+        this.update[level] = finger;
+      } // for
+    } // findPredecessors(K, boolean)
+  } // class NodeIterator
+
+  /**
+   * Walk level 0 from a given node up to (but not including) a bound, copying each node.
+   */
+  class RangeIterator implements Iterator<Map.Entry<K, V>> {
+    /**
+     * The next node to return.
+     */
+    SLNode<K, V> next;
+
+    /**
+     * The first key we should not return (or null, to go to the end).
+     */
+    K to;
+
+    RangeIterator(SLNode<K, V> start, K to) {
+      this.next = start;
+      this.to = to;
+    } // RangeIterator(SLNode<K, V>, K)
+
+    @Override
+    public boolean hasNext() {
+      return this.next != null && (this.to == null || precede(this.next.key, this.to));
+    } // hasNext()
+
+    @Override
+    public Map.Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      } // if
+      SLNode<K, V> temp = this.next;
+      this.next = this.next.next(0);
+      return copyOf(temp);
+    } // next()
+  } // class RangeIterator
+
+  /**
+   * Splits the nodes from current up to (but not including) fence at the towers of the upper
+   * levels. base is the front or a node at or before current, and is taller than level; a split
+   * looks at the nodes at level that come after current and before fence, and cuts at the middle
+   * one. If there are too few, it tries the level below, which has about twice as many.
+   */
+  class NodeSpliterator<T> implements Spliterator<T> {
+    /**
+     * The fewest towers we like to cut between.
+     */
+    static final int SPLIT_TOWERS = 32;
+
+    SLNode<K, V> current;
+    final SLNode<K, V> fence;
+    SLNode<K, V> base;
+    int level;
+
+    /**
+     * How many nodes we think are left, and whether that is exact.
+     */
+    long estimate;
+    boolean sized;
+
+    /**
+     * What we make of each node, and what we say about the results.
+     */
+    final Function<SLNode<K, V>, T> view;
+    final int characteristics;
+    final Comparator<? super T> order;
+
+    NodeSpliterator(Function<SLNode<K, V>, T> view, int characteristics,
+        Comparator<? super T> order) {
+      this(SkipList.this.front.next(0), null, SkipList.this.front, SkipList.this.height - 1,
+          SkipList.this.size, true, view, characteristics, order);
+    } // NodeSpliterator(Function, int, Comparator)
+
+    NodeSpliterator(SLNode<K, V> current, SLNode<K, V> fence, SLNode<K, V> base, int level,
+        long estimate, boolean sized, Function<SLNode<K, V>, T> view, int characteristics,
+        Comparator<? super T> order) {
+      this.current = current;
+      this.fence = fence;
+      this.base = base;
+      this.level = level;
+      this.estimate = estimate;
+      this.sized = sized;
+      this.view = view;
+      this.characteristics = characteristics;
+      this.order = order;
+    } // NodeSpliterator(SLNode, SLNode, SLNode, int, long, boolean, Function, int, Comparator)
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+      if (this.current == null || this.current == this.fence) {
+        return false;
+      } // if
+      SLNode<K, V> node = this.current;
+      this.current = node.next(0);
+      this.estimate--;
+      action.accept(this.view.apply(node));
+      return true;
+    } // tryAdvance(Consumer)
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+      SLNode<K, V> node = this.current;
+      this.current = this.fence;
+      this.estimate = 0;
+      for (; node != null && node != this.fence; node = node.next(0)) {
+        action.accept(this.view.apply(node));
+      } // for
+    } // forEachRemaining(Consumer)
+
+    @Override
+    public Spliterator<T> trySplit() {
+      if (this.current == null || this.current == this.fence) {
+        return null;
+      } // if
+      for (; this.level > 0; this.level--) {
+        int count = 0;
+        for (SLNode<K, V> x = firstTower(); before(x); x = x.next(this.level)) {
+          count++;
+        } // for
+        // A few towers split unevenly, so go lower unless there are enough or no lower level.
+        if (count == 0 || (count < SPLIT_TOWERS && this.level > 1)) {
+          continue;
+        } // if
+        SLNode<K, V> mid = firstTower();
+        for (int skip = count / 2; skip > 0; skip--) {
+          mid = mid.next(this.level);
+        } // for
+        long prefixEstimate = this.estimate * (count / 2 + 1) / (count + 1);
+        NodeSpliterator<T> prefix = new NodeSpliterator<T>(this.current, mid, this.base,
+            this.level, prefixEstimate, false, this.view, this.characteristics, this.order);
+        this.current = mid;
+        this.base = mid;
+        this.estimate -= prefixEstimate;
+        this.sized = false;
+        return prefix;
+      } // for
+      return null;
+    } // trySplit()
+
+    @Override
+    public long estimateSize() {
+      return this.estimate;
+    } // estimateSize()
+
+    @Override
+    public int characteristics() {
+      return this.characteristics | (this.sized ? Spliterator.SIZED : 0);
+    } // characteristics()
+
+    @Override
+    public Comparator<? super T> getComparator() {
+      if ((this.characteristics & Spliterator.SORTED) == 0) {
+        throw new IllegalStateException();
+      } // if
+      return this.order;
+    } // getComparator()
+
+    /**
+     * Find the first node at level that comes after current, starting from current itself if it
+     * is tall enough and from base otherwise.
+     */
+    SLNode<K, V> firstTower() {
+      SLNode<K, V> x =
+          (this.current.getHeight() > this.level) ? this.current : this.base.next(this.level);
+      while (x != null && x != this.fence && !precede(this.current.key, x.key)) {
+        x = x.next(this.level);
+      } // while
+      return x;
+    } // firstTower()
+
+    /**
+     * Determine whether x is a node before the fence.
+     */
+    boolean before(SLNode<K, V> x) {
+      return x != null && x != this.fence
+          && (this.fence == null || precede(x.key, this.fence.key));
+    } // before(SLNode<K, V>)
+  } // class NodeSpliterator
+
+  @SuppressWarnings("unchecked")
   private boolean precede(K key1, K key2) {
+    if (this.natural) {
+      return ((Comparable<? super K>) key1).compareTo(key2) < 0;
+    }
     return this.comparator.compare(key1, key2) < 0;
   }
 
+  /**
+   * Determine whether node's key precedes key, whose prefix is keyPrefix, by the prefixes if
+   * they differ.
+   */
+  boolean before(SLNode<K, V> node, K key, long keyPrefix) {
+    if (this.prefix != null && node.prefix != keyPrefix) {
+      return Long.compareUnsigned(node.prefix, keyPrefix) < 0;
+    }
+    return precede(node.key, key);
+  } // before(SLNode<K, V>, K, long)
+
+  /**
+   * Determine whether node's key follows key, whose prefix is keyPrefix.
+   */
+  boolean after(SLNode<K, V> node, K key, long keyPrefix) {
+    if (this.prefix != null && node.prefix != keyPrefix) {
+      return Long.compareUnsigned(node.prefix, keyPrefix) > 0;
+    }
+    return precede(key, node.key);
+  } // after(SLNode<K, V>, K, long)
+
+  long prefixOf(K key) {
+    return (this.prefix == null) ? 0 : this.prefix.applyAsLong(key);
+  } // prefixOf(K)
+
+  /**
+   * Copy a node into an entry that does not change with the list, or null for no node.
+   */
+  Map.Entry<K, V> copyOf(SLNode<K, V> node) {
+    return (node == null) ? null : new SimpleImmutableEntry<K, V>(node.key, node.value);
+  } // copyOf(SLNode<K, V>)
+
+  /**
+   * Make a node, with its key's prefix if we keep them, for linking into the list at once.
+   */
+  SLNode<K, V> newNode(K key, V value, int nodeHeight) {
+    SLNode<K, V> node = new SLNode<K, V>(key, value, nodeHeight);
+    node.prefix = prefixOf(key);
+    SkipListMetrics metrics = this.metrics;
+    if (metrics != null) {
+      metrics.linked(nodeHeight);
+    } // if
+    return node;
+  } // newNode(K, V, int)
+
+  /**
+   * Tell the metrics, if any, that node has left the list.
+   */
+  void unlinked(SLNode<K, V> node) {
+    SkipListMetrics metrics = this.metrics;
+    if (metrics != null) {
+      metrics.unlinked(node.getHeight());
+    } // if
+  } // unlinked(SLNode<K, V>)
+
   // nodes()
   // +---------+-----------------------------------------------------
   // | Helpers |
@@ -475,9 +1858,9 @@ public class SkipList<K, V> implements SimpleMap<K, V> {
 
 
 /**
- * Nodes in the skip list.
+ * Nodes in the skip list. They never leave the list; callers get copies (see SkipList.copyOf).
  */
-class SLNode<K, V> {
+class SLNode<K, V> implements Map.Entry<K, V> {
 
   // +--------+------------------------------------------------------
   // | Fields |
@@ -498,9 +1881,14 @@ class SLNode<K, V> {
   V value;
 
   /**
-   * Pointers to the next nodes.
+   * Pointers to the next nodes, one slot per level of the node.
+   */
+  SLNode<K, V>[] next;
+
+  /**
+   * A prefix of the key, for lists that keep them (see SkipList(Comparator, ToLongFunction)).
    */
-  ArrayList<SLNode<K, V>> next;
+  long prefix;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -509,13 +1897,11 @@ class SLNode<K, V> {
   /**
    * Create a new node of height n with the specified key and value.
    */
+  @SuppressWarnings("unchecked")
   public SLNode(K key, V value, int n) {
     this.key = key;
     this.value = value;
-    this.next = new ArrayList<SLNode<K, V>>(n);
-    for (int i = 0; i < n; i++) {
-      this.next.add(null);
-    } // for
+    this.next = (SLNode<K, V>[]) new SLNode<?, ?>[n];
   } // SLNode(K, V, int)
 
   // +---------+-----------------------------------------------------
@@ -524,15 +1910,32 @@ class SLNode<K, V> {
   /* Taken from Sam Rebelsky's Eboard */
   public SLNode<K, V> next(int i) {
 
-    return this.next.get(i);
+    return this.next[i];
   }
 
   /* taken from Sam Rebelsky's eboard */
   public void setNext(int i, SLNode<K, V> newNode) {
-    this.next.set(i, newNode);
+    this.next[i] = newNode;
   }
 
   public int getHeight() {
-    return this.next.size();
+    return this.next.length;
   }
+
+  @Override
+  public K getKey() {
+    return this.key;
+  } // getKey()
+
+  @Override
+  public V getValue() {
+    return this.value;
+  } // getValue()
+
+  @Override
+  public V setValue(V value) {
+    V old = this.value;
+    this.value = value;
+    return old;
+  } // setValue(V)
 } // SLNode<K,V>
@@ -0,0 +1,751 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * A small benchmark harness comparing SkipList with java.util.TreeMap and
+ * java.util.concurrent.ConcurrentSkipListMap.
+ *
+ * Each benchmark fills a map, then repeatedly runs one operation over a precomputed array of
+ * probe keys, with warmup iterations followed by measured iterations (in the style of JMH's
+ * average-time mode). Results are printed as a table and, with --json=FILE, written as a JSON
+ * array so runs can be compared over time.
+ *
+ * Run with, for example,
+ *
+ * <pre>
+ *   javac -d bin -sourcepath src src/SkipListBenchmark.java
+ *   java -Xmx4g -cp bin SkipListBenchmark --sizes=1000,1000000 --json=results.json
+ * </pre>
+ *
+ * Options (all optional): --suite=maps|batch|threads|durable, --sizes=N,N,..., --batches=N,N,...,
+ * --threads=N, --keys=Integer,String,
+ * --patterns=uniform,zipfian,sequential, --ops=get,set,..., --impls=SkipList,TreeMap,...,
+ * --warmup=ITERATIONS, --iterations=ITERATIONS, --time=MILLISECONDS_PER_ITERATION, --json=FILE.
+ */
+public class SkipListBenchmark {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of probe keys we cycle through.
+   */
+  static final int PROBES = 1 << 16;
+
+  /**
+   * The skew of the Zipfian distribution (the usual YCSB value).
+   */
+  static final double ZIPF_THETA = 0.99;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Options from the command line.
+   */
+  String suite = "maps";
+  int[] sizes = {1000, 100000, 1000000};
+  List<String> keyTypes = Arrays.asList("Integer", "String");
+  List<String> patterns = Arrays.asList("uniform", "zipfian", "sequential");
+  List<String> ops = Arrays.asList("get", "set", "remove", "containsKey", "getOrDefault",
+      "iterate", "mixed");
+  List<String> impls = Arrays.asList("SkipList", "TreeMap", "ConcurrentSkipListMap");
+  int warmup = 3;
+  int iterations = 5;
+  long millis = 200;
+  int[] batches = {10, 100, 1000, 10000, 100000};
+  int threads = 16;
+  String json = null;
+
+  /**
+   * The results so far, as JSON objects.
+   */
+  ArrayList<String> results = new ArrayList<String>();
+
+  /**
+   * Somewhere to put results so the JIT cannot discard the work that made them.
+   */
+  long sink;
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  public static void main(String[] args) throws IOException {
+    SkipListBenchmark bench = new SkipListBenchmark();
+    bench.parse(args);
+    bench.run();
+    bench.report();
+  } // main(String[])
+
+  /**
+   * Read the command-line options.
+   */
+  void parse(String[] args) {
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (!arg.startsWith("--") || eq < 0) {
+        throw new IllegalArgumentException("Expected --option=value, got " + arg);
+      } // if
+      String name = arg.substring(2, eq);
+      String value = arg.substring(eq + 1);
+      switch (name) {
+        case "suite":
+          this.suite = value;
+          break;
+        case "sizes":
+          this.sizes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+          break;
+        case "keys":
+          this.keyTypes = Arrays.asList(value.split(","));
+          break;
+        case "patterns":
+          this.patterns = Arrays.asList(value.split(","));
+          break;
+        case "ops":
+          this.ops = Arrays.asList(value.split(","));
+          break;
+        case "impls":
+          this.impls = Arrays.asList(value.split(","));
+          break;
+        case "warmup":
+          this.warmup = Integer.parseInt(value);
+          break;
+        case "iterations":
+          this.iterations = Integer.parseInt(value);
+          break;
+        case "time":
+          this.millis = Long.parseLong(value);
+          break;
+        case "batches":
+          this.batches = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+          break;
+        case "threads":
+          this.threads = Integer.parseInt(value);
+          break;
+        case "json":
+          this.json = value;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option --" + name);
+      } // switch
+    } // for
+  } // parse(String[])
+
+  /**
+   * Run the selected suite.
+   */
+  void run() {
+    switch (this.suite) {
+      case "maps":
+        runMaps();
+        break;
+      case "batch":
+        runBatches();
+        break;
+      case "threads":
+        runThreads();
+        break;
+      case "durable":
+        runDurable();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown suite " + this.suite);
+    } // switch
+  } // run()
+
+  /**
+   * Print the JSON results, if asked to.
+   */
+  void report() throws IOException {
+    if (this.json != null) {
+      Files.write(Paths.get(this.json),
+          ("[\n" + String.join(",\n", this.results) + "\n]\n").getBytes(StandardCharsets.UTF_8));
+    } // if
+    System.err.println("(sink " + this.sink + ")");
+  } // report()
+
+  // +-----------+---------------------------------------------------
+  // | Map suite |
+  // +-----------+
+
+  /**
+   * Compare the maps on every combination of size, key type, pattern and operation.
+   */
+  void runMaps() {
+    for (int size : this.sizes) {
+      for (String keyType : this.keyTypes) {
+        // Keys are the even numbers below 2 * size, so the odd ones are misses.
+        Object[] keys = new Object[2 * size];
+        for (int i = 0; i < keys.length; i++) {
+          keys[i] = makeKey(keyType, i);
+        } // for
+        Comparator<Object> order = naturalOrder();
+        for (String pattern : this.patterns) {
+          int[] probes = probes(pattern, size, new Random(size));
+          for (String impl : this.impls) {
+            SimpleMap<Object, Object> map = newMap(impl, order);
+            for (int i = 0; i < size; i++) {
+              map.set(keys[2 * i], keys[2 * i]);
+            } // for
+            for (String op : this.ops) {
+              measure("maps." + op, impl, keyType, size, pattern, opRunner(op, map, keys, probes));
+            } // for
+          } // for each implementation
+        } // for each pattern
+      } // for each key type
+    } // for each size
+  } // runMaps()
+
+  /**
+   * Make something that runs one operation count times and returns the number of operations it
+   * did.
+   */
+  IntFunction<Long> opRunner(String op, SimpleMap<Object, Object> map, Object[] keys,
+      int[] probes) {
+    int mask = probes.length - 1;
+    switch (op) {
+      case "get":
+        return (count) -> {
+          long local = 0;
+          for (int i = 0; i < count; i++) {
+            local += map.get(keys[2 * probes[i & mask]]).hashCode();
+          } // for
+          this.sink += local;
+          return (long) count;
+        };
+      case "set":
+        return (count) -> {
+          for (int i = 0; i < count; i++) {
+            Object key = keys[2 * probes[i & mask]];
+            this.sink += map.set(key, key).hashCode();
+          } // for
+          return (long) count;
+        };
+      case "remove":
+        // Remove and put back, so the size stays the same.
+        return (count) -> {
+          for (int i = 0; i < count; i++) {
+            Object key = keys[2 * probes[i & mask]];
+            this.sink += map.remove(key).hashCode();
+            map.set(key, key);
+          } // for
+          return (long) count;
+        };
+      case "containsKey":
+        // Half hits, half misses.
+        return (count) -> {
+          for (int i = 0; i < count; i++) {
+            if (map.containsKey(keys[2 * probes[i & mask] + (i & 1)])) {
+              this.sink++;
+            } // if
+          } // for
+          return (long) count;
+        };
+      case "getOrDefault":
+        // Misses only: the case that used to cost an exception.
+        return (count) -> {
+          for (int i = 0; i < count; i++) {
+            if (map.getOrDefault(keys[2 * probes[i & mask] + 1], null) == null) {
+              this.sink++;
+            } // if
+          } // for
+          return (long) count;
+        };
+      case "iterate":
+        // Report time per element rather than per pass.
+        return (count) -> {
+          long elements = 0;
+          while (elements < count) {
+            Iterator<Object> it = map.keys();
+            while (it.hasNext()) {
+              this.sink += it.next().hashCode();
+              elements++;
+            } // while
+          } // while
+          return elements;
+        };
+      case "mixed":
+        // 90% get, 9% set, 1% remove-and-reinsert.
+        return (count) -> {
+          for (int i = 0; i < count; i++) {
+            Object key = keys[2 * probes[i & mask]];
+            int dice = i % 100;
+            if (dice < 90) {
+              this.sink += map.get(key).hashCode();
+            } else if (dice < 99) {
+              map.set(key, key);
+            } else {
+              map.remove(key);
+              map.set(key, key);
+            } // if/else
+          } // for
+          return (long) count;
+        };
+      default:
+        throw new IllegalArgumentException("Unknown operation " + op);
+    } // switch
+  } // opRunner(String, SimpleMap, Object[], int[])
+
+  // +-------------+-------------------------------------------------
+  // | Batch suite |
+  // +-------------+
+
+  /**
+   * Compare SkipList.setAll and removeAll with setting and removing the same sorted keys one at
+   * a time, for each batch size. Times are per key.
+   */
+  void runBatches() {
+    for (int size : this.sizes) {
+      Integer[] keys = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        keys[i] = 2 * i;
+      } // for
+      SkipList<Integer, Integer> list = new SkipList<Integer, Integer>(Integer::compare);
+      list.loadSorted(keys, keys, false);
+      Random random = new Random(size);
+      for (int batchSize : this.batches) {
+        if (batchSize > size) {
+          continue;
+        } // if
+        // A sorted batch of distinct keys that are not in the list.
+        TreeMap<Integer, Integer> batch = new TreeMap<Integer, Integer>();
+        while (batch.size() < batchSize) {
+          int key = 2 * random.nextInt(size) + 1;
+          batch.put(key, key);
+        } // while
+        String pattern = "batch=" + batchSize;
+        measure("batch.setAll+removeAll", "SkipList", "Integer", size, pattern, (count) -> {
+          long done = 0;
+          while (done < count) {
+            list.setAll(batch.entrySet());
+            this.sink += list.removeAll(batch.keySet());
+            done += 2 * batchSize;
+          } // while
+          return done;
+        });
+        measure("batch.set+remove", "SkipList", "Integer", size, pattern, (count) -> {
+          long done = 0;
+          while (done < count) {
+            for (Map.Entry<Integer, Integer> entry : batch.entrySet()) {
+              list.set(entry.getKey(), entry.getValue());
+            } // for
+            for (Integer key : batch.keySet()) {
+              this.sink += list.remove(key);
+            } // for
+            done += 2 * batchSize;
+          } // while
+          return done;
+        });
+      } // for each batch size
+    } // for each size
+  } // runBatches()
+
+  // +---------------+-----------------------------------------------
+  // | Threads suite |
+  // +---------------+
+
+  /**
+   * Insert random keys from many threads at once. "SkipList" gives each thread a list of its
+   * own, which shows whether picking node heights contends between lists; the others share one
+   * map between all the threads. Times are wall-clock time per insert, over all threads.
+   */
+  void runThreads() {
+    List<String> kinds = Arrays.asList("SkipList", "ConcurrentSkipList", "StampedSkipList",
+        "ConcurrentSkipListMap");
+    ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+    try {
+      for (int size : this.sizes) {
+        int perThread = Math.max(1, size / this.threads);
+        for (String kind : kinds) {
+          measure("threads.insert", kind, "Integer", size, "threads=" + this.threads,
+              (count) -> insertConcurrently(pool, kind, perThread));
+        } // for
+      } // for
+    } finally {
+      pool.shutdown();
+    } // try/finally
+  } // runThreads()
+
+  /**
+   * Fill new maps of the given kind from every thread and return the number of inserts.
+   */
+  long insertConcurrently(ExecutorService pool, String kind, int perThread) {
+    Comparator<Integer> order = Integer::compare;
+    SimpleMap<Integer, Integer> shared;
+    switch (kind) {
+      case "ConcurrentSkipList":
+        shared = new ConcurrentSkipList<Integer, Integer>(order);
+        break;
+      case "StampedSkipList":
+        shared = new StampedSkipList<Integer, Integer>(order);
+        break;
+      case "ConcurrentSkipListMap":
+        shared = new MapAdapter<Integer, Integer>(new ConcurrentSkipListMap<Integer, Integer>(order));
+        break;
+      default:
+        shared = null;
+    } // switch
+    ArrayList<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+    for (int t = 0; t < this.threads; t++) {
+      tasks.add(() -> {
+        SimpleMap<Integer, Integer> map =
+            (shared != null) ? shared : new SkipList<Integer, Integer>(order);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < perThread; i++) {
+          int key = random.nextInt();
+          map.set(key, key);
+        } // for
+        return map.size();
+      });
+    } // for
+    try {
+      for (Future<Integer> result : pool.invokeAll(tasks)) {
+        this.sink += result.get();
+      } // for
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    } // try/catch
+    return (long) perThread * this.threads;
+  } // insertConcurrently(ExecutorService, String, int)
+
+  // +---------------+-----------------------------------------------
+  // | Durable suite |
+  // +---------------+
+
+  /**
+   * Measure set on a DurableSkipList under each sync policy, from one thread and from --threads
+   * threads (which lets ALWAYS share fsyncs). The logs go in a temporary directory; snapshots
+   * are left to their default size.
+   */
+  void runDurable() {
+    ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+    try {
+      for (DurableSkipList.SyncPolicy policy : DurableSkipList.SyncPolicy.values()) {
+        for (int writers : new int[] {1, this.threads}) {
+          Path directory = Files.createTempDirectory("skiplist-bench");
+          DurableSkipList<Integer, Integer> map = DurableSkipList.open(directory,
+              Integer::compare, Codec.INTS, Codec.INTS, policy);
+          try {
+            measure("durable.set", policy.name(), "Integer", 0, "threads=" + writers,
+                (count) -> setConcurrently(pool, map, writers, count));
+          } finally {
+            map.close();
+            try (Stream<Path> files = Files.list(directory)) {
+              for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+              } // for
+            } // try
+            Files.delete(directory);
+          } // try/finally
+        } // for
+      } // for
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      pool.shutdown();
+    } // try/finally
+  } // runDurable()
+
+  /**
+   * Set about count random keys, split between writers threads, and return how many we set.
+   */
+  long setConcurrently(ExecutorService pool, SimpleMap<Integer, Integer> map, int writers,
+      int count) {
+    int perThread = Math.max(1, count / writers);
+    ArrayList<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+    for (int t = 0; t < writers; t++) {
+      tasks.add(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < perThread; i++) {
+          int key = random.nextInt(1 << 20);
+          map.set(key, key);
+        } // for
+        return perThread;
+      });
+    } // for
+    try {
+      for (Future<Integer> result : pool.invokeAll(tasks)) {
+        this.sink += result.get();
+      } // for
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    } // try/catch
+    return (long) perThread * writers;
+  } // setConcurrently(ExecutorService, SimpleMap<Integer, Integer>, int, int)
+
+  // +-------------+-------------------------------------------------
+  // | Measurement |
+  // +-------------+
+
+  /**
+   * Run body repeatedly for the warmup and measured iterations and record the average time per
+   * operation.
+   */
+  void measure(String benchmark, String impl, String keyType, int size, String pattern,
+      IntFunction<Long> body) {
+    // Find a batch size that takes about a millisecond.
+    int batch = 1;
+    while (true) {
+      long start = System.nanoTime();
+      body.apply(batch);
+      if (System.nanoTime() - start > 1000000 || batch >= (1 << 24)) {
+        break;
+      } // if
+      batch *= 2;
+    } // while
+
+    double[] scores = new double[this.iterations];
+    for (int iteration = -this.warmup; iteration < this.iterations; iteration++) {
+      long ops = 0;
+      long start = System.nanoTime();
+      long deadline = start + this.millis * 1000000;
+      long now;
+      do {
+        ops += body.apply(batch);
+        now = System.nanoTime();
+      } while (now < deadline);
+      if (iteration >= 0) {
+        scores[iteration] = (now - start) / (double) ops;
+      } // if
+    } // for
+
+    double mean = Arrays.stream(scores).average().orElse(Double.NaN);
+    double variance = 0;
+    for (double score : scores) {
+      variance += (score - mean) * (score - mean);
+    } // for
+    double error = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+    record(benchmark, impl, keyType, size, pattern, mean, error, "ns/op");
+  } // measure(...)
+
+  /**
+   * Print a result and remember it for the JSON report.
+   */
+  void record(String benchmark, String impl, String keyType, int size, String pattern,
+      double score, double error, String unit) {
+    System.out.printf("%-24s %-22s %-8s %10d %-10s %12.2f +- %8.2f %s%n", benchmark, impl,
+        keyType, size, pattern, score, error, unit);
+    this.results.add(String.format(
+        "  {\"benchmark\": \"%s\", \"impl\": \"%s\", \"keyType\": \"%s\", \"size\": %d, "
+            + "\"pattern\": \"%s\", \"mode\": \"avgt\", \"score\": %.3f, \"scoreError\": %.3f, "
+            + "\"unit\": \"%s\", \"samples\": %d}",
+        benchmark, impl, keyType, size, pattern, score, error, unit, this.iterations));
+  } // record(...)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make the i'th key of the given type. Keys sort in the same order as i.
+   */
+  static Object makeKey(String keyType, int i) {
+    switch (keyType) {
+      case "Integer":
+        return i;
+      case "String":
+        return String.format("key%010d", i);
+      default:
+        throw new IllegalArgumentException("Unknown key type " + keyType);
+    } // switch
+  } // makeKey(String, int)
+
+  /**
+   * The natural ordering of the keys, which are all Comparable.
+   */
+  @SuppressWarnings("unchecked")
+  static Comparator<Object> naturalOrder() {
+    return (k1, k2) -> ((Comparable<Object>) k1).compareTo(k2);
+  } // naturalOrder()
+
+  /**
+   * A prefix of a key made by makeKey, for "SkipList+prefix".
+   */
+  static long keyPrefix(Object key) {
+    return (key instanceof String) ? SkipList.stringPrefix((String) key)
+        : ((Integer) key) ^ Long.MIN_VALUE;
+  } // keyPrefix(Object)
+
+  /**
+   * View a map of Comparable keys as a map of Objects; makeKey only makes Comparable keys.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static SimpleMap<Object, Object> objects(SimpleMap<? extends Comparable<Object>, Object> map) {
+    return (SimpleMap) map;
+  } // objects(SimpleMap)
+
+  /**
+   * Make an empty map of the given kind.
+   */
+  static SimpleMap<Object, Object> newMap(String impl, Comparator<Object> order) {
+    switch (impl) {
+      case "SkipList":
+        return new SkipList<Object, Object>(order);
+      case "SkipList+metrics":
+        SkipList<Object, Object> measured = new SkipList<Object, Object>(order);
+        measured.enableMetrics();
+        return measured;
+      case "SkipList+natural":
+        return objects(SkipList.<Comparable<Object>, Object>naturalOrder());
+      case "SkipList+prefix":
+        return objects(
+            SkipList.<Comparable<Object>, Object>naturalOrder(SkipListBenchmark::keyPrefix));
+      case "ConcurrentSkipList":
+        return new ConcurrentSkipList<Object, Object>(order);
+      case "TreeMap":
+        return new MapAdapter<Object, Object>(new TreeMap<Object, Object>(order));
+      case "ConcurrentSkipListMap":
+        return new MapAdapter<Object, Object>(new ConcurrentSkipListMap<Object, Object>(order));
+      default:
+        throw new IllegalArgumentException("Unknown implementation " + impl);
+    } // switch
+  } // newMap(String, Comparator<Object>)
+
+  /**
+   * Make an array of indices in [0, size) that follow the given access pattern.
+   */
+  static int[] probes(String pattern, int size, Random random) {
+    int[] result = new int[PROBES];
+    switch (pattern) {
+      case "uniform":
+        for (int i = 0; i < result.length; i++) {
+          result[i] = random.nextInt(size);
+        } // for
+        break;
+      case "sequential":
+        for (int i = 0; i < result.length; i++) {
+          result[i] = i % size;
+        } // for
+        break;
+      case "zipfian":
+        Zipf zipf = new Zipf(size, ZIPF_THETA);
+        for (int i = 0; i < result.length; i++) {
+          // Scatter the popular ranks over the key space.
+          result[i] = Math.floorMod(zipf.next(random) * 0x9E3779B97F4A7C15L, size);
+        } // for
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown pattern " + pattern);
+    } // switch
+    return result;
+  } // probes(String, int, Random)
+
+  /**
+   * Zipfian-distributed ranks in [0, n), following Gray et al., "Quickly Generating
+   * Billion-Record Synthetic Databases" (as used by YCSB).
+   */
+  static class Zipf {
+    final int n;
+    final double theta;
+    final double alpha;
+    final double zetan;
+    final double eta;
+
+    Zipf(int n, double theta) {
+      this.n = n;
+      this.theta = theta;
+      this.alpha = 1.0 / (1.0 - theta);
+      double zeta = 0;
+      for (int i = 1; i <= n; i++) {
+        zeta += 1.0 / Math.pow(i, theta);
+      } // for
+      this.zetan = zeta;
+      double zeta2 = 1.0 + 1.0 / Math.pow(2, theta);
+      this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+    } // Zipf(int, double)
+
+    long next(Random random) {
+      double u = random.nextDouble();
+      double uz = u * this.zetan;
+      if (uz < 1.0) {
+        return 0;
+      } // if
+      if (uz < 1.0 + Math.pow(0.5, this.theta)) {
+        return 1;
+      } // if
+      return Math.min(this.n - 1, (long) (this.n * Math.pow(this.eta * u - this.eta + 1, alpha)));
+    } // next(Random)
+  } // class Zipf
+
+  /**
+   * A java.util.Map dressed up as a SimpleMap so it can run the same benchmarks. Unlike
+   * SimpleMap, get returns null for a missing key rather than throwing.
+   */
+  static class MapAdapter<K, V> implements SimpleMap<K, V> {
+    final Map<K, V> map;
+
+    MapAdapter(Map<K, V> map) {
+      this.map = map;
+    } // MapAdapter(Map<K, V>)
+
+    @Override
+    public V set(K key, V value) {
+      return this.map.put(key, value);
+    } // set(K, V)
+
+    @Override
+    public V get(K key) {
+      return this.map.get(key);
+    } // get(K)
+
+    @Override
+    public V getOrDefault(K key, V defaultValue) {
+      return this.map.getOrDefault(key, defaultValue);
+    } // getOrDefault(K, V)
+
+    @Override
+    public int size() {
+      return this.map.size();
+    } // size()
+
+    @Override
+    public boolean containsKey(K key) {
+      return this.map.containsKey(key);
+    } // containsKey(K)
+
+    @Override
+    public V remove(K key) {
+      return this.map.remove(key);
+    } // remove(K)
+
+    @Override
+    public Iterator<K> keys() {
+      return this.map.keySet().iterator();
+    } // keys()
+
+    @Override
+    public Iterator<V> values() {
+      return this.map.values().iterator();
+    } // values()
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+      this.map.forEach(action);
+    } // forEach(BiConsumer)
+  } // class MapAdapter
+
+} // class SkipListBenchmark
@@ -0,0 +1,221 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The binary format of SkipList.writeTo and SkipList.readFrom.
+ *
+ * A header: the magic number, a byte of flags, and the number of entries as a varint. Then each
+ * entry, in order: its height as a byte, if the HEIGHTS flag is set; the length of the key as a
+ * varint and the key's bytes; the length of the value plus one as a varint (0 for null) and the
+ * value's bytes. Last comes the CRC-32 of everything before it.
+ *
+ * Varints are unsigned LEB128: seven bits to a byte, low bits first, with the high bit set on
+ * every byte but the last, so lengths under 128 take one byte.
+ */
+class SkipListFormat {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  static final int MAGIC = 0x534b4c31; // "SKL1"
+
+  /**
+   * The flag that says each entry starts with its height.
+   */
+  static final int HEIGHTS = 1;
+
+  static final int BUFFER_SIZE = 1 << 16;
+
+  // +---------+-----------------------------------------------------
+  // | Writing |
+  // +---------+
+
+  /**
+   * Writes the format to a channel through one buffer.
+   */
+  static class Writer {
+    final WritableByteChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    final CRC32 crc = new CRC32();
+
+    Writer(WritableByteChannel channel) {
+      this.channel = channel;
+    } // Writer(WritableByteChannel)
+
+    void writeInt(int i) throws IOException {
+      room(4);
+      this.buffer.putInt(i);
+    } // writeInt(int)
+
+    void writeByte(int b) throws IOException {
+      room(1);
+      this.buffer.put((byte) b);
+    } // writeByte(int)
+
+    void writeVarint(long value) throws IOException {
+      room(10);
+      while ((value & ~0x7FL) != 0) {
+        this.buffer.put((byte) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      } // while
+      this.buffer.put((byte) value);
+    } // writeVarint(long)
+
+    /**
+     * Write bytes, straight to the channel if they would not fit in the buffer.
+     */
+    void writeBytes(byte[] bytes) throws IOException {
+      if (bytes.length > this.buffer.remaining()) {
+        flush();
+        if (bytes.length > this.buffer.capacity()) {
+          writeFully(ByteBuffer.wrap(bytes));
+          return;
+        } // if
+      } // if
+      this.buffer.put(bytes);
+    } // writeBytes(byte[])
+
+    /**
+     * Write the checksum and everything still in the buffer.
+     */
+    void finish() throws IOException {
+      flush();
+      this.buffer.putInt((int) this.crc.getValue());
+      this.buffer.flip();
+      while (this.buffer.hasRemaining()) {
+        this.channel.write(this.buffer);
+      } // while
+      this.buffer.clear();
+    } // finish()
+
+    void room(int bytes) throws IOException {
+      if (this.buffer.remaining() < bytes) {
+        flush();
+      } // if
+    } // room(int)
+
+    void flush() throws IOException {
+      this.buffer.flip();
+      writeFully(this.buffer);
+      this.buffer.clear();
+    } // flush()
+
+    void writeFully(ByteBuffer bytes) throws IOException {
+      this.crc.update(bytes.duplicate());
+      while (bytes.hasRemaining()) {
+        this.channel.write(bytes);
+      } // while
+    } // writeFully(ByteBuffer)
+  } // class Writer
+
+  // +---------+-----------------------------------------------------
+  // | Reading |
+  // +---------+
+
+  /**
+   * Reads the format from a channel through one buffer, which grows only to hold an entry bigger
+   * than it. It may read past the end of the list's data.
+   */
+  static class Reader {
+    final ReadableByteChannel channel;
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    final CRC32 crc = new CRC32();
+
+    /**
+     * Where the bytes of the buffer not yet added to the checksum start.
+     */
+    int unchecked = 0;
+
+    Reader(ReadableByteChannel channel) {
+      this.channel = channel;
+    } // Reader(ReadableByteChannel)
+
+    int readInt() throws IOException {
+      need(4);
+      return this.buffer.getInt();
+    } // readInt()
+
+    int readByte() throws IOException {
+      need(1);
+      return this.buffer.get() & 0xFF;
+    } // readByte()
+
+    long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        } // if
+      } // for
+      throw new IOException("varint too long");
+    } // readVarint()
+
+    /**
+     * Read a varint that must fit in an int.
+     */
+    int readLength() throws IOException {
+      long length = readVarint();
+      if (length > Integer.MAX_VALUE - 8) {
+        throw new IOException("length too large: " + length);
+      } // if
+      return (int) length;
+    } // readLength()
+
+    byte[] readBytes(int length) throws IOException {
+      need(length);
+      byte[] bytes = new byte[length];
+      this.buffer.get(bytes);
+      return bytes;
+    } // readBytes(int)
+
+    /**
+     * The checksum of everything read so far.
+     */
+    int checksum() {
+      check();
+      return (int) this.crc.getValue();
+    } // checksum()
+
+    /**
+     * Make sure the buffer holds at least bytes bytes, reading more if need be.
+     */
+    void need(int bytes) throws IOException {
+      if (this.buffer.remaining() >= bytes) {
+        return;
+      } // if
+      check();
+      if (bytes > this.buffer.capacity()) {
+        ByteBuffer bigger = ByteBuffer.allocate(bytes);
+        bigger.put(this.buffer);
+        this.buffer = bigger;
+      } else {
+        this.buffer.compact();
+      } // if/else
+      while (this.buffer.position() < bytes) {
+        if (this.channel.read(this.buffer) < 0) {
+          throw new EOFException("skip list data cut short");
+        } // if
+      } // while
+      this.buffer.flip();
+      this.unchecked = 0;
+    } // need(int)
+
+    /**
+     * Add the bytes read since the last call to the checksum.
+     */
+    void check() {
+      ByteBuffer read = this.buffer.duplicate();
+      read.limit(read.position()).position(this.unchecked);
+      this.crc.update(read);
+      this.unchecked = this.buffer.position();
+    } // check()
+  } // class Reader
+
+} // class SkipListFormat
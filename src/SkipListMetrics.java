@@ -0,0 +1,365 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Operation metrics for a SkipList: histograms of time and steps for lookups, sets and removes,
+ * comparisons per lookup, and how many nodes reach each level.
+ *
+ * Get one from SkipList.enableMetrics(). Recording uses LongAdders, so readers that share a list
+ * (say, through StampedSkipList) do not lose counts. Read the numbers with snapshot(), or
+ * register the metrics as an MXBean. When metrics are disabled, the list does nothing but one
+ * null check per operation.
+ */
+public class SkipListMetrics implements SkipListMetricsMXBean {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The list we measure.
+   */
+  final SkipList<?, ?> list;
+
+  /**
+   * Time, in nanoseconds, of each kind of operation.
+   */
+  final Histogram lookupNanos = new Histogram();
+  final Histogram setNanos = new Histogram();
+  final Histogram removeNanos = new Histogram();
+
+  /**
+   * Steps taken by each kind of operation, counted as getCounter, setCounter and removeCounter
+   * used to be.
+   */
+  final Histogram lookupSteps = new Histogram();
+  final Histogram setSteps = new Histogram();
+  final Histogram removeSteps = new Histogram();
+
+  /**
+   * Key comparisons per lookup.
+   */
+  final Histogram comparisons = new Histogram();
+
+  /**
+   * How many nodes of each height the list holds: towers[h - 1] counts nodes of height h. The
+   * list keeps these up to date as it links and unlinks nodes, so reading occupancy never walks
+   * the list.
+   */
+  final LongAdder[] towers = new LongAdder[SkipList.MAX_HEIGHT];
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  SkipListMetrics(SkipList<?, ?> list) {
+    this.list = list;
+    for (int h = 0; h < this.towers.length; h++) {
+      this.towers[h] = new LongAdder();
+    } // for
+  } // SkipListMetrics(SkipList<?, ?>)
+
+  // +-----------+---------------------------------------------------
+  // | Recording |
+  // +-----------+
+
+  void recordLookup(long nanos, int steps, int comparisons) {
+    this.lookupNanos.record(nanos);
+    this.lookupSteps.record(steps);
+    this.comparisons.record(comparisons);
+  } // recordLookup(long, int, int)
+
+  void recordSet(long nanos, int steps) {
+    this.setNanos.record(nanos);
+    this.setSteps.record(steps);
+  } // recordSet(long, int)
+
+  void recordRemove(long nanos, int steps) {
+    this.removeNanos.record(nanos);
+    this.removeSteps.record(steps);
+  } // recordRemove(long, int)
+
+  void linked(int height) {
+    this.towers[height - 1].increment();
+  } // linked(int)
+
+  void unlinked(int height) {
+    this.towers[height - 1].decrement();
+  } // unlinked(int)
+
+  // +---------+-----------------------------------------------------
+  // | Reading |
+  // +---------+
+
+  /**
+   * Copy the current numbers. Each figure is read separately, so a snapshot taken while the list
+   * changes may mix counts from just before and just after a write.
+   */
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  } // snapshot()
+
+  @Override
+  public void reset() {
+    for (Histogram histogram : new Histogram[] {this.lookupNanos, this.setNanos,
+        this.removeNanos, this.lookupSteps, this.setSteps, this.removeSteps, this.comparisons}) {
+      histogram.reset();
+    } // for
+  } // reset()
+
+  /**
+   * Register these metrics with the platform MBean server under the given name, such as
+   * "skiplist:type=SkipList,name=orders".
+   */
+  public ObjectName register(String name) throws JMException {
+    ObjectName objectName = new ObjectName(name);
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  } // register(String)
+
+  /**
+   * Undo register.
+   */
+  public void unregister(ObjectName name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+  } // unregister(ObjectName)
+
+  // +----------------+----------------------------------------------
+  // | MXBean methods |
+  // +----------------+
+
+  @Override
+  public int getSize() {
+    return this.list.size;
+  } // getSize()
+
+  @Override
+  public int getHeight() {
+    return this.list.height;
+  } // getHeight()
+
+  @Override
+  public long getLookups() {
+    return this.lookupNanos.count();
+  } // getLookups()
+
+  @Override
+  public long getSets() {
+    return this.setNanos.count();
+  } // getSets()
+
+  @Override
+  public long getRemoves() {
+    return this.removeNanos.count();
+  } // getRemoves()
+
+  @Override
+  public double getMeanLookupNanos() {
+    return this.lookupNanos.distribution().mean();
+  } // getMeanLookupNanos()
+
+  @Override
+  public long getP99LookupNanos() {
+    return this.lookupNanos.distribution().percentile(0.99);
+  } // getP99LookupNanos()
+
+  @Override
+  public double getMeanSetNanos() {
+    return this.setNanos.distribution().mean();
+  } // getMeanSetNanos()
+
+  @Override
+  public long getP99SetNanos() {
+    return this.setNanos.distribution().percentile(0.99);
+  } // getP99SetNanos()
+
+  @Override
+  public double getMeanRemoveNanos() {
+    return this.removeNanos.distribution().mean();
+  } // getMeanRemoveNanos()
+
+  @Override
+  public long getP99RemoveNanos() {
+    return this.removeNanos.distribution().percentile(0.99);
+  } // getP99RemoveNanos()
+
+  @Override
+  public double getMeanLookupSteps() {
+    return this.lookupSteps.distribution().mean();
+  } // getMeanLookupSteps()
+
+  @Override
+  public double getMeanSetSteps() {
+    return this.setSteps.distribution().mean();
+  } // getMeanSetSteps()
+
+  @Override
+  public double getMeanRemoveSteps() {
+    return this.removeSteps.distribution().mean();
+  } // getMeanRemoveSteps()
+
+  @Override
+  public double getMeanComparisons() {
+    return this.comparisons.distribution().mean();
+  } // getMeanComparisons()
+
+  @Override
+  public long[] getLevelOccupancy() {
+    long[] counts = new long[this.towers.length];
+    int top = 0;
+    for (int h = 0; h < counts.length; h++) {
+      counts[h] = this.towers[h].sum();
+      if (counts[h] > 0) {
+        top = h + 1;
+      } // if
+    } // for
+    // counts[i] holds nodes of height i + 1; add up the taller ones
+    for (int i = top - 2; i >= 0; i--) {
+      counts[i] += counts[i + 1];
+    } // for
+    return Arrays.copyOf(counts, top);
+  } // getLevelOccupancy()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A histogram with one bucket per power of two. Bucket 0 holds 0; bucket b holds values in
+   * [2^(b-1), 2^b).
+   */
+  static class Histogram {
+    final LongAdder[] buckets = new LongAdder[65];
+    final LongAdder sum = new LongAdder();
+
+    Histogram() {
+      for (int b = 0; b < this.buckets.length; b++) {
+        this.buckets[b] = new LongAdder();
+      } // for
+    } // Histogram()
+
+    void record(long value) {
+      this.buckets[64 - Long.numberOfLeadingZeros(Math.max(0, value))].increment();
+      this.sum.add(value);
+    } // record(long)
+
+    long count() {
+      long count = 0;
+      for (LongAdder bucket : this.buckets) {
+        count += bucket.sum();
+      } // for
+      return count;
+    } // count()
+
+    void reset() {
+      for (LongAdder bucket : this.buckets) {
+        bucket.reset();
+      } // for
+      this.sum.reset();
+    } // reset()
+
+    Distribution distribution() {
+      long[] counts = new long[this.buckets.length];
+      for (int b = 0; b < counts.length; b++) {
+        counts[b] = this.buckets[b].sum();
+      } // for
+      return new Distribution(counts, this.sum.sum());
+    } // distribution()
+  } // class Histogram
+
+  /**
+   * A copy of a histogram.
+   */
+  public static class Distribution {
+    /**
+     * counts[b] is the number of values in [2^(b-1), 2^b), or of zeros for b = 0.
+     */
+    final long[] counts;
+    final long count;
+    final long sum;
+
+    Distribution(long[] counts, long sum) {
+      long count = 0;
+      for (long c : counts) {
+        count += c;
+      } // for
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+    } // Distribution(long[], long)
+
+    /**
+     * The number of values recorded.
+     */
+    public long count() {
+      return this.count;
+    } // count()
+
+    /**
+     * The mean of the values recorded, or 0 if there are none.
+     */
+    public double mean() {
+      return (this.count == 0) ? 0.0 : this.sum / (double) this.count;
+    } // mean()
+
+    /**
+     * An upper bound for quantile q (between 0 and 1) of the values: the top of the bucket it
+     * falls in. Returns 0 if there are no values.
+     */
+    public long percentile(double q) {
+      long rank = (long) Math.ceil(q * this.count);
+      long seen = 0;
+      for (int b = 0; b < this.counts.length; b++) {
+        seen += this.counts[b];
+        if (seen >= rank && seen > 0) {
+          return (b == 64) ? Long.MAX_VALUE : (1L << b) - 1;
+        } // if
+      } // for
+      return 0;
+    } // percentile(double)
+
+    /**
+     * The count in each bucket.
+     */
+    public long[] buckets() {
+      return this.counts.clone();
+    } // buckets()
+  } // class Distribution
+
+  /**
+   * The numbers from one call to snapshot().
+   */
+  public static class Snapshot {
+    public final int size;
+    public final int height;
+    public final Distribution lookupNanos;
+    public final Distribution setNanos;
+    public final Distribution removeNanos;
+    public final Distribution lookupSteps;
+    public final Distribution setSteps;
+    public final Distribution removeSteps;
+    public final Distribution comparisons;
+
+    /**
+     * The number of nodes that reach each level; element 0 is the number of nodes.
+     */
+    public final long[] levelOccupancy;
+
+    Snapshot(SkipListMetrics metrics) {
+      this.size = metrics.getSize();
+      this.height = metrics.getHeight();
+      this.lookupNanos = metrics.lookupNanos.distribution();
+      this.setNanos = metrics.setNanos.distribution();
+      this.removeNanos = metrics.removeNanos.distribution();
+      this.lookupSteps = metrics.lookupSteps.distribution();
+      this.setSteps = metrics.setSteps.distribution();
+      this.removeSteps = metrics.removeSteps.distribution();
+      this.comparisons = metrics.comparisons.distribution();
+      this.levelOccupancy = metrics.getLevelOccupancy();
+    } // Snapshot(SkipListMetrics)
+  } // class Snapshot
+
+} // class SkipListMetrics
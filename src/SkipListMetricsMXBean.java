@@ -0,0 +1,66 @@
+/**
+ * What SkipListMetrics shows through JMX. Times are in nanoseconds; percentiles are the upper
+ * bound of a power-of-two bucket, so they are accurate to within a factor of two.
+ */
+public interface SkipListMetricsMXBean {
+
+  /**
+   * The number of values in the list.
+   */
+  public int getSize();
+
+  /**
+   * The highest level in use.
+   */
+  public int getHeight();
+
+  /**
+   * The number of lookups (get, getOrDefault, find, containsKey), sets and removes recorded.
+   */
+  public long getLookups();
+
+  public long getSets();
+
+  public long getRemoves();
+
+  /**
+   * Mean and 99th percentile time of each kind of operation.
+   */
+  public double getMeanLookupNanos();
+
+  public long getP99LookupNanos();
+
+  public double getMeanSetNanos();
+
+  public long getP99SetNanos();
+
+  public double getMeanRemoveNanos();
+
+  public long getP99RemoveNanos();
+
+  /**
+   * Mean number of steps (links followed or levels dropped) per operation.
+   */
+  public double getMeanLookupSteps();
+
+  public double getMeanSetSteps();
+
+  public double getMeanRemoveSteps();
+
+  /**
+   * Mean number of key comparisons per lookup.
+   */
+  public double getMeanComparisons();
+
+  /**
+   * The number of nodes that reach each level; element 0 is the size of the list. This walks the
+   * whole list.
+   */
+  public long[] getLevelOccupancy();
+
+  /**
+   * Forget everything recorded so far.
+   */
+  public void reset();
+
+} // interface SkipListMetricsMXBean
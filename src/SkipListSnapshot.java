@@ -0,0 +1,365 @@
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A read-only view of a SkipList as it was when the snapshot was opened, for consistent scans
+ * while writers go on changing the list.
+ *
+ * The live list keeps only the newest version of each entry. The snapshot keeps the older ones:
+ * the first time a key changes after the snapshot opens, the list hands the snapshot the key's
+ * value from before the change (or ABSENT, if the key was not there), and the snapshot keeps it
+ * in a small skip list of its own. A lookup checks those old versions first and falls back to the
+ * live list; a scan merges the two. A snapshot therefore costs nothing until the list changes,
+ * then memory in proportion to the keys changed, and each change costs one search in each open
+ * snapshot. Closing the snapshot drops its old versions, so close every snapshot you open.
+ *
+ * Scans read the live list a batch at a time, seeking past the last key of the previous batch,
+ * so they never follow a link that a writer has since changed. A snapshot of a StampedSkipList
+ * reads under that list's lock, one lookup or one batch at a time, so writers are held up only
+ * briefly. Lookups in a snapshot do not count in the list's metrics.
+ */
+public class SkipListSnapshot<K, V> implements SimpleMap<K, V>, AutoCloseable {
+
+  // +-----------+------------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The old version of a key that was not in the list.
+   */
+  static final Object ABSENT = new Object();
+
+  /**
+   * How many keys a scan reads from the live list at a time.
+   */
+  static final int BATCH = 256;
+
+  // +--------+---------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The live list.
+   */
+  final SkipList<K, V> list;
+
+  /**
+   * The lock that guards list and versions, or null if the list is not shared between threads.
+   */
+  final StampedLock lock;
+
+  /**
+   * The value each changed key had when the snapshot opened, or ABSENT.
+   */
+  final SkipList<K, Object> versions;
+
+  /**
+   * The size of the list when the snapshot opened.
+   */
+  final int size;
+
+  /**
+   * Whether close has been called.
+   */
+  volatile boolean closed;
+
+  // +--------------+---------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open a snapshot of list and register it to be told of changes. The caller must hold the
+   * write lock, if there is one.
+   */
+  SkipListSnapshot(SkipList<K, V> list, StampedLock lock) {
+    this.list = list;
+    this.lock = lock;
+    this.versions = new SkipList<K, Object>(list.comparator, list.prefix);
+    this.versions.natural = list.natural;
+    this.size = list.size;
+    list.snapshots.add(this);
+  } // SkipListSnapshot(SkipList<K, V>, StampedLock)
+
+  // +-------------------+----------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Snapshots are read-only.
+   *
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public V set(K key, V value) {
+    throw new UnsupportedOperationException("snapshots are read-only");
+  } // set(K, V)
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(K key) {
+    Object value = read(this::lookup, key);
+    if (value == ABSENT) {
+      throw new IndexOutOfBoundsException("The key was not found.");
+    } // if
+    return (V) value;
+  } // get(K)
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(K key, V defaultValue) {
+    Object value = read(this::lookup, key);
+    return (value == ABSENT) ? defaultValue : (V) value;
+  } // getOrDefault(K, V)
+
+  @Override
+  public int size() {
+    return this.size;
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    return read(this::lookup, key) != ABSENT;
+  } // containsKey(K)
+
+  /**
+   * Snapshots are read-only.
+   *
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public V remove(K key) {
+    throw new UnsupportedOperationException("snapshots are read-only");
+  } // remove(K)
+
+  @Override
+  public Iterator<K> keys() {
+    Iterator<Map.Entry<K, V>> entries = entries();
+    return new Iterator<K>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      @Override
+      public K next() {
+        return entries.next().getKey();
+      } // next()
+    };
+  } // keys()
+
+  @Override
+  public Iterator<V> values() {
+    Iterator<Map.Entry<K, V>> entries = entries();
+    return new Iterator<V>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      @Override
+      public V next() {
+        return entries.next().getValue();
+      } // next()
+    };
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Iterator<Map.Entry<K, V>> entries = entries();
+    while (entries.hasNext()) {
+      Map.Entry<K, V> entry = entries.next();
+      action.accept(entry.getKey(), entry.getValue());
+    } // while
+  } // forEach(BiConsumer)
+
+  // +---------------+--------------------------------------------------
+  // | Other methods |
+  // +---------------+
+
+  /**
+   * Iterate the entries as they were when the snapshot opened, in order. The entries are
+   * immutable.
+   */
+  public Iterator<Map.Entry<K, V>> entries() {
+    checkOpen();
+    return new SnapshotIterator();
+  } // entries()
+
+  /**
+   * Stop following the list and drop the old versions. Closing twice does nothing.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    this.list.snapshots.remove(this);
+  } // close()
+
+  /**
+   * Count the old versions we are keeping.
+   */
+  int versionCount() {
+    return this.versions.size();
+  } // versionCount()
+
+  // +---------+--------------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Keep the value key had before its first change since the snapshot opened. The list calls
+   * this, under its write lock, before every change.
+   */
+  void preserve(K key, Object old) {
+    if (!this.versions.containsKey(key)) {
+      this.versions.insertOrReplace(key, old);
+    } // if
+  } // preserve(K, Object)
+
+  /**
+   * Find the value key had when the snapshot opened, or ABSENT.
+   */
+  Object lookup(K key) {
+    Map.Entry<K, Object> version = this.versions.findNode(key);
+    if (version != null) {
+      return version.getValue();
+    } // if
+    Map.Entry<K, V> entry = this.list.findNode(key);
+    return (entry == null) ? ABSENT : entry.getValue();
+  } // lookup(K)
+
+  /**
+   * Run a read-only operation under the lock, first optimistically, as StampedSkipList does.
+   */
+  <T> T read(Function<K, T> op, K key) {
+    checkOpen();
+    if (this.lock == null) {
+      return op.apply(key);
+    } // if
+    long stamp = this.lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        T result = op.apply(key);
+        if (this.lock.validate(stamp)) {
+          return result;
+        } // if
+      } catch (RuntimeException e) {
+        if (this.lock.validate(stamp)) {
+          throw e;
+        } // if
+      } // try/catch
+    } // if
+    stamp = this.lock.readLock();
+    try {
+      return op.apply(key);
+    } finally {
+      this.lock.unlockRead(stamp);
+    } // try/finally
+  } // read(Function<K, T>, K)
+
+  void checkOpen() {
+    if (this.closed) {
+      throw new IllegalStateException("snapshot closed");
+    } // if
+  } // checkOpen()
+
+  // +---------------+--------------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The entries from one visit to the live list.
+   */
+  class Batch {
+    final ArrayList<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+
+    /**
+     * The last key we looked at, whether or not it was in the snapshot.
+     */
+    K last;
+
+    /**
+     * Whether we reached the end of both lists.
+     */
+    boolean done;
+  } // class Batch
+
+  /**
+   * Merges the old versions with the live list, a batch at a time. A key in versions hides the
+   * live node with the same key, and an ABSENT version hides the key altogether.
+   */
+  class SnapshotIterator implements Iterator<Map.Entry<K, V>> {
+    /**
+     * The entries of the current batch and where we are in them.
+     */
+    ArrayList<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+    int index;
+
+    /**
+     * The last key looked at so far, or null before the first batch.
+     */
+    K last;
+
+    boolean done;
+
+    @Override
+    public boolean hasNext() {
+      while (this.index == this.entries.size() && !this.done) {
+        Batch batch = read((k) -> fill(), this.last);
+        this.entries = batch.entries;
+        this.index = 0;
+        this.last = batch.last;
+        this.done = batch.done;
+      } // while
+      return this.index < this.entries.size();
+    } // hasNext()
+
+    @Override
+    public Map.Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      } // if
+      return this.entries.get(this.index++);
+    } // next()
+
+    /**
+     * Look at up to BATCH keys after last.
+     */
+    @SuppressWarnings("unchecked")
+    Batch fill() {
+      Batch batch = new Batch();
+      Iterator<Map.Entry<K, V>> live = SkipListSnapshot.this.list.entriesAfter(this.last);
+      Iterator<Map.Entry<K, Object>> versions =
+          SkipListSnapshot.this.versions.entriesAfter(this.last);
+      Map.Entry<K, V> current = live.hasNext() ? live.next() : null;
+      Map.Entry<K, Object> old = versions.hasNext() ? versions.next() : null;
+      for (int i = 0; i < BATCH && (current != null || old != null); i++) {
+        int order = (current == null) ? 1
+            : (old == null) ? -1 : SkipListSnapshot.this.list.comparator.compare(
+                current.getKey(), old.getKey());
+        if (order < 0) {
+          batch.entries.add(current);
+          batch.last = current.getKey();
+          current = live.hasNext() ? live.next() : null;
+        } else {
+          if (old.getValue() != ABSENT) {
+            batch.entries.add(new SimpleImmutableEntry<K, V>(old.getKey(), (V) old.getValue()));
+          } // if
+          batch.last = old.getKey();
+          if (order == 0) {
+            current = live.hasNext() ? live.next() : null;
+          } // if
+          old = versions.hasNext() ? versions.next() : null;
+        } // if/else
+      } // for
+      batch.done = (current == null && old == null);
+      return batch;
+    } // fill()
+  } // class SnapshotIterator
+
+} // class SkipListSnapshot
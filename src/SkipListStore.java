@@ -0,0 +1,997 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread-safe map that can be bigger than memory: a SkipList memtable in front of sorted runs
+ * on the disk.
+ *
+ * Changes go to a write-ahead log and to the active memtable; a removal stores a tombstone. Once
+ * the memtable holds memtableEntries entries it is frozen and a new one started, and a background
+ * thread walks the frozen list's level 0 straight into a new SortedRun (with a block index and a
+ * Bloom filter) and deletes its log. When there are more than maxRuns runs, the same thread
+ * merges them all into one, dropping tombstones and overwritten values.
+ *
+ * A lookup tries the active memtable, then the frozen ones, then the runs, newest first, and
+ * stops at the first that knows the key. Iterators merge all of them in key order. Readers take
+ * no locks; writers take turns.
+ *
+ * set and remove return the old value, so they look the key up first, which may read a block of
+ * a run. The log is written to the operating system every 64 KB and forced when a memtable is
+ * frozen and at sync and close, as with DurableSkipList's SyncPolicy.NONE.
+ *
+ * Runs hold keys as bytes from keyCodec, so the comparator must order keys the way the codec's
+ * bytes do (unsigned). The directory must be used by one store at a time.
+ */
+public class SkipListStore<K, V> implements SimpleMap<K, V>, Closeable {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  static final Object TOMBSTONE = SortedRun.TOMBSTONE;
+
+  /**
+   * What lookup returns when no layer knows the key, and when a run it needed was compacted away
+   * under it.
+   */
+  static final Object ABSENT = new Object();
+  static final Object RETRY = new Object();
+
+  static final long MANIFEST_MAGIC = 0x534b49504d414e31L; // "SKIPMAN1"
+
+  static final byte SET = 1;
+  static final byte REMOVE = 2;
+
+  static final int DEFAULT_MEMTABLE_ENTRIES = 1 << 16;
+  static final int DEFAULT_MAX_RUNS = 4;
+
+  /**
+   * How much we let the log buffer hold before writing it out.
+   */
+  static final int FLUSH_BYTES = 1 << 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  final Path directory;
+  final Comparator<K> comparator;
+  final Codec<K> keyCodec;
+  final Codec<V> valueCodec;
+  final int memtableEntries;
+  final int maxRuns;
+
+  /**
+   * Writers hold this while they change the memtable, and anyone who replaces layers holds it.
+   */
+  final Object writeLock = new Object();
+
+  /**
+   * What a reader looks at. Never changed, only replaced.
+   */
+  volatile Layers layers;
+
+  /**
+   * The number of entries.
+   */
+  volatile int size;
+
+  /**
+   * The number for the next memtable or run file.
+   */
+  long nextNumber = 1;
+
+  /**
+   * The newest memtable that is in a run, and the number of entries the runs hold between them.
+   */
+  long flushedThrough;
+  int flushedSize;
+
+  /**
+   * Runs compacted away that someone was still reading; close closes them.
+   */
+  final List<SortedRun> retired = new ArrayList<SortedRun>();
+
+  /**
+   * The thread that flushes and compacts, and the first thing that went wrong there.
+   */
+  ExecutorService background;
+  volatile IOException backgroundFailure;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  SkipListStore(Path directory, Comparator<K> comparator, Codec<K> keyCodec, Codec<V> valueCodec,
+      int memtableEntries, int maxRuns) {
+    if (memtableEntries < 1 || maxRuns < 1) {
+      throw new IllegalArgumentException("memtableEntries and maxRuns must be positive");
+    } // if
+    this.directory = directory;
+    this.comparator = comparator;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.memtableEntries = memtableEntries;
+    this.maxRuns = maxRuns;
+  } // SkipListStore(Path, Comparator<K>, Codec<K>, Codec<V>, int, int)
+
+  /**
+   * Open the store kept in directory (creating the directory if needed), with memtables of
+   * 65536 entries and at most four runs.
+   */
+  public static <K, V> SkipListStore<K, V> open(Path directory, Comparator<K> comparator,
+      Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+    return open(directory, comparator, keyCodec, valueCodec, DEFAULT_MEMTABLE_ENTRIES,
+        DEFAULT_MAX_RUNS);
+  } // open(Path, Comparator<K>, Codec<K>, Codec<V>)
+
+  /**
+   * Open the store kept in directory, freezing memtables at memtableEntries entries and
+   * compacting once there are more than maxRuns runs.
+   */
+  public static <K, V> SkipListStore<K, V> open(Path directory, Comparator<K> comparator,
+      Codec<K> keyCodec, Codec<V> valueCodec, int memtableEntries, int maxRuns)
+      throws IOException {
+    Files.createDirectories(directory);
+    SkipListStore<K, V> store = new SkipListStore<K, V>(directory, comparator, keyCodec,
+        valueCodec, memtableEntries, maxRuns);
+    store.background = Executors.newSingleThreadExecutor((task) -> {
+      Thread thread = new Thread(task, "SkipListStore " + directory);
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      store.recover();
+    } catch (IOException | RuntimeException e) {
+      store.background.shutdownNow();
+      throw e;
+    } // try/catch
+    return store;
+  } // open(Path, Comparator<K>, Codec<K>, Codec<V>, int, int)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  /**
+   * Set the value associated with key.
+   *
+   * @throws UncheckedIOException if the disk cannot be read or written.
+   */
+  @Override
+  public V set(K key, V value) {
+    return write(key, value);
+  } // set(K, V)
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(K key) {
+    Object value = lookup(key);
+    if (value == ABSENT || value == TOMBSTONE) {
+      throw new IndexOutOfBoundsException("The key was not found.");
+    } // if
+    return (V) value;
+  } // get(K)
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(K key, V defaultValue) {
+    Object value = lookup(key);
+    return (value == ABSENT || value == TOMBSTONE) ? defaultValue : (V) value;
+  } // getOrDefault(K, V)
+
+  @Override
+  public int size() {
+    return this.size;
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    Object value = lookup(key);
+    return value != ABSENT && value != TOMBSTONE;
+  } // containsKey(K)
+
+  /**
+   * Remove the value with the given key.
+   *
+   * @throws UncheckedIOException if the disk cannot be read or written.
+   */
+  @Override
+  public V remove(K key) {
+    return write(key, TOMBSTONE);
+  } // remove(K)
+
+  /**
+   * Get an iterator for the keys, in order. Entries in memtables are as of the call; runs are
+   * read as we go. An iterator that is dropped before the end keeps the files of the runs it
+   * reads open until the store is closed.
+   */
+  @Override
+  public Iterator<K> keys() {
+    Iterator<Map.Entry<byte[], Object>> merged = merged();
+    return new Iterator<K>() {
+      @Override
+      public boolean hasNext() {
+        return merged.hasNext();
+      } // hasNext()
+
+      @Override
+      public K next() {
+        return SkipListStore.this.keyCodec.decode(merged.next().getKey());
+      } // next()
+    };
+  } // keys()
+
+  /**
+   * Get an iterator for the values, in key order, as for keys.
+   */
+  @Override
+  public Iterator<V> values() {
+    Iterator<Map.Entry<byte[], Object>> merged = merged();
+    return new Iterator<V>() {
+      @Override
+      public boolean hasNext() {
+        return merged.hasNext();
+      } // hasNext()
+
+      @Override
+      public V next() {
+        return decodeValue(merged.next().getValue());
+      } // next()
+    };
+  } // values()
+
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Iterator<Map.Entry<byte[], Object>> merged = merged();
+    while (merged.hasNext()) {
+      Map.Entry<byte[], Object> entry = merged.next();
+      action.accept(this.keyCodec.decode(entry.getKey()), decodeValue(entry.getValue()));
+    } // while
+  } // forEach
+
+  // +----------------------+----------------------------------------
+  // | Other public methods |
+  // +----------------------+
+
+  /**
+   * Freeze the active memtable, if it has anything in it, and wait until every frozen memtable
+   * is in a run (and any compaction that follows is done).
+   */
+  public void flush() throws IOException {
+    synchronized (this.writeLock) {
+      if (this.layers.active.list.size() > 0) {
+        rotate();
+      } // if
+    } // synchronized
+    await(() -> { });
+  } // flush()
+
+  /**
+   * Merge all the runs into one, in the background thread, and wait for it.
+   */
+  public void compact() throws IOException {
+    await(this::compactRuns);
+  } // compact()
+
+  /**
+   * The number of runs on the disk.
+   */
+  public int runCount() {
+    return this.layers.runs.size();
+  } // runCount()
+
+  /**
+   * Force every change so far to the disk.
+   */
+  public void sync() throws IOException {
+    synchronized (this.writeLock) {
+      this.layers.active.log.sync();
+    } // synchronized
+  } // sync()
+
+  /**
+   * Force the log, wait for the background thread to finish what it has started, and close the
+   * files. Frozen memtables that were not flushed are replayed from their logs on the next open.
+   * The store must not be used afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this.writeLock) {
+      this.layers.active.log.close();
+    } // synchronized
+    this.background.shutdown();
+    try {
+      this.background.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } // try/catch
+    synchronized (this.writeLock) {
+      for (SortedRun run : this.layers.runs) {
+        run.close();
+      } // for
+      for (SortedRun run : this.retired) {
+        run.close();
+      } // for
+    } // synchronized
+  } // close()
+
+  // +--------+------------------------------------------------------
+  // | Layers |
+  // +--------+
+
+  /**
+   * A skip list of changes, and the log that they are also in.
+   */
+  class Memtable {
+    final long number;
+    final SkipList<K, Object> list;
+    final StampedSkipList<K, Object> view;
+    WriteAheadLog log;
+
+    /**
+     * How many entries the changes here added to the map, less how many they removed.
+     */
+    int delta;
+
+    Memtable(long number) {
+      this.number = number;
+      this.list = new SkipList<K, Object>(SkipListStore.this.comparator);
+      this.view = new StampedSkipList<K, Object>(this.list);
+    } // Memtable(long)
+  } // class Memtable
+
+  /**
+   * Everything a reader looks at: the active memtable, the frozen ones, and the runs, each newest
+   * first.
+   */
+  class Layers {
+    final Memtable active;
+    final List<Memtable> frozen;
+    final List<SortedRun> runs;
+
+    Layers(Memtable active, List<Memtable> frozen, List<SortedRun> runs) {
+      this.active = active;
+      this.frozen = Collections.unmodifiableList(frozen);
+      this.runs = Collections.unmodifiableList(runs);
+    } // Layers(Memtable, List<Memtable>, List<SortedRun>)
+  } // class Layers
+
+  // +---------+-----------------------------------------------------
+  // | Reading |
+  // +---------+
+
+  /**
+   * Find what the newest layer that knows key says about it: a value, TOMBSTONE, or ABSENT if
+   * no layer does.
+   *
+   * @throws UncheckedIOException if a run cannot be read.
+   */
+  Object lookup(K key) {
+    while (true) {
+      Layers layers = this.layers;
+      Object value = layers.active.view.getOrDefault(key, ABSENT);
+      if (value != ABSENT) {
+        return value;
+      } // if
+      for (Memtable memtable : layers.frozen) {
+        value = memtable.view.getOrDefault(key, ABSENT);
+        if (value != ABSENT) {
+          return value;
+        } // if
+      } // for
+      if (layers.runs.isEmpty()) {
+        return ABSENT;
+      } // if
+      value = search(layers.runs, this.keyCodec.encode(key));
+      if (value != RETRY) {
+        return value;
+      } // if
+    } // while
+  } // lookup(K)
+
+  /**
+   * Look a key up in runs, newest first. Returns RETRY if one of them has been compacted away.
+   */
+  Object search(List<SortedRun> runs, byte[] key) {
+    for (SortedRun run : runs) {
+      if (!run.acquire()) {
+        return RETRY;
+      } // if
+      Object found;
+      try {
+        found = run.get(key);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        run.release();
+      } // try/catch/finally
+      if (found == SortedRun.NULL_VALUE) {
+        return null;
+      } else if (found == TOMBSTONE) {
+        return TOMBSTONE;
+      } else if (found != null) {
+        return this.valueCodec.decode((byte[]) found);
+      } // if/else
+    } // for
+    return ABSENT;
+  } // search(List<SortedRun>, byte[])
+
+  /**
+   * Merge every layer into one sequence of live entries, as bytes, in key order.
+   */
+  Iterator<Map.Entry<byte[], Object>> merged() {
+    while (true) {
+      Layers layers = this.layers;
+      ArrayList<SortedRun> acquired = new ArrayList<SortedRun>();
+      for (SortedRun run : layers.runs) {
+        if (!run.acquire()) {
+          break;
+        } // if
+        acquired.add(run);
+      } // for
+      if (acquired.size() < layers.runs.size()) {
+        for (SortedRun run : acquired) {
+          run.release();
+        } // for
+        continue;
+      } // if
+      ArrayList<Iterator<Map.Entry<byte[], Object>>> sources =
+          new ArrayList<Iterator<Map.Entry<byte[], Object>>>();
+      // The active memtable may change under us, so copy it; it is never very big.
+      ArrayList<Map.Entry<K, Object>> active = new ArrayList<Map.Entry<K, Object>>();
+      layers.active.view.forEach(
+          (key, value) -> active.add(new SimpleImmutableEntry<K, Object>(key, value)));
+      sources.add(encoded(active.iterator()));
+      for (Memtable memtable : layers.frozen) {
+        sources.add(encoded(memtable.list.entries()));
+      } // for
+      for (SortedRun run : acquired) {
+        sources.add(run.iterator());
+      } // for
+      return new MergeIterator(sources, acquired);
+    } // while
+  } // merged()
+
+  // +---------+-----------------------------------------------------
+  // | Writing |
+  // +---------+
+
+  /**
+   * Set key to value, or remove it if value is TOMBSTONE, and return the old value.
+   */
+  @SuppressWarnings("unchecked")
+  V write(K key, Object value) {
+    if (key == null) {
+      throw new NullPointerException("null key");
+    } // if
+    byte[] record = encode(key, value);
+    synchronized (this.writeLock) {
+      if (this.backgroundFailure != null) {
+        throw new UncheckedIOException("a background flush failed", this.backgroundFailure);
+      } // if
+      Object old = lookup(key);
+      boolean present = old != ABSENT && old != TOMBSTONE;
+      if (!present && value == TOMBSTONE) {
+        return null;
+      } // if
+      Memtable active = this.layers.active;
+      active.log.append(record);
+      apply(active, key, value, present);
+      try {
+        if (active.log.pendingBytes() >= FLUSH_BYTES) {
+          active.log.commit(active.log.appendedCount(), false);
+        } // if
+        if (active.list.size() >= this.memtableEntries) {
+          rotate();
+        } // if
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } // try/catch
+      return present ? (V) old : null;
+    } // synchronized
+  } // write(K, Object)
+
+  /**
+   * Put a change in a memtable and count it. present says whether the key had a value.
+   */
+  void apply(Memtable memtable, K key, Object value, boolean present) {
+    memtable.view.set(key, value);
+    int change = (value == TOMBSTONE) ? (present ? -1 : 0) : (present ? 0 : 1);
+    memtable.delta += change;
+    this.size += change;
+  } // apply(Memtable, K, Object, boolean)
+
+  /**
+   * Freeze the active memtable, start a new one, and have the background thread flush it. The
+   * caller holds the write lock.
+   */
+  void rotate() throws IOException {
+    Layers current = this.layers;
+    current.active.log.close();
+    Memtable fresh = new Memtable(this.nextNumber++);
+    fresh.log = new WriteAheadLog(logFile(fresh.number));
+    forceDirectory();
+    ArrayList<Memtable> frozen = new ArrayList<Memtable>();
+    frozen.add(current.active);
+    frozen.addAll(current.frozen);
+    this.layers = new Layers(fresh, frozen, current.runs);
+    this.background.execute(() -> inBackground(this::flushOldest));
+  } // rotate()
+
+  // +------------+--------------------------------------------------
+  // | Background |
+  // +------------+
+
+  /**
+   * Something that the background thread does.
+   */
+  interface Task {
+    void run() throws IOException;
+  } // interface Task
+
+  /**
+   * Run a task, remembering the first failure so that writers hear of it.
+   */
+  void inBackground(Task task) {
+    try {
+      task.run();
+    } catch (IOException | RuntimeException e) {
+      if (this.backgroundFailure == null) {
+        this.backgroundFailure = (e instanceof IOException) ? (IOException) e : new IOException(e);
+      } // if
+    } // try/catch
+  } // inBackground(Task)
+
+  /**
+   * Run a task on the background thread, after everything already queued, and wait for it.
+   */
+  void await(Task task) throws IOException {
+    try {
+      this.background.submit(() -> {
+        task.run();
+        return null;
+      }).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for the background thread", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+    } // try/catch
+    if (this.backgroundFailure != null) {
+      throw new IOException("a background flush failed", this.backgroundFailure);
+    } // if
+  } // await(Task)
+
+  /**
+   * Write the oldest frozen memtable to a new run, put the run in its place, and delete its log.
+   * Compact if that makes too many runs.
+   */
+  void flushOldest() throws IOException {
+    Memtable oldest;
+    long number;
+    synchronized (this.writeLock) {
+      List<Memtable> frozen = this.layers.frozen;
+      if (frozen.isEmpty()) {
+        return;
+      } // if
+      oldest = frozen.get(frozen.size() - 1);
+      number = this.nextNumber++;
+    } // synchronized
+    // Nobody changes a frozen memtable, so we can walk its level 0 without locking.
+    SortedRun run = SortedRun.write(runFile(number), encoded(oldest.list.entries()),
+        oldest.list.size());
+    synchronized (this.writeLock) {
+      Layers current = this.layers;
+      ArrayList<SortedRun> runs = new ArrayList<SortedRun>();
+      runs.add(run);
+      runs.addAll(current.runs);
+      this.flushedThrough = oldest.number;
+      this.flushedSize += oldest.delta;
+      writeManifest(runs);
+      ArrayList<Memtable> frozen = new ArrayList<Memtable>(current.frozen);
+      frozen.remove(oldest);
+      this.layers = new Layers(current.active, frozen, runs);
+    } // synchronized
+    Files.deleteIfExists(logFile(oldest.number));
+    if (this.layers.runs.size() > this.maxRuns) {
+      compactRuns();
+    } // if
+  } // flushOldest()
+
+  /**
+   * Merge every run into one. Since the result is the oldest layer, tombstones can go. Only the
+   * background thread adds or removes runs, so the runs do not change while we merge them.
+   */
+  void compactRuns() throws IOException {
+    List<SortedRun> inputs;
+    long number;
+    synchronized (this.writeLock) {
+      inputs = this.layers.runs;
+      if (inputs.size() < 2) {
+        return;
+      } // if
+      number = this.nextNumber++;
+    } // synchronized
+    ArrayList<Iterator<Map.Entry<byte[], Object>>> sources =
+        new ArrayList<Iterator<Map.Entry<byte[], Object>>>();
+    long count = 0;
+    for (SortedRun run : inputs) {
+      sources.add(run.iterator());
+      count += run.count();
+    } // for
+    SortedRun merged;
+    try {
+      merged = SortedRun.write(runFile(number), new MergeIterator(sources, null), count);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } // try/catch
+    synchronized (this.writeLock) {
+      List<SortedRun> runs = Collections.singletonList(merged);
+      writeManifest(runs);
+      this.layers = new Layers(this.layers.active, new ArrayList<Memtable>(this.layers.frozen),
+          runs);
+      for (SortedRun run : inputs) {
+        run.retire();
+        if (run.channel.isOpen()) {
+          this.retired.add(run);
+        } // if
+      } // for
+    } // synchronized
+  } // compactRuns()
+
+  // +----------+----------------------------------------------------
+  // | Recovery |
+  // +----------+
+
+  /**
+   * Open the runs named in the manifest, delete files that a crash left half done, and replay
+   * the logs that are not yet in runs, one memtable per log.
+   */
+  void recover() throws IOException {
+    List<Long> runNumbers = readManifest();
+    TreeSet<Long> logs = new TreeSet<Long>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        long number = fileNumber(name);
+        if (name.endsWith(".tmp")
+            || (name.startsWith("run-") && number >= 0 && !runNumbers.contains(number))
+            || (name.startsWith("log-") && number >= 0 && number <= this.flushedThrough)) {
+          Files.delete(file);
+        } else if (name.startsWith("log-") && number >= 0) {
+          logs.add(number);
+        } // if/else
+        this.nextNumber = Math.max(this.nextNumber, number + 1);
+      } // for
+    } // try
+    ArrayList<SortedRun> runs = new ArrayList<SortedRun>();
+    try {
+      for (long number : runNumbers) {
+        runs.add(SortedRun.open(runFile(number)));
+      } // for
+    } catch (IOException e) {
+      for (SortedRun run : runs) {
+        run.close();
+      } // for
+      throw e;
+    } // try/catch
+    this.size = this.flushedSize;
+    ArrayList<Memtable> frozen = new ArrayList<Memtable>();
+    Memtable active = null;
+    for (long number : logs) {
+      if (active != null) {
+        frozen.add(0, active);
+      } // if
+      active = new Memtable(number);
+      this.layers = new Layers(active, frozen, runs);
+      Memtable memtable = active;
+      WriteAheadLog.read(logFile(number), (record) -> replay(memtable, record));
+    } // for
+    if (active == null) {
+      active = new Memtable(this.nextNumber++);
+    } // if
+    active.log = new WriteAheadLog(logFile(active.number));
+    this.layers = new Layers(active, frozen, runs);
+    forceDirectory();
+    for (int i = 0; i < frozen.size(); i++) {
+      this.background.execute(() -> inBackground(this::flushOldest));
+    } // for
+  } // recover()
+
+  /**
+   * Apply one record from a log to memtable, which is the active one.
+   */
+  void replay(Memtable memtable, ByteBuffer record) {
+    byte op = record.get();
+    K key = this.keyCodec.decode(DurableSkipList.readBytes(record));
+    Object value = TOMBSTONE;
+    if (op == SET) {
+      byte[] bytes = DurableSkipList.readBytes(record);
+      value = (bytes == null) ? null : this.valueCodec.decode(bytes);
+    } // if
+    Object old = lookup(key);
+    apply(memtable, key, value, old != ABSENT && old != TOMBSTONE);
+  } // replay(Memtable, ByteBuffer)
+
+  /**
+   * Read the manifest, if there is one, setting the counters and returning the runs, newest
+   * first.
+   */
+  List<Long> readManifest() throws IOException {
+    ArrayList<Long> runs = new ArrayList<Long>();
+    Path file = this.directory.resolve("MANIFEST");
+    if (!Files.exists(file)) {
+      return runs;
+    } // if
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readLong() != MANIFEST_MAGIC) {
+        throw new IOException(file + " is not a manifest");
+      } // if
+      this.nextNumber = in.readLong();
+      this.flushedThrough = in.readLong();
+      this.flushedSize = in.readInt();
+      for (int count = in.readInt(); count > 0; count--) {
+        runs.add(in.readLong());
+      } // for
+    } // try
+    return runs;
+  } // readManifest()
+
+  /**
+   * Record which runs make up the store, atomically. The caller holds the write lock.
+   */
+  void writeManifest(List<SortedRun> runs) throws IOException {
+    Path temporary = this.directory.resolve("MANIFEST.tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel)));
+      out.writeLong(MANIFEST_MAGIC);
+      out.writeLong(this.nextNumber);
+      out.writeLong(this.flushedThrough);
+      out.writeInt(this.flushedSize);
+      out.writeInt(runs.size());
+      for (SortedRun run : runs) {
+        out.writeLong(fileNumber(run.file.getFileName().toString()));
+      } // for
+      out.flush();
+      channel.force(true);
+    } // try
+    Files.move(temporary, this.directory.resolve("MANIFEST"), StandardCopyOption.ATOMIC_MOVE);
+    forceDirectory();
+  } // writeManifest(List<SortedRun>)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Turn memtable entries into the bytes that runs hold.
+   */
+  Iterator<Map.Entry<byte[], Object>> encoded(Iterator<Map.Entry<K, Object>> entries) {
+    return new Iterator<Map.Entry<byte[], Object>>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public Map.Entry<byte[], Object> next() {
+        Map.Entry<K, Object> entry = entries.next();
+        Object value = entry.getValue();
+        if (value != null && value != TOMBSTONE) {
+          value = SkipListStore.this.valueCodec.encode((V) value);
+        } // if
+        return new SimpleImmutableEntry<byte[], Object>(
+            SkipListStore.this.keyCodec.encode(entry.getKey()), value);
+      } // next()
+    };
+  } // encoded(Iterator<Map.Entry<K, Object>>)
+
+  V decodeValue(Object value) {
+    return (value == null) ? null : this.valueCodec.decode((byte[]) value);
+  } // decodeValue(Object)
+
+  byte[] encode(K key, Object value) {
+    byte[] keyBytes = this.keyCodec.encode(key);
+    if (value == TOMBSTONE) {
+      return ByteBuffer.allocate(1 + 4 + keyBytes.length)
+          .put(REMOVE).putInt(keyBytes.length).put(keyBytes).array();
+    } // if
+    @SuppressWarnings("unchecked")
+    byte[] valueBytes = (value == null) ? null : this.valueCodec.encode((V) value);
+    ByteBuffer record = ByteBuffer.allocate(1 + 4 + keyBytes.length + 4
+        + ((valueBytes == null) ? 0 : valueBytes.length));
+    record.put(SET).putInt(keyBytes.length).put(keyBytes);
+    record.putInt((valueBytes == null) ? -1 : valueBytes.length);
+    if (valueBytes != null) {
+      record.put(valueBytes);
+    } // if
+    return record.array();
+  } // encode(K, Object)
+
+  Path runFile(long number) {
+    return this.directory.resolve("run-" + number + ".sst");
+  } // runFile(long)
+
+  Path logFile(long number) {
+    return this.directory.resolve("log-" + number + ".wal");
+  } // logFile(long)
+
+  /**
+   * Get n from run-n.sst or log-n.wal, or -1 if name is not like either.
+   */
+  static long fileNumber(String name) {
+    if (name.matches("run-\\d+\\.sst")) {
+      return Long.parseLong(name.substring(4, name.length() - 4));
+    } else if (name.matches("log-\\d+\\.wal")) {
+      return Long.parseLong(name.substring(4, name.length() - 4));
+    } // if/else
+    return -1;
+  } // fileNumber(String)
+
+  /**
+   * Make sure renames and new files in the directory are on the disk, where the system lets us.
+   */
+  void forceDirectory() {
+    try (FileChannel channel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // best effort
+    } // try/catch
+  } // forceDirectory()
+
+} // class SkipListStore
+
+
+/**
+ * Merges sorted sequences of entries whose keys are bytes. Where several have the same key, the
+ * one from the earliest sequence wins; tombstones hide the key and are dropped. Releases the
+ * given runs once it reaches the end.
+ */
+class MergeIterator implements Iterator<Map.Entry<byte[], Object>> {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * One input and the entry it is on.
+   */
+  static class Source {
+    final Iterator<Map.Entry<byte[], Object>> entries;
+    final int age;
+    Map.Entry<byte[], Object> current;
+
+    Source(Iterator<Map.Entry<byte[], Object>> entries, int age) {
+      this.entries = entries;
+      this.age = age;
+    } // Source(Iterator, int)
+
+    boolean advance() {
+      this.current = this.entries.hasNext() ? this.entries.next() : null;
+      return this.current != null;
+    } // advance()
+  } // class Source
+
+  /**
+   * The inputs that have entries left, smallest key (then newest) first.
+   */
+  final PriorityQueue<Source> heap = new PriorityQueue<Source>((a, b) -> {
+    int order = Arrays.compareUnsigned(a.current.getKey(), b.current.getKey());
+    return (order != 0) ? order : Integer.compare(a.age, b.age);
+  });
+
+  /**
+   * Runs to release at the end, or null.
+   */
+  List<SortedRun> runs;
+
+  /**
+   * The entry next will return, or null at the end.
+   */
+  Map.Entry<byte[], Object> next;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  MergeIterator(List<Iterator<Map.Entry<byte[], Object>>> sources, List<SortedRun> runs) {
+    this.runs = runs;
+    for (int i = 0; i < sources.size(); i++) {
+      Source source = new Source(sources.get(i), i);
+      if (source.advance()) {
+        this.heap.add(source);
+      } // if
+    } // for
+    findNext();
+  } // MergeIterator(List, List<SortedRun>)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  @Override
+  public boolean hasNext() {
+    return this.next != null;
+  } // hasNext()
+
+  @Override
+  public Map.Entry<byte[], Object> next() {
+    if (this.next == null) {
+      throw new NoSuchElementException();
+    } // if
+    Map.Entry<byte[], Object> result = this.next;
+    findNext();
+    return result;
+  } // next()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Move to the next key whose newest entry is not a tombstone.
+   */
+  void findNext() {
+    this.next = null;
+    while (this.next == null && !this.heap.isEmpty()) {
+      Source newest = this.heap.poll();
+      Map.Entry<byte[], Object> entry = newest.current;
+      // skip the older entries for the same key
+      while (!this.heap.isEmpty()
+          && Arrays.equals(this.heap.peek().current.getKey(), entry.getKey())) {
+        Source older = this.heap.poll();
+        if (older.advance()) {
+          this.heap.add(older);
+        } // if
+      } // while
+      if (newest.advance()) {
+        this.heap.add(newest);
+      } // if
+      if (entry.getValue() != SortedRun.TOMBSTONE) {
+        this.next = entry;
+      } // if
+    } // while
+    if (this.next == null && this.runs != null) {
+      for (SortedRun run : this.runs) {
+        run.release();
+      } // for
+      this.runs = null;
+    } // if
+  } // findNext()
+
+} // class MergeIterator
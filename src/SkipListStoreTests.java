@@ -0,0 +1,148 @@
+import static org.junit.Assert.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+/**
+ * Tests of the memtable and sorted run store.
+ */
+public class SkipListStoreTests {
+
+  /**
+   * Random changes through many memtables, flushes and compactions give the same map as a
+   * TreeMap, before and after reopening.
+   */
+  @Test
+  public void matchesTreeMap() throws IOException {
+    Path directory = Files.createTempDirectory("store");
+    try {
+      SkipListStore<Integer, String> store = open(directory);
+      TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+      Random random = new Random(217);
+      for (int i = 0; i < 20000; i++) {
+        int key = random.nextInt(3000) - 1000;
+        if (random.nextInt(3) > 0) {
+          String value = (i % 97 == 0) ? null : "v" + i;
+          assertEquals(expected.put(key, value), store.set(key, value));
+        } else {
+          assertEquals(expected.remove(key), store.remove(key));
+        } // if/else
+        if (i % 5000 == 0) {
+          DurableSkipListTests.assertMatches(expected, store);
+        } // if
+      } // for
+      DurableSkipListTests.assertMatches(expected, store);
+      assertFalse(store.containsKey(5000));
+      assertEquals("none", store.getOrDefault(-5000, "none"));
+      SkipListStore<Integer, String> current = store;
+      assertThrows(IndexOutOfBoundsException.class, () -> current.get(5000));
+      store.flush();
+      assertTrue(store.runCount() <= 2);
+      store.compact();
+      assertEquals(1, store.runCount());
+      DurableSkipListTests.assertMatches(expected, store);
+      store.set(1, "one");
+      expected.put(1, "one");
+      store.close();
+      store = open(directory);
+      DurableSkipListTests.assertMatches(expected, store);
+      Iterator<String> values = store.values();
+      for (String value : expected.values()) {
+        assertEquals(value, values.next());
+      } // for
+      store.close();
+    } finally {
+      DurableSkipListTests.delete(directory);
+    } // try/finally
+  } // matchesTreeMap()
+
+  /**
+   * Changes that were synced but never flushed come back from the logs, past a torn record.
+   */
+  @Test
+  public void recoversUnflushedChanges() throws IOException {
+    Path directory = Files.createTempDirectory("store");
+    try {
+      SkipListStore<Integer, String> crashed = open(directory);
+      TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+      for (int i = 0; i < 450; i++) {
+        crashed.set(i, "a" + i);
+        expected.put(i, "a" + i);
+      } // for
+      crashed.remove(7);
+      expected.remove(7);
+      // let the background thread finish, then leave without closing
+      crashed.await(() -> { });
+      crashed.sync();
+      Files.write(crashed.logFile(crashed.layers.active.number), new byte[] {0, 0, 0, 40, 1},
+          StandardOpenOption.APPEND);
+      SkipListStore<Integer, String> store = open(directory);
+      DurableSkipListTests.assertMatches(expected, store);
+      store.close();
+    } finally {
+      DurableSkipListTests.delete(directory);
+    } // try/finally
+  } // recoversUnflushedChanges()
+
+  /**
+   * A run finds every key it holds, its filter turns away most others, and it iterates in order.
+   */
+  @Test
+  public void sortedRunLookups() throws IOException {
+    Path directory = Files.createTempDirectory("store");
+    try {
+      ArrayList<Map.Entry<byte[], Object>> entries = new ArrayList<Map.Entry<byte[], Object>>();
+      for (int i = 0; i < 20000; i += 2) {
+        Object value = (i % 10 == 0) ? SortedRun.TOMBSTONE
+            : (i % 14 == 0) ? null : Codec.STRINGS.encode("v" + i);
+        entries.add(new SimpleImmutableEntry<byte[], Object>(Codec.INTS.encode(i), value));
+      } // for
+      SortedRun run = SortedRun.write(directory.resolve("run-1.sst"), entries.iterator(),
+          entries.size());
+      assertEquals(entries.size(), run.count());
+      assertTrue(run.firstKeys.length > 1);
+      for (Map.Entry<byte[], Object> entry : entries) {
+        Object found = run.get(entry.getKey());
+        if (entry.getValue() == null) {
+          assertSame(SortedRun.NULL_VALUE, found);
+        } else if (entry.getValue() == SortedRun.TOMBSTONE) {
+          assertSame(SortedRun.TOMBSTONE, found);
+        } else {
+          assertArrayEquals((byte[]) entry.getValue(), (byte[]) found);
+        } // if/else
+      } // for
+      int passed = 0;
+      for (int i = 1; i < 20000; i += 2) {
+        assertNull(run.get(Codec.INTS.encode(i)));
+        if (run.mightContain(Codec.INTS.encode(i))) {
+          passed++;
+        } // if
+      } // for
+      assertTrue(passed < 300);
+      Iterator<Map.Entry<byte[], Object>> read = run.iterator();
+      for (Map.Entry<byte[], Object> entry : entries) {
+        Map.Entry<byte[], Object> got = read.next();
+        assertTrue(Arrays.equals(entry.getKey(), got.getKey()));
+      } // for
+      assertFalse(read.hasNext());
+      run.close();
+    } finally {
+      DurableSkipListTests.delete(directory);
+    } // try/finally
+  } // sortedRunLookups()
+
+  static SkipListStore<Integer, String> open(Path directory) throws IOException {
+    return SkipListStore.open(directory, Integer::compare, Codec.INTS, Codec.STRINGS, 200, 3);
+  } // open(Path)
+
+} // class SkipListStoreTests
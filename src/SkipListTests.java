@@ -1,8 +1,19 @@
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.TreeMap;
 import static org.junit.Assert.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -513,6 +524,812 @@ public class SkipListTests {
     assertEquals(ints.size, 0);
   }
 
+  // +-------------+-----------------------------------------------------
+  // | Range Tests |
+  // +-------------+
+
+  @Test
+  public void testFloorCeiling() {
+    setup();
+    // empty list has no neighbours
+    assertEquals(null, ints.firstKey());
+    assertEquals(null, ints.lastKey());
+    assertEquals(null, ints.floorKey(5));
+    assertEquals(null, ints.ceilingKey(5));
+    // multiples of ten from 0 to 190
+    for (int i = 0; i < 200; i += 10) {
+      set(i);
+    }
+    assertEquals((Integer) 0, ints.firstKey());
+    assertEquals((Integer) 190, ints.lastKey());
+    assertEquals((Integer) 50, ints.floorKey(55));
+    assertEquals((Integer) 50, ints.floorKey(50));
+    assertEquals((Integer) 40, ints.lowerKey(50));
+    assertEquals((Integer) 60, ints.ceilingKey(55));
+    assertEquals((Integer) 50, ints.ceilingKey(50));
+    assertEquals((Integer) 60, ints.higherKey(50));
+    assertEquals(null, ints.lowerKey(0));
+    assertEquals(null, ints.higherKey(190));
+    assertEquals(null, ints.floorKey(-1));
+    assertEquals(null, ints.ceilingKey(191));
+  }
+
+  @Test
+  public void testRangeIterators() {
+    setup();
+    for (int i = 0; i < 100; i++) {
+      set(i);
+    }
+    // range is half-open
+    Iterator<Map.Entry<Integer, String>> it = ints.range(20, 25);
+    for (int i = 20; i < 25; i++) {
+      Map.Entry<Integer, String> entry = it.next();
+      assertEquals((Integer) i, entry.getKey());
+      assertEquals(value(i), entry.getValue());
+      // entries are copies, equal to any other entry with the same key and value
+      assertEquals(new SimpleEntry<Integer, String>(i, value(i)), entry);
+      assertEquals(new SimpleEntry<Integer, String>(i, value(i)).hashCode(), entry.hashCode());
+      assertThrows(UnsupportedOperationException.class, () -> entry.setValue("changed"));
+    }
+    assertFalse(it.hasNext());
+    // bounds that are not in the list
+    assertFalse(ints.range(200, 300).hasNext());
+    assertFalse(ints.range(30, 30).hasNext());
+    int count = 0;
+    for (it = ints.head(10); it.hasNext(); it.next()) {
+      count++;
+    }
+    assertEquals(10, count);
+    count = 0;
+    for (it = ints.tail(90); it.hasNext(); it.next()) {
+      count++;
+    }
+    assertEquals(10, count);
+    assertThrows(NullPointerException.class, () -> ints.range(null, 5));
+  }
+
+  // +-----------------+-------------------------------------------------
+  // | Bulk Load Tests |
+  // +-----------------+
+
+  @Test
+  public void testLoadSorted() {
+    setup();
+    Integer[] keys = new Integer[1000];
+    String[] values = new String[1000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = 2 * i;
+      values[i] = value(2 * i);
+    }
+    ints.loadSorted(keys, values, true);
+    assertEquals(1000, ints.size());
+    assertTrue(inOrder(ints.keys()));
+    for (int i = 0; i < 2000; i++) {
+      assertEquals(i % 2 == 0, ints.containsKey(i));
+    }
+    // the loaded list still works as a normal list
+    set(7);
+    remove(0);
+    assertEquals(value(7), ints.get(7));
+    assertEquals(1000, ints.size());
+    // appending after the last key works; appending before it does not
+    Map<Integer, String> more = new TreeMap<Integer, String>();
+    more.put(5000, "x");
+    more.put(5001, "y");
+    ints.loadSorted(more.entrySet().iterator(), false);
+    assertEquals((Integer) 5001, ints.lastKey());
+    assertThrows(IllegalArgumentException.class,
+        () -> ints.loadSorted(more.entrySet().stream(), false));
+    assertEquals(1002, ints.size());
+  }
+
+  @Test
+  public void testLoadSortedVerify() {
+    setup();
+    Integer[] keys = {1, 2, 3, 3, 4};
+    String[] values = {"a", "b", "c", "d", "e"};
+    assertThrows(IllegalArgumentException.class, () -> ints.loadSorted(keys, values, true));
+    // a failed load leaves the list as it was
+    assertEquals(0, ints.size());
+    assertFalse(ints.keys().hasNext());
+  }
+
+  @Test
+  public void testSetAllRemoveAll() {
+    setup();
+    TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+    for (int round = 0; round < 50; round++) {
+      // a sorted batch of random keys, some already there and some not
+      TreeMap<Integer, String> batch = new TreeMap<Integer, String>();
+      for (int i = random.nextInt(100); i > 0; i--) {
+        int key = random.nextInt(1000);
+        batch.put(key, value(key) + round);
+      }
+      ints.setAll(batch.entrySet());
+      expected.putAll(batch);
+      // and a sorted batch to remove
+      TreeMap<Integer, String> gone = new TreeMap<Integer, String>();
+      for (int i = random.nextInt(100); i > 0; i--) {
+        int key = random.nextInt(1000);
+        gone.put(key, null);
+      }
+      int removed = 0;
+      for (Integer key : gone.keySet()) {
+        if (expected.remove(key) != null) {
+          removed++;
+        }
+      }
+      assertEquals(removed, ints.removeAll(gone.keySet()));
+      assertEquals(expected.size(), ints.size());
+    }
+    Iterator<Integer> keys = ints.keys();
+    for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+      assertEquals(entry.getKey(), keys.next());
+      assertEquals(entry.getValue(), ints.get(entry.getKey()));
+    }
+    assertFalse(keys.hasNext());
+    // keys out of order still work
+    ints.setAll(Arrays.asList(new SimpleEntry<Integer, String>(5000, "a"),
+        new SimpleEntry<Integer, String>(-5, "b")));
+    assertEquals("a", ints.get(5000));
+    assertEquals("b", ints.get(-5));
+  }
+
+  // +-------------------+-----------------------------------------------
+  // | Node Height Tests |
+  // +-------------------+
+
+  @Test
+  public void testLevelDistribution() {
+    // a power of 1/2 counts trailing zeros; anything else inverts the distribution
+    for (double prob : new double[] {0.5, 0.25, 0.3}) {
+      LevelGenerator levels = new LevelGenerator(prob, 207);
+      int[] counts = new int[65];
+      int n = 200000;
+      for (int i = 0; i < n; i++) {
+        counts[levels.next(64)]++;
+      }
+      assertEquals(0, counts[0]);
+      // about n * (1 - prob) nodes of height 1, and a factor of prob fewer at each height after
+      assertEquals(1 - prob, counts[1] / (double) n, 0.01);
+      assertEquals(prob * (1 - prob), counts[2] / (double) n, 0.01);
+    }
+    assertEquals(3, new LevelGenerator(0.5, 1).level(0, 3));
+    assertThrows(IllegalArgumentException.class, () -> new LevelGenerator(1.0));
+  }
+
+  @Test
+  public void testSeededListsMatch() {
+    SkipList<Integer, String> a = new SkipList<Integer, String>((i, j) -> i - j, 207);
+    SkipList<Integer, String> b = new SkipList<Integer, String>((i, j) -> i - j, 207);
+    for (int i = 0; i < 500; i++) {
+      a.set(i * 7 % 500, "x");
+      b.set(i * 7 % 500, "x");
+    }
+    // dump shows the height of every node
+    StringWriter dumpA = new StringWriter();
+    StringWriter dumpB = new StringWriter();
+    a.dump(new PrintWriter(dumpA));
+    b.dump(new PrintWriter(dumpB));
+    assertEquals(dumpA.toString(), dumpB.toString());
+  }
+
+  @Test
+  public void testFrontGrowsPastSixteen() {
+    SkipList<Integer, Integer> big = new SkipList<Integer, Integer>((i, j) -> i - j, 207);
+    int n = 1 << 18;
+    for (int i = 0; i < n; i++) {
+      big.set(i, i);
+    }
+    // the old front stopped at 16 levels; a list this size wants 18 or so
+    assertTrue(big.height > 16);
+    assertTrue(big.front.getHeight() >= big.height);
+    for (int i = 0; i < n; i += 997) {
+      assertEquals((Integer) i, big.get(i));
+    }
+    // lookups still take about one step per level, not a walk along the top
+    int[] counts = new int[2];
+    big.findNode(n - 1, counts);
+    assertTrue(counts[0] < 4 * big.height);
+  }
+
+  @Test
+  public void testHeightFollowsLogOfSize() {
+    SkipList<Integer, Integer> list = new SkipList<Integer, Integer>((i, j) -> i - j, 207);
+    int n = 0;
+    for (int checkpoint = 16; checkpoint <= 1 << 16; checkpoint *= 4) {
+      while (n < checkpoint) {
+        list.set(n, n);
+        n++;
+      }
+      // no node is taller than log base 2 of the size plus the headroom, and the tallest is
+      // not far below log base 2 of the size
+      double log = Math.log(n) / Math.log(2);
+      assertTrue(list.height <= SkipList.maxLevel(n, 0.5));
+      assertTrue(list.height >= log - 3);
+      assertTrue(list.front.getHeight() <= 2 * SkipList.maxLevel(n, 0.5));
+    }
+  }
+
+  @Test
+  public void testFrontShrinksWhenDrained() {
+    setup();
+    for (int i = 0; i < 10000; i++) {
+      set(i);
+    }
+    assertTrue(ints.front.getHeight() > SkipList.INITIAL_HEIGHT);
+    // half by remove, half by pollFirst
+    for (int i = 0; i < 5000; i++) {
+      remove(i);
+    }
+    while (ints.size() > 0) {
+      ints.pollFirst();
+    }
+    assertEquals(0, ints.height);
+    assertEquals(SkipList.INITIAL_HEIGHT, ints.front.getHeight());
+    // the drained list still works
+    for (int i = 0; i < 100; i++) {
+      set(i);
+    }
+    assertEquals(value(42), ints.get(42));
+    assertTrue(ints.front.getHeight() >= ints.height);
+  }
+
+  @Test
+  public void testBulkUpdatesGrowFront() {
+    int n = 1 << 16;
+    Integer[] keys = new Integer[n];
+    TreeMap<Integer, Integer> batch = new TreeMap<Integer, Integer>();
+    for (int i = 0; i < n; i++) {
+      keys[i] = i;
+      batch.put(i, i);
+    }
+    SkipList<Integer, Integer> loaded = new SkipList<Integer, Integer>((i, j) -> i - j, 207);
+    loaded.loadSorted(keys, keys, true);
+    SkipList<Integer, Integer> batched = new SkipList<Integer, Integer>((i, j) -> i - j, 207);
+    batched.setAll(batch.entrySet());
+    for (SkipList<Integer, Integer> list : Arrays.asList(loaded, batched)) {
+      assertEquals(n, list.size());
+      assertTrue(list.height > SkipList.INITIAL_HEIGHT);
+      assertTrue(list.height <= SkipList.maxLevel(n, 0.5));
+      assertTrue(list.front.getHeight() >= list.height);
+      assertEquals((Integer) (n - 1), list.get(n - 1));
+      assertEquals((Integer) 12345, list.get(12345));
+    }
+  }
+
+  // +--------------+--------------------------------------------------
+  // | Lookup Tests |
+  // +--------------+
+
+  @Test
+  public void testLookupsWithoutExceptions() {
+    setup();
+    // an empty list misses without throwing
+    assertEquals("none", ints.getOrDefault(1, "none"));
+    assertFalse(ints.find(1).isPresent());
+    assertFalse(ints.containsKey(1));
+    for (int i = 0; i < 100; i += 2) {
+      set(i);
+    }
+    ints.set(101, null);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i % 2 == 0, ints.containsKey(i));
+      assertEquals(i % 2 == 0 ? value(i) : "none", ints.getOrDefault(i, "none"));
+      assertEquals(i % 2 == 0, ints.find(i).isPresent());
+    }
+    // a key with a null value is there, but find cannot tell it from a miss
+    assertTrue(ints.containsKey(101));
+    assertEquals(null, ints.getOrDefault(101, "none"));
+    assertFalse(ints.find(101).isPresent());
+    // get still throws for compatibility
+    assertThrows(IndexOutOfBoundsException.class, () -> ints.get(1));
+    assertThrows(NullPointerException.class, () -> ints.getOrDefault(null, "none"));
+  }
+
+  // +---------------------+-------------------------------------------
+  // | Serialization Tests |
+  // +---------------------+
+
+  @Test
+  public void testSerialization() throws IOException {
+    setup();
+    for (int i = 0; i < 1000; i++) {
+      ints.set(i * 3, (i % 10 == 0) ? null : value(i));
+    }
+    // bigger than the buffer
+    char[] big = new char[100000];
+    Arrays.fill(big, 'x');
+    ints.set(5000, new String(big));
+    ByteArrayOutputStream withHeights = new ByteArrayOutputStream();
+    ints.writeTo(withHeights, Codec.INTS, Codec.STRINGS, true);
+    ByteArrayOutputStream withoutHeights = new ByteArrayOutputStream();
+    ints.writeTo(withoutHeights, Codec.INTS, Codec.STRINGS, false);
+    assertEquals(withHeights.size(), withoutHeights.size() + 1001);
+
+    // with heights we get the very same list back
+    SkipList<Integer, String> copy = new SkipList<Integer, String>((x, y) -> x - y);
+    copy.readFrom(new ByteArrayInputStream(withHeights.toByteArray()), Codec.INTS, Codec.STRINGS);
+    StringWriter dumpA = new StringWriter();
+    StringWriter dumpB = new StringWriter();
+    ints.dump(new PrintWriter(dumpA));
+    copy.dump(new PrintWriter(dumpB));
+    assertEquals(dumpA.toString(), dumpB.toString());
+
+    // without them, the same entries
+    copy = new SkipList<Integer, String>((x, y) -> x - y);
+    copy.readFrom(new ByteArrayInputStream(withoutHeights.toByteArray()), Codec.INTS,
+        Codec.STRINGS);
+    Iterator<Integer> keys = copy.keys();
+    Iterator<String> values = copy.values();
+    ints.forEach((key, value) -> {
+      assertEquals(key, keys.next());
+      assertEquals(value, values.next());
+    });
+    assertFalse(keys.hasNext());
+
+    // damaged or short data leaves the list alone
+    byte[] damaged = withoutHeights.toByteArray();
+    damaged[damaged.length / 2] ^= 1;
+    SkipList<Integer, String> empty = new SkipList<Integer, String>((x, y) -> x - y);
+    assertThrows(IOException.class, () -> empty.readFrom(new ByteArrayInputStream(damaged),
+        Codec.INTS, Codec.STRINGS));
+    byte[] shortened = Arrays.copyOf(withHeights.toByteArray(), 3000);
+    assertThrows(IOException.class, () -> empty.readFrom(new ByteArrayInputStream(shortened),
+        Codec.INTS, Codec.STRINGS));
+    assertEquals(0, empty.size());
+    assertFalse(empty.keys().hasNext());
+  }
+
+  // +--------------+--------------------------------------------------
+  // | Stream Tests |
+  // +--------------+
+
+  @Test
+  public void testStreams() {
+    setup();
+    // fixed heights, so that the bound on piece sizes below does not fail by bad luck
+    ints = new SkipList<Integer, String>((i, j) -> i - j, 801);
+    assertEquals(0, ints.keyStream().count());
+    assertEquals(null, ints.spliterator().trySplit());
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 10000; i++) {
+      ints.set(i, value(i));
+      expected.add(i);
+    }
+    assertEquals(expected, ints.keyStream().collect(Collectors.toList()));
+    assertEquals(expected, ints.keyStream().parallel().collect(Collectors.toList()));
+    assertEquals(new SimpleEntry<Integer, String>(42, value(42)),
+        ints.stream().skip(42).findFirst().get());
+    assertEquals(ints.valueStream().collect(Collectors.toList()),
+        ints.stream().parallel().map(Map.Entry::getValue).collect(Collectors.toList()));
+
+    Spliterator<Map.Entry<Integer, String>> all = ints.spliterator();
+    assertTrue(all.hasCharacteristics(Spliterator.SIZED | Spliterator.SORTED));
+    assertEquals(10000, all.getExactSizeIfKnown());
+    assertTrue(all.getComparator().compare(new SimpleEntry<Integer, String>(5, ""),
+        new SimpleEntry<Integer, String>(2, "")) > 0);
+    // split into pieces; in order, they hold every node once
+    ArrayList<Spliterator<Map.Entry<Integer, String>>> pieces =
+        new ArrayList<Spliterator<Map.Entry<Integer, String>>>();
+    pieces.add(all);
+    for (int round = 0; round < 4; round++) {
+      ArrayList<Spliterator<Map.Entry<Integer, String>>> next =
+          new ArrayList<Spliterator<Map.Entry<Integer, String>>>();
+      for (Spliterator<Map.Entry<Integer, String>> piece : pieces) {
+        Spliterator<Map.Entry<Integer, String>> prefix = piece.trySplit();
+        if (prefix != null) {
+          next.add(prefix);
+        }
+        next.add(piece);
+      }
+      pieces = next;
+    }
+    assertEquals(16, pieces.size());
+    ArrayList<Integer> seen = new ArrayList<Integer>();
+    for (Spliterator<Map.Entry<Integer, String>> piece : pieces) {
+      assertFalse(piece.hasCharacteristics(Spliterator.SIZED));
+      int before = seen.size();
+      piece.forEachRemaining((entry) -> seen.add(entry.getKey()));
+      // no piece is much more than twice its share
+      assertTrue(seen.size() - before < 10000 / 8);
+    }
+    assertEquals(expected, seen);
+
+    // a split after tryAdvance cuts only what is left
+    Spliterator<Integer> advanced = ints.keyStream().spliterator();
+    for (int i = 0; i < 9000; i++) {
+      assertTrue(advanced.tryAdvance((key) -> { }));
+    }
+    Spliterator<Integer> rest = advanced.trySplit();
+    assertNotNull(rest);
+    seen.clear();
+    rest.forEachRemaining(seen::add);
+    assertTrue(seen.size() > 0);
+    advanced.forEachRemaining(seen::add);
+    assertEquals(expected.subList(9000, 10000), seen);
+
+    AtomicLong sum = new AtomicLong();
+    ints.parallelForEach((key, value) -> sum.addAndGet(key));
+    assertEquals(9999L * 10000 / 2, sum.get());
+  }
+
+  // +-----------------+-----------------------------------------------
+  // | Rendering Tests |
+  // +-----------------+
+
+  @Test
+  public void testRendering() throws IOException {
+    setup();
+    assertEquals("", ints.toString());
+    for (int i = 0; i < 5; i++) {
+      set(i);
+    }
+    ints.set(5, null);
+    assertEquals(", (0 " + value(0) + "), (1 " + value(1) + "), (2 " + value(2) + "), (3 "
+        + value(3) + "), (4 " + value(4) + "), (5 null)", ints.toString());
+    assertEquals(", (0 " + value(0) + "), (1 " + value(1) + "), ...", ints.toString(2));
+    assertEquals(ints.toString(), ints.toString(6));
+    StringWriter range = new StringWriter();
+    ints.appendTo(range, 2, 4, 10);
+    assertEquals(", (2 " + value(2) + "), (3 " + value(3) + ")", range.toString());
+    range = new StringWriter();
+    ints.appendTo(range, 3, null, 1);
+    assertEquals(", (3 " + value(3) + "), ...", range.toString());
+
+    // a big list renders in linear time
+    SkipList<Integer, Integer> big = new SkipList<Integer, Integer>((x, y) -> x - y);
+    Integer[] keys = new Integer[1000000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i;
+    }
+    big.loadSorted(keys, keys, false);
+    String all = big.toString();
+    assertTrue(all.startsWith(", (0 0), (1 1)"));
+    assertTrue(all.endsWith(", (999999 999999)"));
+
+    // a limited dump shows that many nodes and a row of dots
+    StringWriter dumped = new StringWriter();
+    big.dump(new PrintWriter(dumped), 3);
+    String[] lines = dumped.toString().split("\n");
+    assertEquals(2 + 3 * 2 + 2, lines.length);
+    assertEquals("           ...", lines[lines.length - 2]);
+  }
+
+  // +-----------------------+-----------------------------------------
+  // | Iterator Remove Tests |
+  // +-----------------------+
+
+  @Test
+  public void testIteratorRemove() {
+    Random random = new Random(223);
+    SkipList<Integer, Integer> list = new SkipList<Integer, Integer>((i, j) -> i - j);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int i = 0; i < 3000; i++) {
+      int key = random.nextInt(10000);
+      list.set(key, i);
+      expected.put(key, i);
+    }
+
+    // remove through keys() and values(), with changes made around the iterator now and then
+    Iterator<Integer> keys = list.keys();
+    while (keys.hasNext()) {
+      int key = keys.next();
+      if (key % 3 == 0) {
+        keys.remove();
+        expected.remove(key);
+        assertThrows(IllegalStateException.class, () -> keys.remove());
+      } else if (key % 101 == 0) {
+        list.set(key + 1, -1);
+        expected.put(key + 1, -1);
+        list.remove(key - 1);
+        expected.remove(key - 1);
+        keys.remove();
+        expected.remove(key);
+      }
+    }
+    Iterator<Integer> values = list.values();
+    while (values.hasNext()) {
+      if (values.next() % 2 == 0) {
+        values.remove();
+      }
+    }
+    expected.values().removeIf((value) -> value % 2 == 0);
+
+    assertTrue(list.removeIf((key, value) -> key % 5 == 0));
+    assertFalse(list.removeIf((key, value) -> key % 5 == 0));
+    expected.keySet().removeIf((key) -> key % 5 == 0);
+
+    // every level must still be right, since searches use them all
+    assertEquals(expected.size(), list.size());
+    assertEquals(new ArrayList<Integer>(expected.keySet()),
+        list.keyStream().collect(Collectors.toList()));
+    for (int key = -1; key <= 10001; key++) {
+      assertEquals(expected.get(key), list.getOrDefault(key, null));
+      assertEquals(expected.ceilingKey(key), list.ceilingKey(key));
+    }
+    assertTrue(list.removeIf((key, value) -> true));
+    assertEquals(0, list.size());
+    assertNull(list.firstKey());
+    list.set(1, 1);
+    assertEquals(Integer.valueOf(1), list.get(1));
+  }
+
+  // +-----------------------+-----------------------------------------
+  // | Queue Operation Tests |
+  // +-----------------------+
+
+  @Test
+  public void testQueueOperations() {
+    Random random = new Random(225);
+    SkipList<Integer, Integer> list = new SkipList<Integer, Integer>((i, j) -> i - j);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    assertNull(list.peekFirst());
+    assertNull(list.pollLast());
+    // every way of linking and unlinking nodes must keep the tail right
+    for (int i = 0; i < 20000; i++) {
+      int key = random.nextInt(400);
+      switch (random.nextInt(8)) {
+        case 0:
+          assertEquals(expected.pollFirstEntry(), list.pollFirst());
+          break;
+        case 1:
+          assertEquals(expected.pollLastEntry(), list.pollLast());
+          break;
+        case 2:
+          assertEquals(expected.remove(key), list.remove(key));
+          break;
+        case 3:
+          list.removeAll(Arrays.asList(key, key + 1));
+          expected.remove(key);
+          expected.remove(key + 1);
+          break;
+        case 4:
+          Iterator<Integer> keys = list.keys();
+          while (keys.hasNext()) {
+            if (keys.next() > key) {
+              keys.remove();
+            }
+          }
+          expected.tailMap(key, false).clear();
+          break;
+        case 5:
+          int next = (list.lastKey() == null) ? 0 : list.lastKey() + 1;
+          list.loadSorted(Arrays.asList(new SimpleEntry<Integer, Integer>(next, i)).iterator(),
+              true);
+          expected.put(next, i);
+          break;
+        case 6:
+          list.setAll(Arrays.asList(new SimpleEntry<Integer, Integer>(key, i)));
+          expected.put(key, i);
+          break;
+        default:
+          assertEquals(expected.put(key, i), list.set(key, i));
+      }
+      assertEquals(expected.firstEntry(), list.peekFirst());
+      assertEquals(expected.lastEntry(), list.peekLast());
+      assertEquals(expected.size(), list.size());
+    }
+
+    // drain from both ends
+    while (!expected.isEmpty()) {
+      assertEquals(expected.pollLastEntry(), list.pollLast());
+      assertEquals(expected.pollFirstEntry(), list.pollFirst());
+    }
+    assertNull(list.lastKey());
+    assertEquals(0, list.size());
+    list.set(7, 7);
+    assertEquals(Integer.valueOf(7), list.lastKey());
+  }
+
+  // +----------------+------------------------------------------------
+  // | Snapshot Tests |
+  // +----------------+
+
+  @Test
+  public void testSnapshots() {
+    Random random = new Random(222);
+    SkipList<Integer, String> list = new SkipList<Integer, String>((i, j) -> i - j);
+    for (int i = 0; i < 2000; i += 2) {
+      list.set(i, (i % 10 == 0) ? null : "v" + i);
+    }
+    TreeMap<Integer, String> before = new TreeMap<Integer, String>();
+    list.forEach(before::put);
+    SkipListSnapshot<Integer, String> snapshot = list.snapshot();
+    assertThrows(UnsupportedOperationException.class, () -> snapshot.set(1, "one"));
+    assertEquals(0, snapshot.versionCount());
+
+    // change the list through every path while a scan is under way
+    Iterator<Map.Entry<Integer, String>> scan = snapshot.entries();
+    Iterator<Map.Entry<Integer, String>> expected = before.entrySet().iterator();
+    TreeMap<Integer, String> after = new TreeMap<Integer, String>(before);
+    for (int i = 0; i < 300; i++) {
+      Map.Entry<Integer, String> entry = scan.next();
+      assertEquals(expected.next(), entry);
+      int key = random.nextInt(2100);
+      if (random.nextBoolean()) {
+        assertEquals(after.put(key, "w" + i), list.set(key, "w" + i));
+      } else {
+        assertEquals(after.remove(key), list.remove(key));
+      }
+    }
+    ArrayList<Map.Entry<Integer, String>> batch = new ArrayList<Map.Entry<Integer, String>>();
+    batch.add(new SimpleEntry<Integer, String>(3, "three"));
+    batch.add(new SimpleEntry<Integer, String>(4, "four"));
+    list.setAll(batch);
+    list.removeAll(Arrays.asList(6, 8, 9));
+    list.loadSorted(Arrays.asList(new SimpleEntry<Integer, String>(5000, "end")).iterator(),
+        true);
+    while (expected.hasNext()) {
+      assertEquals(expected.next(), scan.next());
+    }
+    assertFalse(scan.hasNext());
+
+    // lookups and a fresh scan see the old map; the list sees the new one
+    assertEquals(before.size(), snapshot.size());
+    for (int key = -1; key < 2100; key++) {
+      assertEquals(before.containsKey(key), snapshot.containsKey(key));
+      assertEquals(before.get(key), snapshot.getOrDefault(key, null));
+      if (!before.containsKey(key)) {
+        int missing = key;
+        assertThrows(IndexOutOfBoundsException.class, () -> snapshot.get(missing));
+      }
+    }
+    assertFalse(snapshot.containsKey(5000));
+    Iterator<Integer> keys = snapshot.keys();
+    for (Integer key : before.keySet()) {
+      assertEquals(key, keys.next());
+    }
+    assertFalse(keys.hasNext());
+    assertTrue(list.containsKey(5000));
+    assertEquals("three", list.get(3));
+
+    // a second snapshot keeps its own versions, and closing frees them
+    SkipListSnapshot<Integer, String> second = list.snapshot();
+    list.set(5000, "changed");
+    assertEquals("end", second.get(5000));
+    assertFalse(snapshot.containsKey(5000));
+    assertTrue(snapshot.versionCount() > 0);
+    snapshot.close();
+    second.close();
+    assertTrue(list.snapshots.isEmpty());
+    assertThrows(IllegalStateException.class, () -> snapshot.keys());
+    list.set(5000, "again");
+    assertEquals("again", list.get(5000));
+  }
+
+  // +------------------+----------------------------------------------
+  // | Comparator Tests |
+  // +------------------+
+
+  @Test
+  public void testNaturalOrderAndPrefixes() {
+    Random random = new Random(221);
+    // strings with shared beginnings and characters past Latin-1
+    String[] pieces = {"a", "ab", "\u00fe", "\u00ff", "\u0100", "\u4e2d", "key000", "z"};
+    ArrayList<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 3000; i++) {
+      StringBuilder key = new StringBuilder();
+      for (int j = random.nextInt(5); j >= 0; j--) {
+        key.append(pieces[random.nextInt(pieces.length)]);
+      }
+      keys.add(key.toString());
+    }
+
+    // the prefixes of sorted strings never go down
+    ArrayList<String> sorted = new ArrayList<String>(keys);
+    sorted.sort(null);
+    for (int i = 1; i < sorted.size(); i++) {
+      assertTrue(Long.compareUnsigned(SkipList.stringPrefix(sorted.get(i - 1)),
+          SkipList.stringPrefix(sorted.get(i))) <= 0);
+    }
+
+    ArrayList<SkipList<String, Integer>> lists = new ArrayList<SkipList<String, Integer>>();
+    lists.add(SkipList.<String, Integer>naturalOrder());
+    lists.add(SkipList.<String, Integer>naturalOrder(SkipList::stringPrefix));
+    lists.add(new SkipList<String, Integer>(String::compareTo, SkipList::stringPrefix));
+    for (SkipList<String, Integer> list : lists) {
+      TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+      for (int i = 0; i < keys.size(); i++) {
+        String key = keys.get(random.nextInt(keys.size()));
+        if (random.nextInt(4) == 0) {
+          assertEquals(expected.remove(key), list.remove(key));
+        } else {
+          assertEquals(expected.put(key, i), list.set(key, i));
+        }
+      }
+      assertEquals(expected.size(), list.size());
+      assertEquals(new ArrayList<String>(expected.keySet()),
+          list.keyStream().collect(Collectors.toList()));
+      for (String key : keys) {
+        assertEquals(expected.get(key), list.getOrDefault(key, null));
+        assertEquals(expected.floorKey(key), list.floorKey(key));
+        assertEquals(expected.higherKey(key), list.higherKey(key));
+      }
+    }
+
+    // Integer keys with the whole key as the prefix
+    SkipList<Integer, Integer> numbers = SkipList.naturalOrder((i) -> i ^ Long.MIN_VALUE);
+    for (int i = -500; i < 500; i += 3) {
+      numbers.set(i, i);
+    }
+    assertEquals(Integer.valueOf(-2), numbers.ceilingKey(-4));
+    assertEquals(Integer.valueOf(-5), numbers.floorKey(-4));
+    assertTrue(numbers.containsKey(-500));
+    assertFalse(numbers.containsKey(-499));
+  }
+
+  // +---------------+-------------------------------------------------
+  // | Metrics Tests |
+  // +---------------+
+
+  @Test
+  public void testMetrics() {
+    setup();
+    assertEquals(null, ints.metrics());
+    SkipListMetrics metrics = ints.enableMetrics();
+    for (int i = 0; i < 1000; i++) {
+      set(i);
+    }
+    for (int i = 0; i < 2000; i++) {
+      ints.containsKey(i);
+    }
+    for (int i = 0; i < 100; i++) {
+      remove(i);
+    }
+    SkipListMetrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(900, snapshot.size);
+    assertEquals(1000, snapshot.setNanos.count());
+    assertEquals(2000, snapshot.lookupNanos.count());
+    assertEquals(100, snapshot.removeSteps.count());
+    // a lookup makes at least one comparison per level and follows about one link per level
+    assertTrue(snapshot.comparisons.mean() >= 1);
+    assertTrue(snapshot.lookupSteps.mean() < 4 * snapshot.height);
+    assertTrue(snapshot.lookupNanos.percentile(0.99) >= snapshot.lookupNanos.percentile(0.5));
+    // every node reaches level 0, and each level has no more nodes than the one below it
+    assertEquals(snapshot.height, snapshot.levelOccupancy.length);
+    assertEquals(900, snapshot.levelOccupancy[0]);
+    for (int i = 1; i < snapshot.levelOccupancy.length; i++) {
+      assertTrue(snapshot.levelOccupancy[i] <= snapshot.levelOccupancy[i - 1]);
+    }
+    metrics.reset();
+    assertEquals(0, metrics.getLookups());
+    // once disabled, nothing is recorded
+    ints.disableMetrics();
+    ints.get(500);
+    assertEquals(0, metrics.getLookups());
+  }
+
+  @Test
+  public void testLevelOccupancyFollowsChanges() {
+    setup();
+    for (int i = 0; i < 500; i++) {
+      set(i);
+    }
+    // counts start from the nodes already there
+    SkipListMetrics metrics = ints.enableMetrics();
+    assertEquals(500, metrics.getLevelOccupancy()[0]);
+    for (int i = 500; i < 1000; i++) {
+      set(i);
+    }
+    for (int i = 0; i < 1000; i += 3) {
+      remove(i);
+    }
+    ints.pollFirst();
+    ints.pollLast();
+    Iterator<Integer> keys = ints.keys();
+    while (keys.hasNext()) {
+      if (keys.next() % 7 == 0) {
+        keys.remove();
+      }
+    }
+    long[] kept = metrics.getLevelOccupancy();
+    assertEquals(ints.size(), kept[0]);
+    // a fresh count, taken by walking the list, agrees with the running one
+    ints.disableMetrics();
+    assertEquals(Arrays.toString(kept), Arrays.toString(ints.enableMetrics().getLevelOccupancy()));
+  }
+
 /**
  * Get help from Sam Rebelsky when we tried to print out results of different sizes
  * 
@@ -531,6 +1348,7 @@ public class SkipListTests {
  *      * https://docs.google.com/spreadsheets/d/1rZ7UJOYjovWjcNonbjNuqwHlYIx8EVME1GFxAK4q2QM/edit?usp=sharing 
  * 
  */
+  @SuppressWarnings("deprecation")
   public static void main(String[] args) {
     SkipListTests slt = new SkipListTests();
 
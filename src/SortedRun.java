@@ -0,0 +1,442 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable file of entries in key order, for SkipListStore.
+ *
+ * Keys and values are bytes; keys are in unsigned byte order. A value may also be null, or
+ * TOMBSTONE, which says the key was removed. The file is a series of blocks of about
+ * BLOCK_SIZE bytes of entries, then an index holding the first key and offset of each block,
+ * then a Bloom filter of the keys, then a footer saying where those are. Opening a run reads
+ * the index and the filter into memory, so a lookup checks the filter, binary searches the
+ * index and reads one block.
+ */
+public class SortedRun implements Closeable {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The value that marks a removed key.
+   */
+  public static final Object TOMBSTONE = new Object() {
+    @Override
+    public String toString() {
+      return "TOMBSTONE";
+    } // toString()
+  };
+
+  /**
+   * What get returns for a key whose value is null, since null means "not here".
+   */
+  public static final Object NULL_VALUE = new Object() {
+    @Override
+    public String toString() {
+      return "NULL_VALUE";
+    } // toString()
+  };
+
+  static final int BLOCK_SIZE = 4096;
+  static final int BITS_PER_KEY = 10;
+  static final int HASHES = 7;
+  static final long MAGIC_NUMBER = 0x534b495052554e31L; // "SKIPRUN1"
+  static final int FOOTER = 8 + 8 + 8 + 4 + 4 + 8;
+
+  /**
+   * Value lengths that stand for null and TOMBSTONE.
+   */
+  static final int NULL_LENGTH = -1;
+  static final int TOMBSTONE_LENGTH = -2;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  final Path file;
+  final FileChannel channel;
+
+  /**
+   * The first key of each block, and where each block starts (with one extra offset, for the
+   * end of the last block).
+   */
+  final byte[][] firstKeys;
+  final long[] offsets;
+
+  /**
+   * The Bloom filter.
+   */
+  final long[] bloom;
+
+  /**
+   * The number of entries, tombstones included.
+   */
+  final long count;
+
+  /**
+   * Lookups and iterators that are using the file (or -1 once it is closed for good), and
+   * whether it is to be closed once they are done.
+   */
+  final AtomicInteger users = new AtomicInteger();
+  volatile boolean retired;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  SortedRun(Path file, FileChannel channel, byte[][] firstKeys, long[] offsets, long[] bloom,
+      long count) {
+    this.file = file;
+    this.channel = channel;
+    this.firstKeys = firstKeys;
+    this.offsets = offsets;
+    this.bloom = bloom;
+    this.count = count;
+  } // SortedRun(Path, FileChannel, byte[][], long[], long[], long)
+
+  /**
+   * Write entries, which must be in strictly increasing key order, to a new file, force it, and
+   * open it. count is the number of entries, or an estimate, for sizing the filter.
+   */
+  public static SortedRun write(Path file, Iterator<? extends Map.Entry<byte[], Object>> entries,
+      long count) throws IOException {
+    long[] bloom = new long[(int) Math.max(1, (Math.max(count, 1) * BITS_PER_KEY + 63) / 64)];
+    ArrayList<byte[]> firstKeys = new ArrayList<byte[]>();
+    ArrayList<Long> offsets = new ArrayList<Long>();
+    long written = 0;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+      long position = 0;
+      long blockStart = -BLOCK_SIZE;
+      byte[] previous = null;
+      while (entries.hasNext()) {
+        Map.Entry<byte[], Object> entry = entries.next();
+        byte[] key = entry.getKey();
+        if (previous != null && Arrays.compareUnsigned(previous, key) >= 0) {
+          throw new IllegalArgumentException("keys out of order");
+        } // if
+        previous = key;
+        if (position - blockStart >= BLOCK_SIZE) {
+          blockStart = position;
+          firstKeys.add(key);
+          offsets.add(position);
+        } // if
+        Object value = entry.getValue();
+        out.writeInt(key.length);
+        out.write(key);
+        if (value == TOMBSTONE) {
+          out.writeInt(TOMBSTONE_LENGTH);
+        } else if (value == null) {
+          out.writeInt(NULL_LENGTH);
+        } else {
+          byte[] bytes = (byte[]) value;
+          out.writeInt(bytes.length);
+          out.write(bytes);
+          position += bytes.length;
+        } // if/else
+        position += 8 + key.length;
+        addToBloom(bloom, key);
+        written++;
+      } // while
+      long indexOffset = position;
+      for (int b = 0; b < firstKeys.size(); b++) {
+        out.writeInt(firstKeys.get(b).length);
+        out.write(firstKeys.get(b));
+        out.writeLong(offsets.get(b));
+      } // for
+      long bloomOffset = indexOffset;
+      for (byte[] key : firstKeys) {
+        bloomOffset += 4 + key.length + 8;
+      } // for
+      for (long bits : bloom) {
+        out.writeLong(bits);
+      } // for
+      out.writeLong(indexOffset);
+      out.writeLong(bloomOffset);
+      out.writeLong(written);
+      out.writeInt(firstKeys.size());
+      out.writeInt(bloom.length);
+      out.writeLong(MAGIC_NUMBER);
+      out.flush();
+      channel.force(true);
+    } // try
+    return open(file);
+  } // write(Path, Iterator, long)
+
+  /**
+   * Open a run, reading its index and filter.
+   *
+   * @throws IOException if the file cannot be read or is not a run.
+   */
+  public static SortedRun open(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size < FOOTER) {
+        throw new IOException(file + " is not a sorted run");
+      } // if
+      ByteBuffer footer = read(channel, size - FOOTER, FOOTER);
+      long indexOffset = footer.getLong();
+      long bloomOffset = footer.getLong();
+      long count = footer.getLong();
+      int blocks = footer.getInt();
+      int bloomLongs = footer.getInt();
+      if (footer.getLong() != MAGIC_NUMBER) {
+        throw new IOException(file + " is not a sorted run");
+      } // if
+      ByteBuffer index = read(channel, indexOffset, (int) (bloomOffset - indexOffset));
+      byte[][] firstKeys = new byte[blocks][];
+      long[] offsets = new long[blocks + 1];
+      for (int b = 0; b < blocks; b++) {
+        firstKeys[b] = new byte[index.getInt()];
+        index.get(firstKeys[b]);
+        offsets[b] = index.getLong();
+      } // for
+      offsets[blocks] = indexOffset;
+      long[] bloom = new long[bloomLongs];
+      read(channel, bloomOffset, 8 * bloomLongs).asLongBuffer().get(bloom);
+      return new SortedRun(file, channel, firstKeys, offsets, bloom, count);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    } // try/catch
+  } // open(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Look up a key. Returns null if the run has no entry for it, TOMBSTONE if it was removed,
+   * NULL_VALUE if its value is null, and the bytes of its value otherwise.
+   */
+  public Object get(byte[] key) throws IOException {
+    if (!mightContain(key)) {
+      return null;
+    } // if
+    int block = blockFor(key);
+    if (block < 0) {
+      return null;
+    } // if
+    ByteBuffer entries = readBlock(block);
+    while (entries.hasRemaining()) {
+      byte[] candidate = new byte[entries.getInt()];
+      entries.get(candidate);
+      int order = Arrays.compareUnsigned(candidate, key);
+      int length = entries.getInt();
+      if (order == 0) {
+        return (length == TOMBSTONE_LENGTH) ? TOMBSTONE
+            : (length == NULL_LENGTH) ? NULL_VALUE : bytes(entries, length);
+      } else if (order > 0) {
+        return null;
+      } // if/else
+      if (length > 0) {
+        entries.position(entries.position() + length);
+      } // if
+    } // while
+    return null;
+  } // get(byte[])
+
+  /**
+   * Iterate the entries in order. Values are bytes, null or TOMBSTONE. Reading errors come out as
+   * UncheckedIOException.
+   */
+  public Iterator<Map.Entry<byte[], Object>> iterator() {
+    return new Iterator<Map.Entry<byte[], Object>>() {
+      int block = 0;
+      ByteBuffer entries = ByteBuffer.allocate(0);
+
+      @Override
+      public boolean hasNext() {
+        while (!this.entries.hasRemaining() && this.block < SortedRun.this.firstKeys.length) {
+          try {
+            this.entries = readBlock(this.block++);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          } // try/catch
+        } // while
+        return this.entries.hasRemaining();
+      } // hasNext()
+
+      @Override
+      public Map.Entry<byte[], Object> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        byte[] key = new byte[this.entries.getInt()];
+        this.entries.get(key);
+        int length = this.entries.getInt();
+        Object value = (length == TOMBSTONE_LENGTH) ? TOMBSTONE
+            : (length == NULL_LENGTH) ? null : bytes(this.entries, length);
+        return new SimpleImmutableEntry<byte[], Object>(key, value);
+      } // next()
+    };
+  } // iterator()
+
+  /**
+   * The number of entries, tombstones included.
+   */
+  public long count() {
+    return this.count;
+  } // count()
+
+  /**
+   * The size of the file.
+   */
+  public long bytes() throws IOException {
+    return this.channel.size();
+  } // bytes()
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  } // close()
+
+  /**
+   * Say that someone is about to read the run. Returns false if it has been retired and closed.
+   */
+  boolean acquire() {
+    while (true) {
+      int count = this.users.get();
+      if (count < 0) {
+        return false;
+      } else if (this.users.compareAndSet(count, count + 1)) {
+        return true;
+      } // if/else
+    } // while
+  } // acquire()
+
+  /**
+   * Say that a reader is done; close the file if it was the last one of a retired run.
+   */
+  void release() {
+    if (this.users.decrementAndGet() == 0 && this.retired) {
+      closeIfUnused();
+    } // if
+  } // release()
+
+  /**
+   * Delete the file, and close it once nobody is reading the run. Anyone who tries to read it
+   * afterwards is refused by acquire.
+   */
+  void retire() throws IOException {
+    this.retired = true;
+    Files.deleteIfExists(this.file);
+    closeIfUnused();
+  } // retire()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Close the file if there are no readers, marking it so that there never will be.
+   */
+  void closeIfUnused() {
+    if (this.users.compareAndSet(0, -1)) {
+      try {
+        close();
+      } catch (IOException e) {
+        // nothing more we can do
+      } // try/catch
+    } // if
+  } // closeIfUnused()
+
+  /**
+   * Find the last block whose first key is not after key, or -1 if key is before them all.
+   */
+  int blockFor(byte[] key) {
+    int low = 0;
+    int high = this.firstKeys.length - 1;
+    int result = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (Arrays.compareUnsigned(this.firstKeys[mid], key) <= 0) {
+        result = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      } // if/else
+    } // while
+    return result;
+  } // blockFor(byte[])
+
+  ByteBuffer readBlock(int block) throws IOException {
+    return read(this.channel, this.offsets[block],
+        (int) (this.offsets[block + 1] - this.offsets[block]));
+  } // readBlock(int)
+
+  static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("unexpected end of file");
+      } // if
+    } // while
+    buffer.flip();
+    return buffer;
+  } // read(FileChannel, long, int)
+
+  static byte[] bytes(ByteBuffer buffer, int length) {
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  } // bytes(ByteBuffer, int)
+
+  boolean mightContain(byte[] key) {
+    long hash = hash(key);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    long bits = 64L * this.bloom.length;
+    for (int i = 0; i < HASHES; i++) {
+      long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+      if ((this.bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // mightContain(byte[])
+
+  static void addToBloom(long[] bloom, byte[] key) {
+    long hash = hash(key);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    long bits = 64L * bloom.length;
+    for (int i = 0; i < HASHES; i++) {
+      long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+      bloom[(int) (bit >>> 6)] |= 1L << bit;
+    } // for
+  } // addToBloom(long[], byte[])
+
+  /**
+   * A 64-bit hash of some bytes: FNV-1a, then the SplitMix64 finalizer to spread the bits.
+   */
+  static long hash(byte[] key) {
+    long h = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+    } // for
+    h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+    h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+    return h ^ (h >>> 31);
+  } // hash(byte[])
+
+} // class SortedRun
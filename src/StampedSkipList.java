@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A thread-safe view of a SkipList for read-mostly workloads.
+ *
+ * Writers take an exclusive lock and run the ordinary single-threaded SkipList code. Readers
+ * traverse the list without taking any lock and then check that no writer ran in the meantime;
+ * only if one did do they try again under a shared read lock. A writer only ever changes a link to
+ * point at a node that is already fully built, so an optimistic reader that races with it may see
+ * stale links, or fail with a RuntimeException, but can never loop forever, and the failed stamp
+ * check makes us throw that result away.
+ *
+ * The wrapped list must not be used directly once it has been wrapped.
+ */
+public class StampedSkipList<K, V> implements SimpleMap<K, V> {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * What a lookup finds for a key that is not there.
+   */
+  static final Object ABSENT = new Object();
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The list we protect.
+   */
+  final SkipList<K, V> list;
+
+  /**
+   * Writers hold this exclusively; readers validate against it.
+   */
+  final StampedLock lock = new StampedLock();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Wrap an existing skip list.
+   */
+  public StampedSkipList(SkipList<K, V> list) {
+    this.list = list;
+  } // StampedSkipList(SkipList<K, V>)
+
+  /**
+   * Create a new, empty, skip list that orders values using the specified comparator.
+   */
+  public StampedSkipList(Comparator<K> comparator) {
+    this(new SkipList<K, V>(comparator));
+  } // StampedSkipList(Comparator<K>)
+
+  // +-------------------+-------------------------------------------
+  // | SimpleMap methods |
+  // +-------------------+
+
+  @Override
+  public V set(K key, V value) {
+    long stamp = this.lock.writeLock();
+    try {
+      return this.list.set(key, value);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/finally
+  } // set(K,V)
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(K key) {
+    Object value = lookup(key);
+    if (value == ABSENT) {
+      throw new IndexOutOfBoundsException("The key was not found.");
+    } // if
+    return (V) value;
+  } // get(K)
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(K key, V defaultValue) {
+    Object value = lookup(key);
+    return (value == ABSENT) ? defaultValue : (V) value;
+  } // getOrDefault(K, V)
+
+  @Override
+  public int size() {
+    long stamp = this.lock.tryOptimisticRead();
+    int size = this.list.size();
+    if (this.lock.validate(stamp)) {
+      return size;
+    } // if
+    stamp = this.lock.readLock();
+    try {
+      return this.list.size();
+    } finally {
+      this.lock.unlockRead(stamp);
+    } // try/finally
+  } // size()
+
+  @Override
+  public boolean containsKey(K key) {
+    return lookup(key) != ABSENT;
+  } // containsKey(K)
+
+  @Override
+  public V remove(K key) {
+    long stamp = this.lock.writeLock();
+    try {
+      return this.list.remove(key);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/finally
+  } // remove(K)
+
+  /**
+   * Get an iterator for the keys in the map when it was called. Later changes are not seen and
+   * the iterator does not support remove.
+   */
+  @Override
+  public Iterator<K> keys() {
+    ArrayList<K> keys = new ArrayList<K>();
+    forEach((key, value) -> keys.add(key));
+    return Collections.unmodifiableList(keys).iterator();
+  } // keys()
+
+  /**
+   * Get an iterator for the values in the map when it was called. Later changes are not seen and
+   * the iterator does not support remove.
+   */
+  @Override
+  public Iterator<V> values() {
+    ArrayList<V> values = new ArrayList<V>();
+    forEach((key, value) -> values.add(value));
+    return Collections.unmodifiableList(values).iterator();
+  } // values()
+
+  /**
+   * Apply a function to each key/value pair while holding the read lock. The action must not
+   * modify this map.
+   */
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    long stamp = this.lock.readLock();
+    try {
+      this.list.forEach(action);
+    } finally {
+      this.lock.unlockRead(stamp);
+    } // try/finally
+  } // forEach
+
+  // +-----------+---------------------------------------------------
+  // | Snapshots |
+  // +-----------+
+
+  /**
+   * Open a read-only view of the map as it is now. Unlike keys and values, which copy the whole
+   * map under the read lock, a snapshot reads a batch at a time, so writers carry on while a long
+   * scan runs and the scan still sees none of their changes. Close it when done.
+   */
+  public SkipListSnapshot<K, V> snapshot() {
+    long stamp = this.lock.writeLock();
+    try {
+      if (this.list.snapshots == null) {
+        this.list.snapshots = new CopyOnWriteArrayList<SkipListSnapshot<K, V>>();
+      } // if
+      return new SkipListSnapshot<K, V>(this.list, this.lock);
+    } finally {
+      this.lock.unlockWrite(stamp);
+    } // try/finally
+  } // snapshot()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the value of key, or ABSENT. This goes through findNode, which writes nothing, rather
+   * than the list's get, which keeps getCounter. The lookup goes into the list's metrics once,
+   * with the steps of the attempt that counted, however many attempts it took.
+   */
+  Object lookup(K key) {
+    SkipListMetrics metrics = this.list.metrics;
+    long start = (metrics == null) ? 0 : System.nanoTime();
+    int[] counts = new int[2];
+    Object value = read((k) -> {
+      Map.Entry<K, V> node = this.list.findNode(k, counts);
+      return (node == null) ? ABSENT : node.getValue();
+    }, key);
+    if (metrics != null) {
+      metrics.recordLookup(System.nanoTime() - start, counts[0], counts[1]);
+    } // if
+    return value;
+  } // lookup(K)
+
+  /**
+   * Run a read-only operation, first optimistically and then, if a writer interfered, under the
+   * read lock. Exceptions from the optimistic attempt only escape if the attempt was valid.
+   */
+  <T> T read(Function<K, T> op, K key) {
+    long stamp = this.lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        T result = op.apply(key);
+        if (this.lock.validate(stamp)) {
+          return result;
+        } // if
+      } catch (RuntimeException e) {
+        if (this.lock.validate(stamp)) {
+          throw e;
+        } // if
+      } // try/catch
+    } // if
+    stamp = this.lock.readLock();
+    try {
+      return op.apply(key);
+    } finally {
+      this.lock.unlockRead(stamp);
+    } // try/finally
+  } // read(Function<K, T>, K)
+
+} // class StampedSkipList
@@ -0,0 +1,243 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records in one file, with group commit.
+ *
+ * Each record is its length, the CRC-32 of its bytes, and its bytes. Appending only copies the
+ * record into a buffer and gives it a sequence number. commit(seq, true) returns once every
+ * record up to seq is on the disk: the first thread to get there writes and forces everything
+ * appended so far, and the threads that arrive while it does wait for it and then find their
+ * records already done, so concurrent writers share one fsync.
+ *
+ * Reading a log stops at the first record that is short or fails its check; that is where a
+ * crash cut off the last write.
+ */
+public class WriteAheadLog implements Closeable {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Bytes before the data of each record: its length and its CRC.
+   */
+  static final int RECORD_HEADER = 8;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The file.
+   */
+  final FileChannel channel;
+
+  /**
+   * Records appended but not yet written, and an empty buffer to swap in while they are.
+   */
+  ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+  ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+
+  /**
+   * The number of records appended, written to the file, and forced to the disk.
+   */
+  long appended;
+  long written;
+  long forced;
+
+  /**
+   * Whether some thread is writing; others wait for it.
+   */
+  boolean writing;
+
+  /**
+   * Why a write failed, if one did. After that we cannot tell what is in the file, so every
+   * later commit fails too.
+   */
+  IOException failure;
+
+  /**
+   * Bytes in the file, counting records still in the buffer.
+   */
+  long length;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open a log for appending, creating it if needed. Anything after the last good record is
+   * cut off first.
+   */
+  public WriteAheadLog(Path file) throws IOException {
+    long good = Files.exists(file) ? read(file, (record) -> { }) : 0;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    this.channel.truncate(good);
+    this.channel.position(good);
+    this.length = good;
+  } // WriteAheadLog(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add a record and return its sequence number.
+   */
+  public synchronized long append(byte[] record) {
+    if (this.buffer.remaining() < RECORD_HEADER + record.length) {
+      int needed = this.buffer.position() + RECORD_HEADER + record.length;
+      ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * this.buffer.capacity(), needed));
+      this.buffer.flip();
+      bigger.put(this.buffer);
+      this.buffer = bigger;
+    } // if
+    CRC32 crc = new CRC32();
+    crc.update(record);
+    this.buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+    this.length += RECORD_HEADER + record.length;
+    return ++this.appended;
+  } // append(byte[])
+
+  /**
+   * Make sure every record up to seq is in the file and, if force is true, on the disk.
+   */
+  public void commit(long seq, boolean force) throws IOException {
+    ByteBuffer pending;
+    long target;
+    synchronized (this) {
+      while (this.writing && (force ? this.forced : this.written) < seq) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted while waiting for the log", e);
+        } // try/catch
+      } // while
+      if ((force ? this.forced : this.written) >= seq) {
+        return;
+      } // if
+      if (this.failure != null) {
+        throw new IOException("an earlier write to the log failed", this.failure);
+      } // if
+      // Our turn: take everything appended so far.
+      this.writing = true;
+      target = this.appended;
+      pending = this.buffer;
+      this.buffer = this.spare;
+      this.spare = null;
+    } // synchronized
+    IOException failure = null;
+    try {
+      pending.flip();
+      while (pending.hasRemaining()) {
+        this.channel.write(pending);
+      } // while
+      if (force) {
+        this.channel.force(false);
+      } // if
+    } catch (IOException e) {
+      failure = e;
+      throw e;
+    } finally {
+      synchronized (this) {
+        if (failure == null) {
+          this.written = target;
+          if (force) {
+            this.forced = target;
+          } // if
+        } else {
+          this.failure = failure;
+        } // if/else
+        pending.clear();
+        this.spare = pending;
+        this.writing = false;
+        notifyAll();
+      } // synchronized
+    } // try/catch/finally
+  } // commit(long, boolean)
+
+  /**
+   * Write and force everything appended so far.
+   */
+  public void sync() throws IOException {
+    commit(appendedCount(), true);
+  } // sync()
+
+  /**
+   * The number of records appended so far.
+   */
+  public synchronized long appendedCount() {
+    return this.appended;
+  } // appendedCount()
+
+  /**
+   * Bytes of records appended but not yet written to the file.
+   */
+  public synchronized int pendingBytes() {
+    return this.buffer.position();
+  } // pendingBytes()
+
+  /**
+   * The length of the log, counting records not yet written.
+   */
+  public synchronized long length() {
+    return this.length;
+  } // length()
+
+  /**
+   * Force everything to the disk and close the file.
+   */
+  @Override
+  public void close() throws IOException {
+    sync();
+    this.channel.close();
+  } // close()
+
+  /**
+   * Pass each good record in file to apply, in order, and return the length of the good part.
+   */
+  public static long read(Path file, Consumer<ByteBuffer> apply) throws IOException {
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = in.size();
+      ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+      long position = 0;
+      while (position + RECORD_HEADER <= size) {
+        header.clear();
+        readFully(in, header, position);
+        int length = header.getInt(0);
+        if (length < 0 || position + RECORD_HEADER + length > size) {
+          break;
+        } // if
+        ByteBuffer record = ByteBuffer.allocate(length);
+        readFully(in, record, position + RECORD_HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(record.array());
+        if ((int) crc.getValue() != header.getInt(4)) {
+          break;
+        } // if
+        apply.accept(record);
+        position += RECORD_HEADER + length;
+      } // while
+      return position;
+    } // try
+  } // read(Path, Consumer<ByteBuffer>)
+
+  static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (in.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("unexpected end of file");
+      } // if
+    } // while
+    buffer.flip();
+  } // readFully(FileChannel, ByteBuffer, long)
+
+} // class WriteAheadLog